@@ -29,7 +29,7 @@ from sklearn import datasets, linear_model, model_selection, metrics, neural_net
 
 #     return regressor
 
-def create_energy_predict_model(verbose):
+def create_energy_predict_model(verbose, regressor=None):
     data = pd.read_csv('data.csv')
     np.set_printoptions(threshold=np.inf) # display entire array
 
@@ -40,8 +40,8 @@ def create_energy_predict_model(verbose):
     x_train, x_test, y_train, y_test = model_selection.train_test_split(
         x, y, test_size=0.3)
 
-    # regressor = neural_network.MLPRegressor()
-    regressor = linear_model.LinearRegression()
+    if regressor is None:
+        regressor = linear_model.LinearRegression()
 
     regressor.fit(x_train, y_train)
 
@@ -58,7 +58,7 @@ def create_energy_predict_model(verbose):
 
     return regressor
 
-def create_price_predict_model(verbose):
+def create_price_predict_model(verbose, regressor=None):
     data = pd.read_csv('data.csv')
     np.set_printoptions(threshold=np.inf) # display entire array
 
@@ -69,8 +69,8 @@ def create_price_predict_model(verbose):
     x_train, x_test, y_train, y_test = model_selection.train_test_split(
         x, y, test_size=0.3)
 
-    # regressor = neural_network.MLPRegressor()
-    regressor = linear_model.LinearRegression()
+    if regressor is None:
+        regressor = linear_model.LinearRegression()
     regressor.fit(x_train, y_train)
 
     if verbose:
@@ -1,10 +1,19 @@
+import os
+import socketserver
+import struct
+import threading
+
+import numpy as np
 from flask import jsonify, request
 from flask_api import FlaskAPI
+from werkzeug.serving import WSGIRequestHandler
 
 import ai
 
 app = FlaskAPI(__name__)
 
+models = {}
+
 
 @app.route('/predict/energy', methods=['POST'])
 def predict_energy():
@@ -18,7 +27,93 @@ def predict_price():
     return jsonify({'prediction': prediction[0].tolist()})
 
 
+# Scores every row of 'data' in one call; the N x 24 result is returned
+# row by row as one flat list, so the client can read it without nesting.
+@app.route('/predict/<name>/batch', methods=['POST'])
+def predict_batch(name):
+    model = models.get(name)
+    if model is None:
+        return jsonify({'error': 'unknown model ' + name}), 404
+    rows = request.get_json()['data']
+    if len(rows) == 0:
+        return jsonify({'rows': 0, 'prediction': []})
+    prediction = model.predict(rows)
+    return jsonify({'rows': len(rows), 'prediction': prediction.ravel().tolist()})
+
+
+# Binary transport for a broker on the same host, enabled by setting
+# PREDICTOR_SOCKET to a socket path. All values are little-endian. A request
+# is three int32s, the model (0 energy, 1 price), the number of rows and the
+# row width, followed by rows * width float64 features. The answer is an
+# int32 count, -1 when the model failed, followed by count float64 values.
+# A header with a bad size is answered with -1 and the connection closed,
+# since the body it announces cannot be skipped.
+SOCKET_MODELS = ['energy', 'price']
+MAX_SOCKET_VALUES = 4 * 1024 * 1024
+
+
+def recv_exactly(sock, size):
+    buf = bytearray(size)
+    view = memoryview(buf)
+    got = 0
+    while got < size:
+        n = sock.recv_into(view[got:], size - got)
+        if n == 0:
+            return None
+        got += n
+    return buf
+
+
+class PredictorSocketHandler(socketserver.BaseRequestHandler):
+    def handle(self):
+        while True:
+            header = recv_exactly(self.request, 12)
+            if header is None:
+                return
+            model_id, rows, width = struct.unpack('<iii', header)
+            if rows < 0 or width <= 0 or rows * width > MAX_SOCKET_VALUES:
+                print('socket request rejected: %d rows of %d' % (rows, width))
+                self.request.sendall(struct.pack('<i', -1))
+                return
+            body = recv_exactly(self.request, rows * width * 8)
+            if body is None:
+                return
+            try:
+                if not 0 <= model_id < len(SOCKET_MODELS):
+                    raise ValueError('unknown model %d' % model_id)
+                model = models[SOCKET_MODELS[model_id]]
+                x = np.frombuffer(body, dtype='<f8').reshape(rows, width)
+                y = np.ascontiguousarray(model.predict(x), dtype='<f8').ravel()
+                self.request.sendall(struct.pack('<i', y.size) + y.tobytes())
+            except Exception as e:
+                print('socket prediction failed:', e)
+                self.request.sendall(struct.pack('<i', -1))
+
+
+def serve_socket(path):
+    if os.path.exists(path):
+        os.unlink(path)
+    server = socketserver.ThreadingUnixStreamServer(path, PredictorSocketHandler)
+    server.daemon_threads = True
+    threading.Thread(target=server.serve_forever, daemon=True).start()
+    print('Serving predictions on', path)
+
+
 if __name__ == "__main__":
     energy_model = ai.create_energy_predict_model(verbose=True)
     price_model = ai.create_price_predict_model(verbose=True)
-    app.run(debug=True)
+    models['energy'] = energy_model
+    models['price'] = price_model
+    # candidates the broker can score in the shadow of the live models
+    if os.environ.get('SHADOW_MODELS'):
+        models['energy_mlp'] = ai.create_energy_predict_model(
+            verbose=True, regressor=ai.neural_network.MLPRegressor())
+        models['price_mlp'] = ai.create_price_predict_model(
+            verbose=True, regressor=ai.neural_network.MLPRegressor())
+    # with the reloader, only the child process serves
+    socket_path = os.environ.get('PREDICTOR_SOCKET')
+    if socket_path and os.environ.get('WERKZEUG_RUN_MAIN') == 'true':
+        serve_socket(socket_path)
+    # HTTP/1.1 keeps the broker's connection open between requests
+    WSGIRequestHandler.protocol_version = "HTTP/1.1"
+    app.run(debug=True, threaded=True)
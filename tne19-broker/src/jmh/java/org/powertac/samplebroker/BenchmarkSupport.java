@@ -0,0 +1,134 @@
+package org.powertac.samplebroker;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+
+import org.powertac.common.Broker;
+import org.powertac.samplebroker.domain.Cleared;
+import org.powertac.samplebroker.domain.PredictionKey;
+import org.powertac.samplebroker.domain.Weather;
+import org.powertac.samplebroker.domain.WeatherPrediction;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.repos.ClearedFuturesRepo;
+import org.powertac.samplebroker.repos.ClearedRepo;
+import org.powertac.samplebroker.repos.WeatherForecastRepo;
+import org.powertac.samplebroker.repos.WeatherReportRepo;
+
+/**
+ * Synthetic game data and wiring shared by the benchmarks. Sizes follow a
+ * standard 2-week game: 360 bootstrap timeslots followed by 336 trading
+ * timeslots, with 24 open timeslots ahead of the current one.
+ */
+public class BenchmarkSupport {
+
+    public static final int FIRST_TIMESLOT = 360;
+
+    public static final int GAME_TIMESLOTS = 336;
+
+    public static final int LAST_TIMESLOT = FIRST_TIMESLOT + GAME_TIMESLOTS;
+
+    public static final int OPEN_TIMESLOTS = 24;
+
+    // trades cleared for each delivery timeslot, one per auction on average
+    public static final int TRADES_PER_TIMESLOT = 24;
+
+    private static boolean repositoriesFilled = false;
+
+    /**
+     * Fills the shared weather and clearing repos with a full game of data.
+     * The repos keep their data in static maps, so this runs once per fork.
+     */
+    public static synchronized void fillRepositories(long seed) {
+        if (repositoriesFilled) {
+            return;
+        }
+        Random random = new Random(seed);
+        WeatherReportRepo weatherReportRepo = new WeatherReportRepo();
+        WeatherForecastRepo weatherForecastRepo = new WeatherForecastRepo();
+        ClearedFuturesRepo clearedFuturesRepo = new ClearedFuturesRepo();
+        ClearedRepo clearedRepo = new ClearedRepo();
+        int end = LAST_TIMESLOT + 2 * OPEN_TIMESLOTS;
+        for (int ts = 0; ts <= end; ts++) {
+            double temperature = 10.0 + 8.0 * Math.sin(ts * Math.PI / 12.0) + random.nextGaussian();
+            double wind = Math.abs(5.0 + 2.0 * random.nextGaussian());
+            weatherReportRepo.save(ts, new Weather(wind, temperature, random.nextDouble()));
+            for (int j = 1; j <= OPEN_TIMESLOTS; j++) {
+                weatherForecastRepo.save(new PredictionKey(ts, ts + j),
+                        new WeatherPrediction(wind + random.nextGaussian(), temperature + random.nextGaussian(),
+                                random.nextDouble()));
+            }
+            for (int k = 0; k < TRADES_PER_TIMESLOT; k++) {
+                clearedFuturesRepo.updateFutureTimeslot(ts, 5.0 + 20.0 * random.nextDouble(), price(random, ts));
+            }
+        }
+        for (int ts = 0; ts <= end; ts++) {
+            clearedRepo.save(ts, new Cleared(clearedFuturesRepo.getPartialClearedForNext24Timeslots(ts)));
+        }
+        repositoriesFilled = true;
+    }
+
+    public static double price(Random random, int timeslot) {
+        return 30.0 + 15.0 * Math.sin(timeslot * Math.PI / 12.0) + 5.0 * random.nextGaussian();
+    }
+
+    /**
+     * Returns a BrokerContext that answers the calls the services make during
+     * the benchmarks and swallows outgoing messages.
+     */
+    public static BrokerContext brokerContext(final String username) {
+        final Broker broker = new Broker(username);
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getBroker":
+                    return broker;
+                case "getBrokerUsername":
+                    return username;
+                case "getUsageRecordLength":
+                    return 7 * 24;
+                default:
+                    return defaultValue(method.getReturnType());
+                }
+            }
+        };
+        return (BrokerContext) Proxy.newProxyInstance(BrokerContext.class.getClassLoader(),
+                new Class<?>[] { BrokerContext.class }, handler);
+    }
+
+    /**
+     * Sets a private field, standing in for Spring's autowiring.
+     */
+    public static void inject(Object target, String fieldName, Object value) {
+        Class<?> clazz = target.getClass();
+        while (clazz != null) {
+            try {
+                Field field = clazz.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                clazz = clazz.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + fieldName + " in " + target.getClass());
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,71 @@
+package org.powertac.samplebroker;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.powertac.common.Orderbook;
+import org.powertac.common.OrderbookOrder;
+import org.powertac.samplebroker.journal.EventJournal;
+import org.powertac.samplebroker.metrics.MetricsService;
+
+/**
+ * Orderbook handling for books of the given depth on each side. A 2-week
+ * game delivers one orderbook per open timeslot per timeslot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarketManagerServiceBenchmark {
+
+    @Param({ "5", "20", "100" })
+    private int depth;
+
+    private MarketManagerService service;
+
+    private Orderbook[] orderbooks;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        service = new MarketManagerService();
+        BenchmarkSupport.inject(service, "metrics", new MetricsService());
+        // never opened, so recording costs what it does with journaling off
+        BenchmarkSupport.inject(service, "journal", new EventJournal());
+        orderbooks = new Orderbook[BenchmarkSupport.OPEN_TIMESLOTS];
+        for (int i = 0; i < orderbooks.length; i++) {
+            int timeslot = BenchmarkSupport.FIRST_TIMESLOT + i + 1;
+            Orderbook orderbook = new Orderbook(timeslot, BenchmarkSupport.price(random, timeslot), new Instant(0L));
+            for (int d = 0; d < depth; d++) {
+                orderbook.addBid(new OrderbookOrder(10.0 * random.nextDouble(), -BenchmarkSupport.price(random, d)));
+                orderbook.addAsk(new OrderbookOrder(-10.0 * random.nextDouble(), BenchmarkSupport.price(random, d)));
+            }
+            orderbooks[i] = orderbook;
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public void handleOrderbook() {
+        service.handleMessage(orderbooks[next]);
+        if (++next == orderbooks.length) {
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.powertac.samplebroker;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.TariffSpecification;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.PortfolioManagerService.CustomerRecord;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.services.UsageForecaster;
+
+/**
+ * Usage collection over the subscribed customer records, for populations of
+ * customers spread over one tariff per power type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioManagerServiceBenchmark {
+
+    private static final PowerType[] POWER_TYPES = { PowerType.CONSUMPTION, PowerType.INTERRUPTIBLE_CONSUMPTION,
+            PowerType.THERMAL_STORAGE_CONSUMPTION, PowerType.SOLAR_PRODUCTION, PowerType.WIND_PRODUCTION,
+            PowerType.BATTERY_STORAGE, PowerType.ELECTRIC_VEHICLE, PowerType.FOSSIL_PRODUCTION };
+
+    @Param({ "50", "200", "1000" })
+    private int customers;
+
+    private PortfolioManagerService service;
+
+    private double[] horizon = new double[BenchmarkSupport.OPEN_TIMESLOTS];
+
+    private int index;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.fillRepositories(42L);
+        Random random = new Random(42L);
+        BrokerContext context = BenchmarkSupport.brokerContext("benchmark");
+        service = new PortfolioManagerService();
+        BenchmarkSupport.inject(service, "brokerContext", context);
+        BenchmarkSupport.inject(service, "customerProfiles", new LinkedHashMap<>());
+        BenchmarkSupport.inject(service, "customerSubscriptions", new LinkedHashMap<>());
+        BenchmarkSupport.inject(service, "competingTariffs", new HashMap<>());
+        UsageForecaster forecaster = new UsageForecaster(0.3, 0.05);
+        BenchmarkSupport.inject(service, "usageForecaster", forecaster);
+
+        TariffSpecification[] specs = new TariffSpecification[POWER_TYPES.length];
+        for (int i = 0; i < POWER_TYPES.length; i++) {
+            specs[i] = new TariffSpecification(context.getBroker(), POWER_TYPES[i]);
+        }
+        for (int c = 0; c < customers; c++) {
+            PowerType type = POWER_TYPES[c % POWER_TYPES.length];
+            int population = 1 + random.nextInt(1000);
+            CustomerInfo info = new CustomerInfo("customer" + c, population).withPowerType(type);
+            CustomerRecord record = service.getCustomerRecordByTariff(specs[c % specs.length], info);
+            record.signup(population);
+            double sign = type.isProduction() ? -1.0 : 1.0;
+            for (int i = 0; i < record.usage.length; i++) {
+                record.usage[i] = sign * (0.5 + random.nextDouble());
+            }
+            for (int ts = 0; ts < BenchmarkSupport.FIRST_TIMESLOT; ts++) {
+                forecaster.addBootstrapUsage(type, ts, sign * population * (0.5 + random.nextDouble()), population);
+            }
+        }
+        forecaster.complete();
+        index = BenchmarkSupport.FIRST_TIMESLOT;
+    }
+
+    @Benchmark
+    public double collectUsage() {
+        return service.collectUsage(nextIndex());
+    }
+
+    @Benchmark
+    public double[] collectUsageForecast() {
+        service.collectUsageForecast(nextIndex(), horizon);
+        return horizon;
+    }
+
+    private int nextIndex() {
+        if (++index > BenchmarkSupport.LAST_TIMESLOT) {
+            index = BenchmarkSupport.FIRST_TIMESLOT;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,48 @@
+package org.powertac.samplebroker.domain;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.powertac.samplebroker.BenchmarkSupport;
+
+/**
+ * Mean price of a delivery timeslot after a given number of cleared trades.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartialClearedBenchmark {
+
+    @Param({ "1", "24", "72" })
+    private int trades;
+
+    private PartialCleared partialCleared;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        partialCleared = new PartialCleared(10.0, BenchmarkSupport.price(random, 0));
+        for (int i = 1; i < trades; i++) {
+            partialCleared.addPrice(BenchmarkSupport.price(random, i)).addQuantity(10.0);
+        }
+    }
+
+    @Benchmark
+    public Double getMeanPrice() {
+        return partialCleared.getMeanPrice();
+    }
+}
@@ -0,0 +1,78 @@
+package org.powertac.samplebroker.repos;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.powertac.samplebroker.BenchmarkSupport;
+import org.powertac.samplebroker.domain.PartialCleared;
+
+/**
+ * ClearedTrade bookkeeping: one update followed by the 24-slot snapshot that
+ * handleMessage(ClearedTrade) takes after it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClearedFuturesRepoBenchmark {
+
+    private ClearedFuturesRepo repo;
+
+    private Random random;
+
+    private int current;
+
+    private int offset;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.fillRepositories(42L);
+        repo = new ClearedFuturesRepo();
+        random = new Random(7L);
+        current = BenchmarkSupport.FIRST_TIMESLOT;
+        offset = 0;
+    }
+
+    @Benchmark
+    public void updateFutureTimeslot() {
+        int timeslot = next();
+        repo.updateFutureTimeslot(timeslot, 10.0, BenchmarkSupport.price(random, timeslot));
+    }
+
+    @Benchmark
+    public ArrayList<PartialCleared> getPartialClearedForNext24Timeslots() {
+        next();
+        return repo.getPartialClearedForNext24Timeslots(current);
+    }
+
+    @Benchmark
+    public ArrayList<PartialCleared> updateAndSnapshot() {
+        int timeslot = next();
+        repo.updateFutureTimeslot(timeslot, 10.0, BenchmarkSupport.price(random, timeslot));
+        return repo.getPartialClearedForNext24Timeslots(current);
+    }
+
+    // walks the open timeslots of each trading timeslot in turn
+    private int next() {
+        if (++offset > BenchmarkSupport.OPEN_TIMESLOTS) {
+            offset = 1;
+            if (++current > BenchmarkSupport.LAST_TIMESLOT) {
+                current = BenchmarkSupport.FIRST_TIMESLOT;
+            }
+        }
+        return current + offset;
+    }
+}
@@ -0,0 +1,69 @@
+package org.powertac.samplebroker.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.powertac.samplebroker.BenchmarkSupport;
+
+/**
+ * Feature row construction and encoding for one prediction request, and
+ * decoding of its answer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiBenchmark {
+
+    private FeatureBuilder builder = new FeatureBuilder();
+
+    private int timeslot;
+
+    private PredictionCodec codec = new PredictionCodec();
+
+    private double[] features = new double[FeatureBuilder.FEATURES];
+
+    private byte[] answer;
+
+    private double[] result = new double[PredictionCodec.HORIZON];
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.fillRepositories(42L);
+        timeslot = BenchmarkSupport.FIRST_TIMESLOT;
+        StringBuilder sb = new StringBuilder("{\"prediction\": [");
+        for (int i = 0; i < PredictionCodec.HORIZON; i++) {
+            sb.append(i > 0 ? ", " : "").append(40.0 + Math.sin(i) * 12.345678901234567);
+        }
+        answer = sb.append("]}\n").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public long encodePrediction() {
+        if (++timeslot > BenchmarkSupport.LAST_TIMESLOT) {
+            timeslot = BenchmarkSupport.FIRST_TIMESLOT + 1;
+        }
+        builder.build(timeslot - 1, features);
+        return codec.encode(features, FeatureBuilder.FEATURES).getContentLength();
+    }
+
+    @Benchmark
+    public double[] decodePrediction() throws IOException {
+        codec.decode(new ByteArrayInputStream(answer), result);
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package org.powertac.samplebroker.utils;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.powertac.samplebroker.BenchmarkSupport;
+import org.powertac.util.Pair;
+
+/**
+ * Best buy/sell pair over a 24-slot price prediction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaxDifferenceBenchmark {
+
+    private ArrayList<Double> prices;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42L);
+        prices = new ArrayList<>();
+        for (int i = 0; i < BenchmarkSupport.OPEN_TIMESLOTS; i++) {
+            prices.add(BenchmarkSupport.price(random, i));
+        }
+    }
+
+    @Benchmark
+    public Pair<Integer, Integer> maxDiff() {
+        return MaxDifference.maxDiff(prices);
+    }
+}
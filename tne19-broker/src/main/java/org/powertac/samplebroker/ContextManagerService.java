@@ -15,8 +15,6 @@
  */
 package org.powertac.samplebroker;
 
-import java.util.ArrayList;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.powertac.common.BankTransaction;
@@ -25,7 +23,9 @@ import org.powertac.common.Competition;
 import org.powertac.common.msg.DistributionReport;
 import org.powertac.samplebroker.interfaces.BrokerContext;
 import org.powertac.samplebroker.interfaces.Initializable;
+import org.powertac.samplebroker.services.LedgerService;
 import org.powertac.samplebroker.services.PrintService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
@@ -39,11 +39,12 @@ public class ContextManagerService implements Initializable {
 
   BrokerContext master;
 
+  @Autowired
+  private LedgerService ledger;
+
   // current cash balance
   private double cash = 0;
 
-  private ArrayList<Double> cashArray = new ArrayList<>();
-
   // @SuppressWarnings("unchecked")
   @Override
   public void initialize(BrokerContext broker) {
@@ -79,7 +80,7 @@ public class ContextManagerService implements Initializable {
    * negative for debit.
    */
   public void handleMessage(BankTransaction btx) {
-    // TODO - handle this
+    ledger.record(LedgerService.Component.BANK, btx.getPostedTimeslotIndex(), btx.getAmount());
     log.info("Bank transaction: " + btx.toString());
   }
 
@@ -87,7 +88,7 @@ public class ContextManagerService implements Initializable {
    * CashPosition updates our current bank balance.
    */
   public void handleMessage(CashPosition cp) {
-    cashArray.add(cp.getBalance());
+    ledger.recordCash(cp.getPostedTimeslotIndex(), cp.getBalance());
     cash = cp.getBalance();
     log.info("Cash position: " + cash);
   }
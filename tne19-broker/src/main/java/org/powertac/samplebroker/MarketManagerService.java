@@ -16,8 +16,9 @@
 package org.powertac.samplebroker;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.Iterator;
 import java.util.SortedSet;
 
 import org.apache.logging.log4j.LogManager;
@@ -38,6 +39,7 @@ import org.powertac.common.WeatherReport;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.msg.BalanceReport;
 import org.powertac.common.msg.MarketBootstrapData;
+import org.powertac.common.msg.TimeslotComplete;
 import org.powertac.common.repo.TimeslotRepo;
 import org.powertac.samplebroker.core.BrokerPropertiesService;
 import org.powertac.samplebroker.domain.Cleared;
@@ -50,14 +52,29 @@ import org.powertac.samplebroker.interfaces.BrokerContext;
 import org.powertac.samplebroker.interfaces.Initializable;
 import org.powertac.samplebroker.interfaces.MarketManager;
 import org.powertac.samplebroker.interfaces.PortfolioManager;
+import org.powertac.samplebroker.interfaces.WholesaleContext;
+import org.powertac.samplebroker.journal.EventJournal;
+import org.powertac.samplebroker.journal.JournalEvent;
+import org.powertac.samplebroker.metrics.ActivationPhase;
+import org.powertac.samplebroker.metrics.FlightEvents;
+import org.powertac.samplebroker.metrics.MetricsService;
+import org.powertac.samplebroker.repos.BalancingCostRepo;
 import org.powertac.samplebroker.repos.ClearedFuturesRepo;
 import org.powertac.samplebroker.repos.ClearedRepo;
+import org.powertac.samplebroker.repos.ClearingStatsRepo;
+import org.powertac.samplebroker.repos.FillRateRepo;
 import org.powertac.samplebroker.repos.WeatherForecastRepo;
 import org.powertac.samplebroker.repos.WeatherReportRepo;
 import org.powertac.samplebroker.services.API;
+import org.powertac.samplebroker.services.ActivationDeadline;
+import org.powertac.samplebroker.services.LadderStrategy;
+import org.powertac.samplebroker.services.LedgerService;
+import org.powertac.samplebroker.services.OrderBatch;
+import org.powertac.samplebroker.services.PositionTracker;
+import org.powertac.samplebroker.services.SeasonalFallbackPredictor;
+import org.powertac.samplebroker.services.WarmupService;
 import org.powertac.samplebroker.services.PrintService;
-import org.powertac.samplebroker.utils.MaxDifference;
-import org.powertac.util.Pair;
+import org.powertac.samplebroker.utils.LadderEngine;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -67,7 +84,7 @@ import org.springframework.stereotype.Service;
  * @author John Collins
  */
 @Service
-public class MarketManagerService implements MarketManager, Initializable, Activatable {
+public class MarketManagerService implements MarketManager, Initializable, Activatable, WholesaleContext {
   static private Logger log = LogManager.getLogger(MarketManagerService.class);
 
   private BrokerContext broker; // broker
@@ -85,6 +102,18 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
   @Autowired
   private API api;
 
+  @Autowired
+  private MetricsService metrics;
+
+  @Autowired
+  private EventJournal journal;
+
+  @Autowired
+  private LedgerService ledger;
+
+  @Autowired
+  private WarmupService warmup;
+
   private WeatherForecastRepo weatherForecastRepo = new WeatherForecastRepo();
 
   private WeatherReportRepo weatherReportRepo = new WeatherReportRepo();
@@ -110,27 +139,87 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
   @ConfigurableValue(valueType = "Double", description = "Minimum bid/ask quantity in MWh")
   private double minMWh = 0.001; // don't worry about 1 KWh or less
 
-  @ConfigurableValue(valueType = "Integer", description = "If set, seed the random generator")
-  private Integer seedNumber = null;
+  @ConfigurableValue(valueType = "Integer", description = "Price levels per timeslot in order ladders")
+  private int ladderLevels = 3;
+
+  @ConfigurableValue(valueType = "Double", description = "Ladder level spacing in price error standard deviations")
+  private double ladderSpread = 1.0;
+
+  @ConfigurableValue(valueType = "Double", description = "Ladder price shift in the last auction, in standard deviations")
+  private double ladderUrgency = 2.0;
+
+  @ConfigurableValue(valueType = "Double", description = "Price error as a fraction of price until errors are observed")
+  private double ladderDefaultError = 0.15;
+
+  @ConfigurableValue(valueType = "Double", description = "Fraction of the wall-clock timeslot an activation may use")
+  private double activationBudgetFraction = 0.8;
+
+  @ConfigurableValue(valueType = "Integer", description = "Least time in ms left for a stage to ask for predictions")
+  private int stageMinMillis = 250;
+
+  @ConfigurableValue(valueType = "Integer", description = "Time in ms kept back from prediction requests for sending orders")
+  private int sendReserveMillis = 100;
+
+  @ConfigurableValue(valueType = "Boolean", description = "Run the arbitrage stage")
+  private boolean arbitrageEnabled = false;
+
+  @ConfigurableValue(valueType = "Boolean", description = "Cap net sells at the position held, so we never go short")
+  private boolean sellCapEnabled = false;
+
+  @ConfigurableValue(valueType = "Double", description = "Least weight of a new week in the fallback hour-of-week means")
+  private double fallbackAlpha = 0.25;
+
+  @ConfigurableValue(valueType = "Integer", description = "Balancing transactions kept per hour of day and imbalance sign")
+  private int balancingWindow = 14;
+
+  @ConfigurableValue(valueType = "Integer", description = "Trades an hour and lead needs before its mean clearing price is trusted")
+  private int clearingStatsMinTrades = 3;
+
+  @ConfigurableValue(valueType = "Boolean", description = "Buy each timeslot at the lead where its hour has cleared cheapest")
+  private boolean leadTimingEnabled = false;
+
+  @ConfigurableValue(valueType = "Boolean", description = "Buy day-ahead what our customers need, less what we hold, not the market-wide cleared quantity")
+  private boolean usageNeedEnabled = false;
+
+  @ConfigurableValue(valueType = "Double", description = "Share of the MWh ordered that should fill; limit prices are capped to reach it, 0 for off")
+  private double fillTarget = 0.0;
+
+  @ConfigurableValue(valueType = "Integer", description = "Orders a lead and limit ratio needs before its fill rate is trusted")
+  private int fillMinOrders = 10;
 
   // ---------------- local state ------------------
-  private Random randomGen; // to randomize bid/ask prices
 
   // Bid recording
   private HashMap<Integer, ArrayList<Order>> lastOrders;
+  private OrderBatch orderBatch;
+  private PositionTracker positions = new PositionTracker();
+  private double[] usageForecast = new double[PositionTracker.HORIZON];
   private double[] marketMWh;
   private double[] marketPrice;
   private double meanMarketPrice = 0.0;
-  private ArrayList<Double> balacingQuantity = new ArrayList<>();
-  private ArrayList<Double> balacingPrice = new ArrayList<>();
+  private BalancingCostRepo balancingCostRepo;
+  private ClearingStatsRepo clearingStatsRepo;
+  private FillRateRepo fillRateRepo;
+  // prices predicted for the open timeslots this activation, for fillRateRepo
+  private double[] orderPrices = new double[LadderEngine.HORIZON];
   private int currentTimeslot;
-  private int sellingIndex;
-  private int buyingIndex = 0;
-  private double buyingOrderQuantity = 0.0;
-  private Double sellingPrice = 0.0;
+  private ActivationDeadline deadline;
 
-  private double oldLimitPrice = 50;
-  private double buyPriceMultiplier = 2.0;
+  // last complete predictions and the timeslot they were made in
+  private double[] cachedPrices = new double[LadderEngine.HORIZON];
+  private int cachedPricesOrigin = -1;
+  private double[] cachedAmounts = new double[LadderEngine.HORIZON];
+  private int cachedAmountsOrigin = -1;
+
+  // wholesale strategy, run against this service as its WholesaleContext
+  private LadderStrategy strategy;
+
+  // hour-of-week predictions for when the prediction service is down
+  private SeasonalFallbackPredictor fallback;
+  private int bootstrapOffset = 0;
+
+  // timeslots the repos are sized for, bootstrap included
+  private int expectedTimeslots = 2000;
 
   public MarketManagerService() {
     super();
@@ -147,14 +236,23 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
     this.broker = broker;
     lastOrders = new HashMap<>();
     propertiesService.configureMe(this);
-    System.out.println("  name=" + broker.getBrokerUsername());
-    if (seedNumber != null) {
-      System.out.println("  seeding=" + seedNumber);
-      log.info("Seeding with : " + seedNumber);
-      randomGen = new Random(seedNumber);
-    } else {
-      randomGen = new Random();
-    }
+    log.info("name={}", broker.getBrokerUsername());
+    deadline = new ActivationDeadline(activationBudgetFraction);
+    orderBatch = new OrderBatch().withSellCap(sellCapEnabled);
+    strategy = newStrategy();
+    fallback = new SeasonalFallbackPredictor(fallbackAlpha);
+    balancingCostRepo = new BalancingCostRepo(balancingWindow);
+    clearingStatsRepo = new ClearingStatsRepo(clearingStatsMinTrades);
+    fillRateRepo = new FillRateRepo(fillMinOrders);
+  }
+
+  // A wholesale strategy as configured, with no history
+  private LadderStrategy newStrategy() {
+    LadderEngine ladder = new LadderEngine(ladderLevels).withSpread(ladderSpread).withUrgency(ladderUrgency)
+        .withDefaultError(ladderDefaultError).withBuyLimits(buyLimitPriceMin, buyLimitPriceMax)
+        .withSellLimits(sellLimitPriceMin, sellLimitPriceMax);
+    return new LadderStrategy(ladder, minMWh, arbitrageEnabled).withLeadTiming(leadTimingEnabled)
+        .withUsageNeed(usageNeedEnabled).withFillTarget(fillTarget);
   }
 
   // ----------------- data access -------------------
@@ -175,19 +273,34 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    */
   public synchronized void handleMessage(Competition comp) {
     PrintService.getInstance().addBrokersAndConsumers(comp.getBrokers().size(), comp.getCustomers().size());
-    System.out.println("Competition");
+    log.info("Competition");
     minMWh = Math.max(minMWh, comp.getMinimumOrderQuantity());
+    strategy.setMinMWh(minMWh);
+    // wall-clock time available per timeslot
+    metrics.setTimeslotBudget(comp.getTimeslotDuration() / comp.getSimulationRate());
+    deadline.setTimeslotBudget(comp.getTimeslotDuration() / comp.getSimulationRate());
+    // bootstrap data starts after the discarded timeslots
+    bootstrapOffset = comp.getBootstrapDiscardedTimeslots();
+    expectedTimeslots = comp.getBootstrapTimeslotCount() + comp.getExpectedTimeslotCount() + 2 * 24;
+  }
+
+  /**
+   * Notes when a timeslot ends, so its activation knows how much of the next
+   * one is left. Not synchronized: it must not wait for a running activation.
+   */
+  public void handleMessage(TimeslotComplete tc) {
+    deadline.timeslotComplete(tc.getTimeslotIndex());
   }
 
   /**
    * Handles a BalancingTransaction message.
    */
   public synchronized void handleMessage(BalancingTransaction tx) {
-    // System.out.println("Balancing Transaction: "+tx.getKWh()+ " charge:
-    // "+tx.getCharge());
-    balacingQuantity.add(tx.getKWh());
-    balacingPrice.add(tx.getCharge());
-    System.out.println("Balancing charge: " + tx.getCharge());
+    long start = metrics.start();
+    balancingCostRepo.add(tx.getPostedTimeslotIndex(), tx.getKWh(), tx.getCharge());
+    ledger.record(LedgerService.Component.BALANCING, tx.getPostedTimeslotIndex(), tx.getCharge());
+    journal.record(JournalEvent.BALANCING, currentTimeslot, 0L, tx.getKWh(), tx.getCharge());
+    metrics.handled(BalancingTransaction.class, start);
   }
 
   /**
@@ -195,20 +308,25 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    * of market prices.
    */
   public synchronized void handleMessage(ClearedTrade ct) {
+    long start = metrics.start();
     clearedFuturesRepo.updateFutureTimeslot(ct.getTimeslotIndex(), ct.getExecutionMWh(), ct.getExecutionPrice());
+    clearingStatsRepo.add(ct.getTimeslotIndex(), currentTimeslot, ct.getExecutionMWh(), ct.getExecutionPrice());
     ArrayList<PartialCleared> next24Cleared = clearedFuturesRepo.getPartialClearedForNext24Timeslots(currentTimeslot);
     Cleared cleared = new Cleared(next24Cleared);
     clearedRepo.save(currentTimeslot, cleared);
     //System.out.println("Cleared for "+ct.getTimeslotIndex()+" by " +ct.getExecutionMWh());
-    log.info("Cleared Trade: Mwh - " + ct.getExecutionMWh() + "; Price: " + ct.getExecutionPrice() + " timeslot: "
-        + ct.getTimeslotIndex());
+    journal.record(JournalEvent.CLEARED_TRADE, currentTimeslot, ct.getTimeslotIndex(), ct.getExecutionMWh(),
+        ct.getExecutionPrice());
+    strategy.observeClearing(ct.getTimeslotIndex(), currentTimeslot, ct.getExecutionPrice());
+    fallback.observeClearing(ct.getTimeslotIndex(), ct.getExecutionMWh(), ct.getExecutionPrice());
+    metrics.handled(ClearedTrade.class, start);
   }
 
   /**
    * Handles a DistributionTransaction - charges for transporting power
    */
   public synchronized void handleMessage(DistributionTransaction dt) {
-    //System.out.println("Distribution charge: " + dt.getCharge());
+    ledger.record(LedgerService.Component.DISTRIBUTION, dt.getPostedTimeslotIndex(), dt.getCharge());
   }
 
   /**
@@ -216,7 +334,7 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    * demand over the recent past.
    */
   public synchronized void handleMessage(CapacityTransaction dt) {
-    //System.out.println("Capacity charge: " + dt.getCharge());
+    ledger.record(LedgerService.Component.CAPACITY, dt.getPostedTimeslotIndex(), dt.getCharge());
   }
 
   /**
@@ -245,6 +363,17 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
       }
     }
     meanMarketPrice = totalValue / totalUsage;
+    fallback.addBootstrap(bootstrapOffset, data.getMwh(), data.getMarketPrice());
+    // room for the whole game, and the first activation's code paths warmed
+    ClearedRepo.presize(expectedTimeslots);
+    ClearedFuturesRepo.presize(expectedTimeslots);
+    WeatherReportRepo.presize(expectedTimeslots);
+    WeatherForecastRepo.presize(expectedTimeslots * 24);
+    warmup.start(bootstrapOffset, data.getMwh(), data.getMarketPrice(), newStrategy(), minMWh, fallbackAlpha);
+    for (int i = 0; i < data.getMwh().length; i++) {
+      journal.record(JournalEvent.BOOTSTRAP, currentTimeslot, bootstrapOffset + i, data.getMwh()[i],
+          data.getMarketPrice()[i]);
+    }
   }
 
   /**
@@ -252,8 +381,11 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    * wholesale market
    */
   public synchronized void handleMessage(MarketPosition posn) {
-    log.info("Market position: " + posn.toString());
+    long start = metrics.start();
+    log.debug("Market position: {}", posn);
     broker.getBroker().addMarketPosition(posn, posn.getTimeslotIndex());
+    positions.update(posn.getTimeslotIndex(), posn.getOverallBalance());
+    metrics.handled(MarketPosition.class, start);
   }
 
   /**
@@ -261,15 +393,25 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    * placed has cleared.
    */
   public synchronized void handleMessage(MarketTransaction tx) {
-    log.info("Market transaction:" + tx.toString());
+    long start = metrics.start();
+    log.debug("Market transaction: {}", tx);
+    // price is negative for what we buy
+    ledger.record(LedgerService.Component.WHOLESALE, tx.getPostedTimeslotIndex(),
+        tx.getPrice() * Math.abs(tx.getMWh()));
+    fillRateRepo.filled(tx.getTimeslotIndex(), tx.getMWh(), tx.getPrice());
     // reset price escalation when a trade fully clears.
     ArrayList<Order> lastTries = lastOrders.get(tx.getTimeslotIndex());
-    for (Order lastTry : lastTries) {
-      if (tx.getMWh() == lastTry.getMWh()) {
-        System.out.println("Cleared "+lastTry.getMWh() + " for timeslot "+tx.getTimeslotIndex());
-        lastTries.remove(lastTry);
+    if (lastTries != null) {
+      Iterator<Order> tries = lastTries.iterator();
+      while (tries.hasNext()) {
+        if (tx.getMWh() == tries.next().getMWh()) {
+          journal.record(JournalEvent.ORDER_CLEARED, currentTimeslot, tx.getTimeslotIndex(), tx.getMWh(),
+              tx.getPrice());
+          tries.remove();
+        }
       }
     }
+    metrics.handled(MarketTransaction.class, start);
   }
 
   /**
@@ -278,7 +420,8 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    * timeslot.
    */
   public synchronized void handleMessage(Orderbook orderbook) {
-    log.info("Order book received");
+    long start = metrics.start();
+    log.debug("Order book received");
     SortedSet<OrderbookOrder> asks = orderbook.getAsks();
     SortedSet<OrderbookOrder> bids = orderbook.getBids();
     double totalAmountAsks = 0;
@@ -290,31 +433,47 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
       totalAmountBids += bid.getMWh();
     }
     PrintService.getInstance().addAsksAndBids(totalAmountAsks, totalAmountBids);
+    Double clearingPrice = orderbook.getClearingPrice();
+    Double bestAsk = asks.isEmpty() ? null : asks.first().getLimitPrice();
+    journal.record(JournalEvent.ORDERBOOK, currentTimeslot, orderbook.getTimeslotIndex(),
+        clearingPrice == null ? Double.NaN : clearingPrice, bestAsk == null ? Double.NaN : bestAsk);
+    metrics.handled(Orderbook.class, start);
   }
 
   /**
    * Receives a new WeatherForecast.
    */
   public synchronized void handleMessage(WeatherForecast forecast) {
-    log.info("Weather forecast received");
-    forecast.getPredictions().forEach(p -> log.info("; temp: " + p.getTemperature() + "; clouds: " + p.getCloudCover()
-        + "; time: " + p.getForecastTime() + "; wind speed: " + p.getWindSpeed()));
+    long start = metrics.start();
+    if (log.isDebugEnabled()) {
+      log.debug("Weather forecast received");
+      for (WeatherForecastPrediction p : forecast.getPredictions()) {
+        log.debug("temp: {}; clouds: {}; time: {}; wind speed: {}", p.getTemperature(), p.getCloudCover(),
+            p.getForecastTime(), p.getWindSpeed());
+      }
+    }
     for (int i = 0; i < 24; i++) {
       WeatherForecastPrediction nextDayForecast = forecast.getPredictions().get(i);
       PredictionKey key = new PredictionKey(forecast.getTimeslotIndex(), forecast.getTimeslotIndex() + i + 1);
       weatherForecastRepo.save(key,
-          new WeatherPrediction(nextDayForecast.getWindSpeed(), nextDayForecast.getTemperature()));
+          new WeatherPrediction(nextDayForecast.getWindSpeed(), nextDayForecast.getTemperature(),
+              nextDayForecast.getCloudCover()));
     }
+    metrics.handled(WeatherForecast.class, start);
   }
 
   /**
    * Receives a new WeatherReport.
    */
   public synchronized void handleMessage(WeatherReport report) {
-    log.info("Weather Report received");
-    log.info("temp: " + report.getTemperature() + "; clouds: " + report.getCloudCover() + "; wind: "
-        + report.getWindSpeed());
-    weatherReportRepo.save(report.getTimeslotIndex(), new Weather(report.getWindSpeed(), report.getTemperature()));
+    long start = metrics.start();
+    log.debug("Weather Report received, temp: {}; clouds: {}; wind: {}", report.getTemperature(),
+        report.getCloudCover(), report.getWindSpeed());
+    weatherReportRepo.save(report.getTimeslotIndex(), new Weather(report.getWindSpeed(), report.getTemperature(),
+        report.getCloudCover()));
+    journal.record(JournalEvent.WEATHER, currentTimeslot, report.getTimeslotIndex(), report.getTemperature(),
+        report.getWindSpeed());
+    metrics.handled(WeatherReport.class, start);
   }
 
   /**
@@ -335,121 +494,164 @@ public class MarketManagerService implements MarketManager, Initializable, Activ
    */
   @Override
   public synchronized void activate(int timeslotIndex) {
-    double neededMWh = 0.0;
     this.currentTimeslot = timeslotIndex;
-    System.out.println("Timeslot " + timeslotRepo.currentTimeslot().getSerialNumber());
-    applyWholeSaleStrategy();
-  }
-
-  private void applyWholeSaleStrategy() {
-    Double energyBalance = broker.getBroker().findMarketPositionByTimeslot(this.currentTimeslot).getOverallBalance();
-    //place first 24h orders
-    // if(this.currentTimeslot < 386){
-    //  MUST FIND A STRATEGY FOR FIRST 24 BECAUSE OF RETAIL TARIFFS
-    //   if(energyBalance == 0){
-    //     submitOrder(100, -20, this.currentTimeslot + 1);
-    //   }
-    //   else if(energyBalance > 0){
-    //     submitOrder(-energyBalance * 1.5, 25, this.currentTimeslot + 1);
-    //   }
-    //   else if(energyBalance < 0){
-    //     submitOrder(-energyBalance * 1.5, -20, this.currentTimeslot + 1);
-    //   }
-    // }
-    // else 
-    if (this.currentTimeslot == 386) {
-      ArrayList<Double> prices = api.predictPrices(this.currentTimeslot);
-      ArrayList<Double> amounts = api.predictAmounts(this.currentTimeslot);
-      Double averagePrice = averagePrice(prices);
-      for(Integer i=0; i<prices.size(); i++) {
-        if(prices.get(i) <= averagePrice) {
-          submitOrder(amounts.get(i), -prices.get(i) * 0.8, 386+i+1);
-        }
-      }      
+    metrics.beginActivation(timeslotIndex);
+    warmup.stop();
+    try {
+      deadline.begin(timeslotIndex);
+      orderBatch.begin(timeslotIndex, minMWh);
+      positions.shift(timeslotIndex);
+      fallback.complete(timeslotIndex);
+      fillRateRepo.settle();
+      Arrays.fill(orderPrices, Double.NaN);
+      strategy.apply(this);
+    } finally {
+      metrics.endActivation();
     }
-    else if(this.currentTimeslot > 386){
-      ArrayList<Double> prices = api.predictPrices(this.currentTimeslot);
-      ArrayList<Double> amounts = api.predictAmounts(this.currentTimeslot);
-      Double averagePrice = averagePrice(prices);
-      int lastIdx = prices.size() - 1;
-      System.out.println("Energy balance: " + energyBalance);
-      if(energyBalance == 0){
-        if(prices.get(lastIdx) <= averagePrice) {
-          submitOrder(amounts.get(lastIdx), -prices.get(lastIdx) * 0.6, this.currentTimeslot + 24);
-        }
-      }
-      // else if(energyBalance > 0){
-      //   submitOrder(-energyBalance * 2, prices.get(0) * 0.8, this.currentTimeslot + 1);
-      // }
-      else if(energyBalance < 0){
-        submitOrder(-energyBalance * 2, -prices.get(0), this.currentTimeslot + 1);
+  }
+
+  // ------------- WholesaleContext ---------------
+  @Override
+  public int getCurrentTimeslot() {
+    return currentTimeslot;
+  }
+
+  @Override
+  public void stageDone(Enum<?> stage, int mode) {
+    journal.record(JournalEvent.STAGE, currentTimeslot, stage.ordinal(), deadline.remainingMillis(), mode);
+    if (mode == MODE_SKIPPED) {
+      log.warn("Stage {} skipped in timeslot {}, {} ms left", stage, currentTimeslot, deadline.remainingMillis());
+    }
+  }
+
+  @Override
+  public double balancingCost(int timeslot, double mWh) {
+    return balancingCostRepo.costPerMWh(timeslot, mWh);
+  }
+
+  @Override
+  public int cheapestLead(int timeslot, int maxLead) {
+    return clearingStatsRepo.cheapestLead(timeslot, maxLead);
+  }
+
+  @Override
+  public double fillRatio(int lead, double mWh, double target) {
+    return fillRateRepo.cheapestRatio(lead, mWh, target);
+  }
+
+  /**
+   * Fills prices for the open timeslots, from the prediction service while
+   * there is time, otherwise from the last good prediction. While the
+   * prediction service circuit is open, and for timeslots the last prediction
+   * does not cover, prices come from the seasonal fallback.
+   */
+  @Override
+  public int loadPrices(double[] prices) {
+    if (deadline.hasTime(stageMinMillis)) {
+      if (api.predictPrices(currentTimeslot, requestTimeout(), cachedPrices)) {
+        cachedPricesOrigin = currentTimeslot;
+        System.arraycopy(cachedPrices, 0, prices, 0, LadderEngine.HORIZON);
+        System.arraycopy(prices, 0, orderPrices, 0, LadderEngine.HORIZON);
+        return MODE_RAN;
       }
     }
+    shiftCached(cachedPrices, api.isPredictorAvailable() ? cachedPricesOrigin : -1, prices);
+    fallback.fillPrices(currentTimeslot, prices, LadderEngine.HORIZON);
+    System.arraycopy(prices, 0, orderPrices, 0, LadderEngine.HORIZON);
+    return MODE_CACHED;
   }
 
-  private Double averagePrice(ArrayList<Double> prices) {
-      Double sum = 0.0;
-      if(!prices.isEmpty()) {
-        for (Double price : prices) {
-            sum += price;
-        }
-        return sum.doubleValue() / prices.size();
+  /**
+   * Fills amounts like loadPrices().
+   */
+  @Override
+  public int loadAmounts(double[] amounts) {
+    if (deadline.hasTime(stageMinMillis)) {
+      if (api.predictAmounts(currentTimeslot, requestTimeout(), cachedAmounts)) {
+        cachedAmountsOrigin = currentTimeslot;
+        System.arraycopy(cachedAmounts, 0, amounts, 0, LadderEngine.HORIZON);
+        return MODE_RAN;
       }
-      return sum;
-  }
-
-  private double computeLimitPrice(int timeslot) {
-    // set price between oldLimitPrice and maxPrice, according to number of
-    // remaining chances we have to get what we need.
-    double newLimitPrice = 50; // default value
-    double maxPrice = 20;
-    int current = timeslotRepo.currentSerialNumber();
-    int remainingTries = (timeslot - current);
-    if (remainingTries > 0) {
-      double range = (maxPrice - oldLimitPrice) * 2.0 / (double) remainingTries;
-      double computedPrice = oldLimitPrice + randomGen.nextDouble() * range;
-      oldLimitPrice = computedPrice;
-      return Math.max(newLimitPrice, computedPrice);
     }
-    return 0;
-  }
-
-  private void buyInWholesale(ArrayList<Double> prices, ArrayList<Double> amounts) {
-    System.out.println("Buying");
-    Pair<Integer, Integer> pricesMaxDiff = MaxDifference.maxDiff(prices);
-    Integer maxPriceIndex = pricesMaxDiff.cdr();
-    Integer minPriceIndex = pricesMaxDiff.car();
-    sellingIndex = currentTimeslot + maxPriceIndex + 1;
-    buyingIndex = this.currentTimeslot + minPriceIndex + 1;
-    sellingPrice = prices.get(maxPriceIndex);
-    Double predictedMaxAmount = amounts.get(maxPriceIndex);
-    System.out.println("Min price index: " + minPriceIndex + "; max price index: " + maxPriceIndex);
-    
-    Double alreadyClearedQuantityForMax = 0.0;
-    if (maxPriceIndex < 23) {
-      alreadyClearedQuantityForMax = clearedFuturesRepo.findById(currentTimeslot + maxPriceIndex + 1).getQuantity();
+    shiftCached(cachedAmounts, api.isPredictorAvailable() ? cachedAmountsOrigin : -1, amounts);
+    fallback.fillAmounts(currentTimeslot, amounts, LadderEngine.HORIZON);
+    return MODE_CACHED;
+  }
+
+  private int requestTimeout() {
+    return (int) Math.max(1L, deadline.remainingMillis() - sendReserveMillis);
+  }
+
+  // Cached predictions made in origin, realigned to the current timeslot
+  private void shiftCached(double[] cached, int origin, double[] target) {
+    Arrays.fill(target, Double.NaN);
+    if (origin < 0) {
+      return;
+    }
+    int age = currentTimeslot - origin;
+    for (int i = 0; i + age < LadderEngine.HORIZON; i++) {
+      target[i] = cached[i + age];
     }
-    buyingOrderQuantity = predictedMaxAmount - alreadyClearedQuantityForMax;
-    submitOrder(buyingOrderQuantity, -prices.get(minPriceIndex)*buyPriceMultiplier, buyingIndex);  
   }
 
-  private void sellInWholesale() {
-    System.out.println("Selling");
-    submitOrder(-buyingOrderQuantity, sellingPrice, sellingIndex);
+  /**
+   * Proposes an order for the given timeslot. Proposals are netted and sent
+   * by flush().
+   */
+  @Override
+  public void submitOrder(int timeslot, double neededMWh, double price) {
+    orderBatch.add(timeslot, neededMWh, price);
+  }
+
+  @Override
+  public int flush() {
+    return orderBatch.flush(this::positionFor, this::sendOrder);
+  }
+
+  @Override
+  public double clearedMWh(int timeslot) {
+    PartialCleared cleared = clearedFuturesRepo.findById(timeslot);
+    return cleared == null ? 0.0 : cleared.getQuantity();
+  }
+
+  @Override
+  public void record(JournalEvent event, long key, double a, double b) {
+    journal.record(event, currentTimeslot, key, a, b);
+  }
+
+  /**
+   * Net MWh we hold for the timeslot, from the MarketPositions received for
+   * the current and open timeslots.
+   */
+  @Override
+  public double positionFor(int timeslot) {
+    return positions.positionFor(timeslot);
+  }
+
+  @Override
+  public void neededMWh(double[] result) {
+    portfolioManager.collectUsageForecast(currentTimeslot, usageForecast);
+    positions.neededMWh(currentTimeslot, usageForecast, result);
   }
 
   /**
-   * Composes and submits the appropriate order for the given timeslot.
+   * Composes and sends an order for the given timeslot.
    */
-  private void submitOrder(double neededMWh, double price, int timeslot) {
+  private void sendOrder(int timeslot, double neededMWh, double price) {
 
-    System.out.println("new order for " + neededMWh + " at " + price + " for timeslot "+timeslot);
+    journal.record(JournalEvent.ORDER, currentTimeslot, timeslot, neededMWh, price);
+    int lead = timeslot - currentTimeslot;
+    fillRateRepo.submitted(currentTimeslot, timeslot, neededMWh, price,
+        lead >= 1 && lead <= LadderEngine.HORIZON ? orderPrices[lead - 1] : Double.NaN);
     Order order = new Order(broker.getBroker(), timeslot, neededMWh, price);
     if (lastOrders.get(timeslot) == null) {
       lastOrders.put(timeslot, new ArrayList<>());
     }
     lastOrders.get(timeslot).add(order);
+    long start = metrics.start();
     broker.sendMessage(order);
+    metrics.stop(ActivationPhase.SEND, start);
+    FlightEvents.orderSubmitted(currentTimeslot, timeslot, neededMWh, price);
   }
 
 }
@@ -47,6 +47,14 @@ import org.powertac.samplebroker.interfaces.BrokerContext;
 import org.powertac.samplebroker.interfaces.Initializable;
 import org.powertac.samplebroker.interfaces.MarketManager;
 import org.powertac.samplebroker.interfaces.PortfolioManager;
+import org.powertac.samplebroker.journal.EventJournal;
+import org.powertac.samplebroker.journal.JournalEvent;
+import org.powertac.samplebroker.metrics.ActivationEvent;
+import org.powertac.samplebroker.metrics.FlightEvents;
+import org.powertac.samplebroker.metrics.MetricsService;
+import org.powertac.samplebroker.services.LedgerService;
+import org.powertac.samplebroker.services.UsageForecaster;
+import org.powertac.samplebroker.services.WarmupService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -84,6 +92,18 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
   @Autowired
   private TimeService timeService;
 
+  @Autowired
+  private MetricsService metrics;
+
+  @Autowired
+  private EventJournal journal;
+
+  @Autowired
+  private LedgerService ledger;
+
+  @Autowired
+  private WarmupService warmup;
+
   // ---- Portfolio records -----
   // Customer records indexed by power type and by tariff. Note that the
   // CustomerRecord instances are NOT shared between these structures, because
@@ -107,6 +127,20 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
   @ConfigurableValue(valueType = "Double", description = "Default daily meter charge")
   private double defaultPeriodicPayment = -1.0;
 
+  @ConfigurableValue(valueType = "Double", description = "Smoothing factor for hour-of-week usage baselines")
+  private double forecastAlpha = 0.3;
+
+  @ConfigurableValue(valueType = "Double", description = "Learning rate for weather effects on usage")
+  private double forecastLearningRate = 0.05;
+
+  // Usage forecast per power type, learned from bootstrap data and tariff transactions
+  private UsageForecaster usageForecaster;
+  private Map<PowerType, Integer> subscribedByType = new HashMap<>();
+
+  // net usage of our customers for the timeslot being reported
+  private int usageTimeslot = -1;
+  private double usageKWh = 0.0;
+
   private ArrayList<PowerType> targetPowerTypes = new ArrayList<PowerType>() {
     private static final long serialVersionUID = 2102206276264136536L;
 
@@ -145,6 +179,14 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
     customerSubscriptions = new LinkedHashMap<>();
     competingTariffs = new HashMap<>();
     notifyOnActivation.clear();
+    usageForecaster = newUsageForecaster();
+  }
+
+  /**
+   * Returns an untrained usage forecaster configured like ours.
+   */
+  public UsageForecaster newUsageForecaster() {
+    return new UsageForecaster(forecastAlpha, forecastLearningRate);
   }
 
   // -------------- data access ------------------
@@ -225,20 +267,50 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
     return -result; // convert to needed energy account balance
   }
 
+  /**
+   * Fills result with the forecast net usage for the timeslots following index,
+   * for the currently subscribed population of each power type.
+   */
+  @Override
+  public void collectUsageForecast(int index, double[] result) {
+    subscribedByType.clear();
+    for (Map.Entry<TariffSpecification, Map<CustomerInfo, CustomerRecord>> entry : customerSubscriptions.entrySet()) {
+      PowerType type = entry.getKey().getPowerType();
+      int population = 0;
+      for (CustomerRecord record : entry.getValue().values()) {
+        population += record.subscribedPopulation;
+      }
+      Integer previous = subscribedByType.get(type);
+      subscribedByType.put(type, previous == null ? population : previous + population);
+    }
+    Arrays.fill(result, 0, UsageForecaster.HORIZON, 0.0);
+    usageForecaster.forecast(index, subscribedByType, result);
+    for (int i = 0; i < UsageForecaster.HORIZON; i++) {
+      result[i] = -result[i]; // convert to needed energy account balance
+    }
+  }
+
   // -------------- Message handlers -------------------
   /**
    * Handles CustomerBootstrapData by populating the customer model corresponding
    * to the given customer and power type. This gives the broker a running start.
    */
   public synchronized void handleMessage(CustomerBootstrapData cbd) {
+    long start = metrics.start();
     CustomerInfo customer = customerRepo.findByNameAndPowerType(cbd.getCustomerName(), cbd.getPowerType());
     CustomerRecord record = getCustomerRecordByPowerType(cbd.getPowerType(), customer);
     int subs = record.subscribedPopulation;
     record.subscribedPopulation = customer.getPopulation();
+    // bootstrap data starts after the discarded timeslots
+    int offset = Competition.currentCompetition().getBootstrapDiscardedTimeslots();
     for (int i = 0; i < cbd.getNetUsage().length; i++) {
       record.produceConsume(cbd.getNetUsage()[i], i);
+      usageForecaster.addBootstrapUsage(cbd.getPowerType(), offset + i, cbd.getNetUsage()[i],
+          customer.getPopulation());
     }
     record.subscribedPopulation = subs;
+    warmup.addCustomerBootstrap(cbd.getPowerType(), cbd.getNetUsage(), customer.getPopulation());
+    metrics.handled(CustomerBootstrapData.class, start);
   }
 
   /**
@@ -247,6 +319,7 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
    * track of competing tariffs locally, and we also store them in the tariffRepo.
    */
   public synchronized void handleMessage(TariffSpecification spec) {
+    long start = metrics.start();
     Broker theBroker = spec.getBroker();
     if (brokerContext.getBrokerUsername().equals(theBroker.getUsername())) {
       if (theBroker != brokerContext.getBroker())
@@ -262,6 +335,7 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
       addCompetingTariff(spec);
       tariffRepo.addSpecification(spec);
     }
+    metrics.handled(TariffSpecification.class, start);
   }
 
   /**
@@ -277,6 +351,8 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
    * CONSUME, SIGNUP, and WITHDRAW.
    */
   public synchronized void handleMessage(TariffTransaction ttx) {
+    long start = metrics.start();
+    ledger.record(LedgerService.Component.TARIFF, ttx.getPostedTimeslotIndex(), ttx.getCharge());
     // make sure we have this tariff
     TariffSpecification newSpec = ttx.getTariffSpec();
     if (newSpec == null) {
@@ -302,6 +378,9 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
       log.debug("Regulation transaction from {}, {} kWh for {}", ttx.getCustomerInfo().getName(), ttx.getKWh(),
           ttx.getCharge());
       record.produceConsume(ttx.getKWh(), ttx.getPostedTime());
+      usageForecaster.addUsage(ttx.getTariffSpec().getPowerType(), ttx.getPostedTimeslotIndex(), ttx.getKWh(),
+          ttx.getCustomerCount());
+      addNetUsage(ttx.getPostedTimeslotIndex(), ttx.getKWh());
     } else if (TariffTransaction.Type.PRODUCE == txType) {
       // if ttx count and subscribe population don't match, it will be hard
       // to estimate per-individual production
@@ -310,13 +389,32 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
             record.subscribedPopulation);
       }
       record.produceConsume(ttx.getKWh(), ttx.getPostedTime());
+      usageForecaster.addUsage(ttx.getTariffSpec().getPowerType(), ttx.getPostedTimeslotIndex(), ttx.getKWh(),
+          ttx.getCustomerCount());
+      addNetUsage(ttx.getPostedTimeslotIndex(), ttx.getKWh());
     } else if (TariffTransaction.Type.CONSUME == txType) {
       if (ttx.getCustomerCount() != record.subscribedPopulation) {
         log.warn("consumption by subset {} of subscribed population {}", ttx.getCustomerCount(),
             record.subscribedPopulation);
       }
       record.produceConsume(ttx.getKWh(), ttx.getPostedTime());
+      usageForecaster.addUsage(ttx.getTariffSpec().getPowerType(), ttx.getPostedTimeslotIndex(), ttx.getKWh(),
+          ttx.getCustomerCount());
+      addNetUsage(ttx.getPostedTimeslotIndex(), ttx.getKWh());
     }
+    metrics.handled(TariffTransaction.class, start);
+  }
+
+  // Journals the net usage of a timeslot once reports for a later one arrive
+  private void addNetUsage(int timeslot, double kWh) {
+    if (timeslot != usageTimeslot) {
+      if (usageTimeslot >= 0) {
+        journal.record(JournalEvent.NET_USAGE, usageTimeslot, usageTimeslot, usageKWh, 0.0);
+      }
+      usageTimeslot = timeslot;
+      usageKWh = 0.0;
+    }
+    usageKWh += kWh;
   }
 
   /**
@@ -360,19 +458,22 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
    */
   @Override // from Activatable
   public synchronized void activate(int timeslotIndex) {
-    System.out.println("\nActivate from PortfolioManager " + timeslotIndex);
-    System.out.println("\n");
+    journal.record(JournalEvent.PORTFOLIO_ACTIVATION, timeslotIndex);
+
+    ActivationEvent event = FlightEvents.beginActivation(timeslotIndex, "portfolio");
+    usageForecaster.complete();
 
     if (customerSubscriptions.size() == 0) {
       createInitialTariffs();
     } else
-      titForTat();
+      titForTat(timeslotIndex);
 
     for (CustomerRecord record : notifyOnActivation)
       record.activate();
+    FlightEvents.endActivation(event);
   }
 
-  private void titForTat() {
+  private void titForTat(int timeslotIndex) {
     for (PowerType powerType : targetPowerTypes) {
       List<TariffSpecification> tariffSpecs = competingTariffs.get(powerType);
       if (tariffSpecs != null) {
@@ -397,7 +498,10 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
             bestTSForCustomer = myTS;
         }
 
-        System.out.println("For " + powerType + " the best ts is " + bestTSForCustomer);
+        journal.record(JournalEvent.TARIFF_BEST, timeslotIndex, bestTSForCustomer.getId(),
+            bestTSForCustomer.getPeriodicPayment() + bestTSForCustomer.getEarlyWithdrawPayment()
+                + bestTSForCustomer.getSignupPayment(),
+            bestTSForCustomer.getBroker() == brokerContext.getBroker() ? 1.0 : 0.0);
         if (bestTSForCustomer.getBroker() != brokerContext.getBroker()) { // its not ours
           // building a better tariff for the customer
           TariffSpecification spec = new TariffSpecification(brokerContext.getBroker(), powerType);
@@ -411,11 +515,13 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
 
           tariffRepo.addSpecification(spec);
           brokerContext.sendMessage(spec);
+          FlightEvents.tariffPublished(spec, "titForTat");
 
           activeTariffs.put(powerType, spec);
-          System.out.println("Launching tariff:\n" + spec + "\n");
-        } else
-          System.out.println("Best tariff for " + powerType + " belongs to us, do nothing\n");
+          journal.record(JournalEvent.TARIFF_LAUNCH, timeslotIndex, spec.getId(), spec.getPeriodicPayment(),
+              spec.getSignupPayment());
+          log.debug("Launching tariff {}", spec);
+        }
       }
     }
   }
@@ -459,6 +565,7 @@ public class PortfolioManagerService implements PortfolioManager, Initializable,
       customerSubscriptions.put(spec, new LinkedHashMap<>());
       tariffRepo.addSpecification(spec);
       brokerContext.sendMessage(spec);
+      FlightEvents.tariffPublished(spec, "initial");
     }
   }
 
@@ -0,0 +1,263 @@
+package org.powertac.samplebroker.backtest;
+
+import java.util.Arrays;
+
+import org.powertac.samplebroker.interfaces.WholesaleContext;
+import org.powertac.samplebroker.interfaces.WholesaleStrategy;
+import org.powertac.samplebroker.journal.JournalEvent;
+import org.powertac.samplebroker.repos.BalancingCostRepo;
+import org.powertac.samplebroker.repos.ClearingStatsRepo;
+import org.powertac.samplebroker.repos.FillRateRepo;
+import org.powertac.samplebroker.services.OrderBatch;
+import org.powertac.samplebroker.services.SeasonalFallbackPredictor;
+
+/**
+ * Runs a WholesaleStrategy over one recorded game. Each activation sees only
+ * what the live broker would have seen by then: auctions up to the previous
+ * timeslot, learned by a seasonal predictor that stands in for the
+ * prediction service. Orders are netted by an OrderBatch as in the broker and
+ * filled by the FillModel; each timeslot is then settled against our
+ * customers' recorded net usage, shortages paying shortageFactor times the
+ * clearing price and surpluses earning surplusFactor times it.
+ *
+ * Holds all of its state, so contexts for different games can run in
+ * parallel.
+ */
+public class BacktestContext implements WholesaleContext {
+
+    private static final int HORIZON = OrderBatch.HORIZON;
+
+    private final GameRecord game;
+
+    private final WholesaleStrategy strategy;
+
+    private final double minMWh;
+
+    private double shortageFactor = 2.0;
+
+    private double surplusFactor = 0.5;
+
+    private final OrderBatch orderBatch = new OrderBatch();
+
+    private final SeasonalFallbackPredictor predictor;
+
+    private final FillModel fillModel = new FillModel();
+
+    private final BalancingCostRepo balancingCostRepo = new BalancingCostRepo(14);
+
+    private final ClearingStatsRepo clearingStatsRepo = new ClearingStatsRepo(3);
+
+    private final FillRateRepo fillRateRepo = new FillRateRepo(10);
+
+    // prices predicted for the open timeslots this activation
+    private final double[] orderPrices = new double[HORIZON];
+
+    private int currentTimeslot;
+
+    // net MWh held, by timeslot
+    private double[] positions;
+
+    // MWh of each open auction taken by our fills this activation
+    private double[] usedMWh = new double[HORIZON + 1];
+
+    private int timeslots = 0;
+
+    private long orders = 0;
+
+    private long fills = 0;
+
+    private double boughtMWh = 0.0;
+
+    private double soldMWh = 0.0;
+
+    private double wholesaleCost = 0.0;
+
+    private double imbalanceMWh = 0.0;
+
+    private double imbalanceCost = 0.0;
+
+    public BacktestContext(GameRecord game, WholesaleStrategy strategy, double minMWh, double fallbackAlpha) {
+        this.game = game;
+        this.strategy = strategy;
+        this.minMWh = minMWh;
+        this.predictor = new SeasonalFallbackPredictor(fallbackAlpha);
+        this.positions = new double[Math.max(0, game.getLastActivation()) + HORIZON + 2];
+        if (game.getBootstrapFirst() >= 0) {
+            predictor.addBootstrap(game.getBootstrapFirst(), game.getBootstrapMWh(), game.getBootstrapPrice());
+        }
+    }
+
+    public BacktestContext withImbalanceFactors(double shortageFactor, double surplusFactor) {
+        this.shortageFactor = shortageFactor;
+        this.surplusFactor = surplusFactor;
+        return this;
+    }
+
+    /**
+     * Replays every activation of the game and returns the result.
+     */
+    public BacktestResult run() {
+        long start = System.currentTimeMillis();
+        int first = game.getFirstActivation();
+        int last = game.getLastActivation();
+        for (int c = first; first >= 0 && c <= last; c++) {
+            step(c);
+        }
+        return new BacktestResult(game.getName(), timeslots, orders, fills, boughtMWh, soldMWh, wholesaleCost,
+                imbalanceMWh, imbalanceCost, System.currentTimeMillis() - start);
+    }
+
+    private void step(int timeslot) {
+        // the previous timeslot's auctions cleared before this activation
+        int origin = timeslot - 1;
+        for (int t = origin + 1; t <= origin + HORIZON; t++) {
+            double price = game.clearingPrice(origin, t);
+            if (!Double.isNaN(price)) {
+                predictor.observeClearing(t, game.clearedMWh(origin, t), price);
+                clearingStatsRepo.add(t, origin, game.clearedMWh(origin, t), price);
+                strategy.observeClearing(t, origin, price);
+            }
+        }
+        predictor.complete(timeslot);
+
+        currentTimeslot = timeslot;
+        orderBatch.begin(timeslot, minMWh);
+        Arrays.fill(usedMWh, 0.0);
+        Arrays.fill(orderPrices, Double.NaN);
+        strategy.apply(this);
+        fillRateRepo.settle();
+        settle(timeslot);
+    }
+
+    // Settles the imbalance of a timeslot that can no longer trade
+    private void settle(int timeslot) {
+        double usage = game.netUsageKWh(timeslot);
+        if (Double.isNaN(usage)) {
+            return;
+        }
+        timeslots++;
+        double imbalance = positionFor(timeslot) + usage / 1000.0;
+        imbalanceMWh += Math.abs(imbalance);
+        double price = referencePrice(timeslot);
+        if (Double.isNaN(price)) {
+            return;
+        }
+        double charge = imbalance < 0.0 ? imbalance * price * shortageFactor : imbalance * price * surplusFactor;
+        imbalanceCost -= charge;
+        balancingCostRepo.add(timeslot, imbalance * 1000.0, charge);
+    }
+
+    // Latest clearing price recorded for the timeslot
+    private double referencePrice(int timeslot) {
+        for (int origin = timeslot - 1; origin >= timeslot - HORIZON; origin--) {
+            double price = game.clearingPrice(origin, timeslot);
+            if (!Double.isNaN(price)) {
+                return price;
+            }
+        }
+        return Double.NaN;
+    }
+
+    private void send(int timeslot, double mWh, double limitPrice) {
+        orders++;
+        int lead = timeslot - currentTimeslot;
+        if (lead < 1 || lead > HORIZON) {
+            return;
+        }
+        fillRateRepo.submitted(currentTimeslot, timeslot, mWh, limitPrice, orderPrices[lead - 1]);
+        if (!fillModel.match(game, currentTimeslot, timeslot, mWh, limitPrice, usedMWh[lead])) {
+            return;
+        }
+        double filled = fillModel.getMWh();
+        usedMWh[lead] += Math.abs(filled);
+        fillRateRepo.filled(timeslot, filled, fillModel.getPrice());
+        positions[timeslot] += filled;
+        wholesaleCost += filled * fillModel.getPrice();
+        if (filled > 0.0) {
+            boughtMWh += filled;
+        } else {
+            soldMWh -= filled;
+        }
+        fills++;
+    }
+
+    @Override
+    public int getCurrentTimeslot() {
+        return currentTimeslot;
+    }
+
+    @Override
+    public double positionFor(int timeslot) {
+        return timeslot >= 0 && timeslot < positions.length ? positions[timeslot] : 0.0;
+    }
+
+    /**
+     * Expects each timeslot to use what it did a day earlier, the latest
+     * usage known without looking ahead.
+     */
+    @Override
+    public void neededMWh(double[] result) {
+        for (int i = 0; i < HORIZON; i++) {
+            int timeslot = currentTimeslot + 1 + i;
+            double usage = game.netUsageKWh(timeslot - HORIZON);
+            result[i] = (Double.isNaN(usage) ? 0.0 : -usage / 1000.0) - positionFor(timeslot);
+        }
+    }
+
+    @Override
+    public double clearedMWh(int timeslot) {
+        double total = 0.0;
+        for (int origin = Math.max(timeslot - HORIZON, 0); origin < currentTimeslot && origin < timeslot; origin++) {
+            total += game.clearedMWh(origin, timeslot);
+        }
+        return total;
+    }
+
+    @Override
+    public double balancingCost(int timeslot, double mWh) {
+        return balancingCostRepo.costPerMWh(timeslot, mWh);
+    }
+
+    @Override
+    public int cheapestLead(int timeslot, int maxLead) {
+        return clearingStatsRepo.cheapestLead(timeslot, maxLead);
+    }
+
+    @Override
+    public double fillRatio(int lead, double mWh, double target) {
+        return fillRateRepo.cheapestRatio(lead, mWh, target);
+    }
+
+    @Override
+    public int loadPrices(double[] prices) {
+        Arrays.fill(prices, 0, HORIZON, Double.NaN);
+        predictor.fillPrices(currentTimeslot, prices, HORIZON);
+        System.arraycopy(prices, 0, orderPrices, 0, HORIZON);
+        return Double.isNaN(prices[0]) ? MODE_SKIPPED : MODE_CACHED;
+    }
+
+    @Override
+    public int loadAmounts(double[] amounts) {
+        Arrays.fill(amounts, 0, HORIZON, Double.NaN);
+        predictor.fillAmounts(currentTimeslot, amounts, HORIZON);
+        return Double.isNaN(amounts[0]) ? MODE_SKIPPED : MODE_CACHED;
+    }
+
+    @Override
+    public void submitOrder(int timeslot, double mWh, double limitPrice) {
+        orderBatch.add(timeslot, mWh, limitPrice);
+    }
+
+    @Override
+    public int flush() {
+        return orderBatch.flush(this::positionFor, this::send);
+    }
+
+    @Override
+    public void stageDone(Enum<?> stage, int mode) {
+    }
+
+    @Override
+    public void record(JournalEvent event, long key, double a, double b) {
+    }
+}
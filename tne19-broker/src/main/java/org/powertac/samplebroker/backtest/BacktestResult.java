@@ -0,0 +1,104 @@
+package org.powertac.samplebroker.backtest;
+
+import java.util.Locale;
+
+/**
+ * Outcome of one strategy run over one recorded game. Costs are positive
+ * when the broker pays.
+ */
+public class BacktestResult {
+
+    public static final String CSV_HEADER = "game,timeslots,orders,fills,boughtMWh,soldMWh,wholesaleCost,"
+            + "imbalanceMWh,imbalanceCost,totalCost,meanAbsImbalance,elapsedMillis";
+
+    private final String game;
+
+    private final int timeslots;
+
+    private final long orders;
+
+    private final long fills;
+
+    private final double boughtMWh;
+
+    private final double soldMWh;
+
+    private final double wholesaleCost;
+
+    private final double imbalanceMWh;
+
+    private final double imbalanceCost;
+
+    private final long elapsedMillis;
+
+    public BacktestResult(String game, int timeslots, long orders, long fills, double boughtMWh, double soldMWh,
+                          double wholesaleCost, double imbalanceMWh, double imbalanceCost, long elapsedMillis) {
+        this.game = game;
+        this.timeslots = timeslots;
+        this.orders = orders;
+        this.fills = fills;
+        this.boughtMWh = boughtMWh;
+        this.soldMWh = soldMWh;
+        this.wholesaleCost = wholesaleCost;
+        this.imbalanceMWh = imbalanceMWh;
+        this.imbalanceCost = imbalanceCost;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getGame() {
+        return game;
+    }
+
+    public int getTimeslots() {
+        return timeslots;
+    }
+
+    public long getOrders() {
+        return orders;
+    }
+
+    public long getFills() {
+        return fills;
+    }
+
+    public double getBoughtMWh() {
+        return boughtMWh;
+    }
+
+    public double getSoldMWh() {
+        return soldMWh;
+    }
+
+    public double getWholesaleCost() {
+        return wholesaleCost;
+    }
+
+    /**
+     * Sum of the absolute imbalances settled.
+     */
+    public double getImbalanceMWh() {
+        return imbalanceMWh;
+    }
+
+    public double getImbalanceCost() {
+        return imbalanceCost;
+    }
+
+    public double getTotalCost() {
+        return wholesaleCost + imbalanceCost;
+    }
+
+    public double getMeanAbsImbalance() {
+        return timeslots > 0 ? imbalanceMWh / timeslots : 0.0;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%d,%d,%.4f,%.4f,%.2f,%.4f,%.2f,%.2f,%.4f,%d", game, timeslots,
+                orders, fills, boughtMWh, soldMWh, wholesaleCost, imbalanceMWh, imbalanceCost, getTotalCost(),
+                getMeanAbsImbalance(), elapsedMillis);
+    }
+}
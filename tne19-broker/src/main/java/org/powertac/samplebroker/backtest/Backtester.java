@@ -0,0 +1,169 @@
+package org.powertac.samplebroker.backtest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import org.powertac.samplebroker.interfaces.WholesaleStrategy;
+import org.powertac.samplebroker.services.LadderStrategy;
+import org.powertac.samplebroker.utils.LadderEngine;
+
+/**
+ * Replays a wholesale strategy over many recorded games at once. Each game
+ * is loaded and run by its own fork/join task, with a fresh strategy from the
+ * supplier, so games share no state. Usage:
+ *
+ * <pre>
+ * Backtester journalDir [parallelism] [--first timeslot] [--arbitrage] [--lead-timing] [--fill-target share]
+ * </pre>
+ *
+ * Every *.journal file in journalDir is one game; results are printed as
+ * CSV, one line per game, followed by the totals.
+ */
+public class Backtester {
+
+    private final Supplier<WholesaleStrategy> strategies;
+
+    private final int parallelism;
+
+    private double minMWh = 0.001;
+
+    private double fallbackAlpha = 0.25;
+
+    public Backtester(Supplier<WholesaleStrategy> strategies, int parallelism) {
+        this.strategies = strategies;
+        this.parallelism = parallelism;
+    }
+
+    public Backtester withMinMWh(double minMWh) {
+        this.minMWh = minMWh;
+        return this;
+    }
+
+    public Backtester withFallbackAlpha(double fallbackAlpha) {
+        this.fallbackAlpha = fallbackAlpha;
+        return this;
+    }
+
+    /**
+     * Runs every game and returns the results in the order of the journals.
+     */
+    public List<BacktestResult> run(List<Path> journals) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new AllGames(journals));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private class AllGames extends RecursiveTask<List<BacktestResult>> {
+
+        private final List<Path> journals;
+
+        AllGames(List<Path> journals) {
+            this.journals = journals;
+        }
+
+        @Override
+        protected List<BacktestResult> compute() {
+            List<OneGame> tasks = new ArrayList<>();
+            for (Path journal : journals) {
+                tasks.add(new OneGame(journal));
+            }
+            invokeAll(tasks);
+            List<BacktestResult> results = new ArrayList<>();
+            for (OneGame task : tasks) {
+                results.add(task.join());
+            }
+            return results;
+        }
+    }
+
+    private class OneGame extends RecursiveTask<BacktestResult> {
+
+        private final Path journal;
+
+        OneGame(Path journal) {
+            this.journal = journal;
+        }
+
+        @Override
+        protected BacktestResult compute() {
+            GameRecord game;
+            try {
+                game = GameRecord.load(journal);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + journal, e);
+            }
+            return new BacktestContext(game, strategies.get(), minMWh, fallbackAlpha).run();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: Backtester journalDir [parallelism] [--first timeslot] [--arbitrage]"
+                    + " [--lead-timing] [--usage-need] [--fill-target share]");
+            System.exit(1);
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int firstTimeslot = 386;
+        boolean arbitrage = false;
+        boolean leadTiming = false;
+        boolean usageNeed = false;
+        double fillTarget = 0.0;
+        for (int i = 1; i < args.length; i++) {
+            if ("--first".equals(args[i]) && i + 1 < args.length) {
+                firstTimeslot = Integer.parseInt(args[++i]);
+            } else if ("--arbitrage".equals(args[i])) {
+                arbitrage = true;
+            } else if ("--lead-timing".equals(args[i])) {
+                leadTiming = true;
+            } else if ("--usage-need".equals(args[i])) {
+                usageNeed = true;
+            } else if ("--fill-target".equals(args[i]) && i + 1 < args.length) {
+                fillTarget = Double.parseDouble(args[++i]);
+            } else {
+                parallelism = Integer.parseInt(args[i]);
+            }
+        }
+
+        List<Path> journals = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(args[0]), "*.journal")) {
+            dir.forEach(journals::add);
+        }
+        journals.sort(null);
+
+        final int first = firstTimeslot;
+        final boolean arbitrageEnabled = arbitrage;
+        final boolean leadTimingEnabled = leadTiming;
+        final boolean usageNeedEnabled = usageNeed;
+        final double fillShare = fillTarget;
+        Supplier<WholesaleStrategy> strategies = () -> new LadderStrategy(
+                new LadderEngine(3).withBuyLimits(-70.0, -1.0).withSellLimits(0.5, 70.0), 0.001, arbitrageEnabled)
+                .withFirstTimeslot(first).withLeadTiming(leadTimingEnabled)
+                .withUsageNeed(usageNeedEnabled).withFillTarget(fillShare);
+
+        long start = System.currentTimeMillis();
+        List<BacktestResult> results = new Backtester(strategies, parallelism).run(journals);
+        System.out.println(BacktestResult.CSV_HEADER);
+        double total = 0.0;
+        double imbalance = 0.0;
+        for (BacktestResult result : results) {
+            System.out.println(result.toCsv());
+            total += result.getTotalCost();
+            imbalance += result.getImbalanceMWh();
+        }
+        System.out.println(String.format(Locale.ROOT, "# %d games, totalCost %.2f, imbalanceMWh %.4f, %d ms",
+                results.size(), total, imbalance, System.currentTimeMillis() - start));
+    }
+}
@@ -0,0 +1,64 @@
+package org.powertac.samplebroker.backtest;
+
+/**
+ * Decides whether an order would have traded in a recorded auction. The
+ * recorded clearing price stands for the whole supply curve, which the
+ * journal does not keep: a buy whose limit reaches the clearing price fills
+ * at that price, as does a sell whose limit is at or below it, both capped at
+ * the quantity the market actually cleared. Where nothing cleared, a buy that
+ * crosses the best uncleared ask fills at the ask. Our own orders are part
+ * of the recorded market, so fills are approximate either way.
+ */
+public class FillModel {
+
+    private double price;
+
+    private double mWh;
+
+    /**
+     * Matches an order of mWh (positive buys) at limitPrice (negative for
+     * buys) against the auction for timeslot run in origin, of which
+     * usedMWh has already gone to earlier orders. Returns true on a fill,
+     * whose price and quantity are then given by getPrice() and getMWh().
+     */
+    public boolean match(GameRecord game, int origin, int timeslot, double mWh, double limitPrice,
+                         double usedMWh) {
+        this.price = Double.NaN;
+        this.mWh = 0.0;
+        double clearing = game.clearingPrice(origin, timeslot);
+        if (!Double.isNaN(clearing)) {
+            double available = game.clearedMWh(origin, timeslot) - usedMWh;
+            if (available <= 0.0) {
+                return false;
+            }
+            boolean crosses = mWh > 0.0 ? -limitPrice >= clearing : limitPrice <= clearing;
+            if (!crosses) {
+                return false;
+            }
+            this.price = clearing;
+            this.mWh = Math.copySign(Math.min(Math.abs(mWh), available), mWh);
+            return true;
+        }
+        double ask = game.bestAsk(origin, timeslot);
+        if (mWh > 0.0 && !Double.isNaN(ask) && -limitPrice >= Math.abs(ask)) {
+            this.price = Math.abs(ask);
+            this.mWh = mWh;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Price, positive, of the last fill.
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * Quantity of the last fill, positive when bought.
+     */
+    public double getMWh() {
+        return mWh;
+    }
+}
@@ -0,0 +1,287 @@
+package org.powertac.samplebroker.backtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.powertac.samplebroker.journal.JournalEvent;
+import org.powertac.samplebroker.journal.JournalReader;
+
+/**
+ * One recorded game, read from the broker's event journal: the market
+ * bootstrap data, every auction's clearing price, cleared quantity and best
+ * uncleared ask, the weather, and our customers' net usage. Auction data is
+ * indexed by the timeslot the auction ran in (origin) and the lead time of the
+ * timeslot traded, 1 to HORIZON. Immutable once loaded, so games can be
+ * replayed concurrently.
+ */
+public class GameRecord {
+
+    public static final int HORIZON = 24;
+
+    private final String name;
+
+    // timeslots base .. base + count - 1 are covered
+    private int base;
+
+    private int count;
+
+    private int firstActivation = -1;
+
+    private int lastActivation = -1;
+
+    private double[] clearingPrice;
+
+    private double[] clearedMWh;
+
+    private double[] bestAsk;
+
+    private double[] netUsageKWh;
+
+    private double[] temperature;
+
+    private double[] windSpeed;
+
+    private int bootstrapFirst = -1;
+
+    private double[] bootstrapMWh = new double[0];
+
+    private double[] bootstrapPrice = new double[0];
+
+    private GameRecord(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Reads a game from an event journal file.
+     */
+    public static GameRecord load(Path journal) throws IOException {
+        Records records = new Records();
+        try (InputStream in = Files.newInputStream(journal); JournalReader reader = new JournalReader(in)) {
+            while (reader.next()) {
+                records.add(reader.getEvent(), reader.getTimeslot(), reader.getKey(), reader.getA(), reader.getB());
+            }
+        }
+        String name = journal.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        GameRecord game = new GameRecord(dot > 0 ? name.substring(0, dot) : name);
+        game.build(records);
+        return game;
+    }
+
+    private void build(Records records) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        int bootMin = Integer.MAX_VALUE;
+        int bootMax = Integer.MIN_VALUE;
+        for (int i = 0; i < records.size; i++) {
+            if (records.event[i] == JournalEvent.BOOTSTRAP) {
+                bootMin = Math.min(bootMin, (int) records.key[i]);
+                bootMax = Math.max(bootMax, (int) records.key[i]);
+                continue;
+            }
+            int ts = records.timeslot[i];
+            min = Math.min(min, ts);
+            max = Math.max(max, ts);
+            if (records.event[i] == JournalEvent.MARKET_ACTIVATION) {
+                firstActivation = firstActivation < 0 ? ts : Math.min(firstActivation, ts);
+                lastActivation = Math.max(lastActivation, ts);
+            }
+        }
+        if (min > max) {
+            min = 0;
+            max = -1;
+        }
+        base = min;
+        count = max - min + 1 + HORIZON;
+        clearingPrice = nanArray(count * HORIZON);
+        clearedMWh = new double[count * HORIZON];
+        bestAsk = nanArray(count * HORIZON);
+        netUsageKWh = nanArray(count);
+        temperature = nanArray(count);
+        windSpeed = nanArray(count);
+        if (bootMin <= bootMax) {
+            bootstrapFirst = bootMin;
+            bootstrapMWh = nanArray(bootMax - bootMin + 1);
+            bootstrapPrice = nanArray(bootMax - bootMin + 1);
+        }
+        for (int i = 0; i < records.size; i++) {
+            int ts = records.timeslot[i];
+            int key = (int) records.key[i];
+            double a = records.a[i];
+            double b = records.b[i];
+            switch (records.event[i]) {
+            case ORDERBOOK: {
+                int k = auction(ts, key);
+                if (k >= 0) {
+                    if (!Double.isNaN(a)) {
+                        clearingPrice[k] = Math.abs(a);
+                    }
+                    bestAsk[k] = b;
+                }
+                break;
+            }
+            case CLEARED_TRADE: {
+                int k = auction(ts, key);
+                if (k >= 0) {
+                    clearedMWh[k] += a;
+                    if (Double.isNaN(clearingPrice[k])) {
+                        clearingPrice[k] = Math.abs(b);
+                    }
+                }
+                break;
+            }
+            case NET_USAGE:
+                if (covers(key)) {
+                    int k = key - base;
+                    netUsageKWh[k] = Double.isNaN(netUsageKWh[k]) ? a : netUsageKWh[k] + a;
+                }
+                break;
+            case WEATHER:
+                if (covers(key)) {
+                    temperature[key - base] = a;
+                    windSpeed[key - base] = b;
+                }
+                break;
+            case BOOTSTRAP:
+                bootstrapMWh[key - bootstrapFirst] = a;
+                bootstrapPrice[key - bootstrapFirst] = b;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private static double[] nanArray(int length) {
+        double[] result = new double[length];
+        Arrays.fill(result, Double.NaN);
+        return result;
+    }
+
+    private boolean covers(int timeslot) {
+        return timeslot >= base && timeslot < base + count;
+    }
+
+    // index of the auction run in origin for timeslot, or -1
+    private int auction(int origin, int timeslot) {
+        int lead = timeslot - origin;
+        if (!covers(origin) || lead < 1 || lead > HORIZON) {
+            return -1;
+        }
+        return (origin - base) * HORIZON + lead - 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * First timeslot the broker was activated in, or -1.
+     */
+    public int getFirstActivation() {
+        return firstActivation;
+    }
+
+    public int getLastActivation() {
+        return lastActivation;
+    }
+
+    /**
+     * Clearing price, positive, of the auction for timeslot run in origin;
+     * NaN when it did not clear or was not recorded.
+     */
+    public double clearingPrice(int origin, int timeslot) {
+        int k = auction(origin, timeslot);
+        return k < 0 ? Double.NaN : clearingPrice[k];
+    }
+
+    /**
+     * MWh cleared in the auction for timeslot run in origin.
+     */
+    public double clearedMWh(int origin, int timeslot) {
+        int k = auction(origin, timeslot);
+        return k < 0 ? 0.0 : clearedMWh[k];
+    }
+
+    /**
+     * Lowest uncleared ask left in the auction for timeslot run in origin,
+     * or NaN.
+     */
+    public double bestAsk(int origin, int timeslot) {
+        int k = auction(origin, timeslot);
+        return k < 0 ? Double.NaN : bestAsk[k];
+    }
+
+    /**
+     * Net kWh our customers used in the timeslot, negative when consuming;
+     * NaN when not recorded.
+     */
+    public double netUsageKWh(int timeslot) {
+        return covers(timeslot) ? netUsageKWh[timeslot - base] : Double.NaN;
+    }
+
+    public double temperature(int timeslot) {
+        return covers(timeslot) ? temperature[timeslot - base] : Double.NaN;
+    }
+
+    public double windSpeed(int timeslot) {
+        return covers(timeslot) ? windSpeed[timeslot - base] : Double.NaN;
+    }
+
+    /**
+     * First timeslot of the market bootstrap data, or -1 when none was
+     * recorded.
+     */
+    public int getBootstrapFirst() {
+        return bootstrapFirst;
+    }
+
+    public double[] getBootstrapMWh() {
+        return bootstrapMWh.clone();
+    }
+
+    public double[] getBootstrapPrice() {
+        return bootstrapPrice.clone();
+    }
+
+    // Journal records kept while reading, in primitive arrays
+    private static class Records {
+        int size = 0;
+        JournalEvent[] event = new JournalEvent[4096];
+        int[] timeslot = new int[4096];
+        long[] key = new long[4096];
+        double[] a = new double[4096];
+        double[] b = new double[4096];
+
+        void add(JournalEvent e, int ts, long k, double va, double vb) {
+            switch (e) {
+            case ORDERBOOK:
+            case CLEARED_TRADE:
+            case NET_USAGE:
+            case WEATHER:
+            case BOOTSTRAP:
+            case MARKET_ACTIVATION:
+                break;
+            default:
+                return;
+            }
+            if (size == timeslot.length) {
+                int capacity = size * 2;
+                event = Arrays.copyOf(event, capacity);
+                timeslot = Arrays.copyOf(timeslot, capacity);
+                key = Arrays.copyOf(key, capacity);
+                a = Arrays.copyOf(a, capacity);
+                b = Arrays.copyOf(b, capacity);
+            }
+            event[size] = e;
+            timeslot[size] = ts;
+            key[size] = k;
+            a[size] = va;
+            b[size] = vb;
+            size++;
+        }
+    }
+}
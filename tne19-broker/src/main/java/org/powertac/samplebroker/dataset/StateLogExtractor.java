@@ -0,0 +1,177 @@
+package org.powertac.samplebroker.dataset;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.powertac.samplebroker.services.FeatureBuilder;
+
+/**
+ * Builds the prediction models' training set, in the format of
+ * predict-model/data.csv, from Power TAC server state logs instead of live
+ * games. Each log is parsed and turned into rows by its own fork/join task;
+ * the rows are written in the order the logs were given. Usage:
+ *
+ * <pre>
+ * StateLogExtractor out.csv [--threads n] (game.state | dir)...
+ * </pre>
+ *
+ * A directory stands for every *.state file in it.
+ */
+public class StateLogExtractor {
+
+    private final int parallelism;
+
+    public StateLogExtractor(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Rows of one log, and what the parser saw.
+     */
+    public static class Extract {
+        public final Path log;
+        public final String rows;
+        public final int count;
+        public final long lines;
+        public final long records;
+        public final long malformed;
+
+        Extract(Path log, String rows, int count, StateLogParser parser) {
+            this.log = log;
+            this.rows = rows;
+            this.count = count;
+            this.lines = parser.getLines();
+            this.records = parser.getRecords();
+            this.malformed = parser.getMalformed();
+        }
+    }
+
+    /**
+     * Parses one state log and builds a training row for every timeslot
+     * whose features and labels it holds.
+     */
+    public static Extract extract(Path log) throws IOException {
+        StateLogHistory history = new StateLogHistory();
+        StateLogParser parser = new StateLogParser(history);
+        parser.parse(log);
+        FeatureBuilder builder = new FeatureBuilder(history);
+        double[] features = new double[FeatureBuilder.FEATURES];
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        int first = history.getFirstTimeslot();
+        for (int i = first; first >= 0 && i <= history.getLastTimeslot(); i++) {
+            if (builder.buildCsvLine(i, features, sb)) {
+                count++;
+            }
+        }
+        return new Extract(log, sb.toString(), count, parser);
+    }
+
+    /**
+     * Extracts every log and writes the training set to out.
+     */
+    public List<Extract> run(List<Path> logs, Path out) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<Extract> extracts;
+        try {
+            extracts = pool.invoke(new AllLogs(logs));
+        } finally {
+            pool.shutdown();
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.US_ASCII)) {
+            writer.write(FeatureBuilder.csvHeader(new StringBuilder()).toString());
+            for (Extract extract : extracts) {
+                writer.write(extract.rows);
+            }
+        }
+        return extracts;
+    }
+
+    private static class AllLogs extends RecursiveTask<List<Extract>> {
+
+        private final List<Path> logs;
+
+        AllLogs(List<Path> logs) {
+            this.logs = logs;
+        }
+
+        @Override
+        protected List<Extract> compute() {
+            List<OneLog> tasks = new ArrayList<>();
+            for (Path log : logs) {
+                tasks.add(new OneLog(log));
+            }
+            invokeAll(tasks);
+            List<Extract> extracts = new ArrayList<>();
+            for (OneLog task : tasks) {
+                extracts.add(task.join());
+            }
+            return extracts;
+        }
+    }
+
+    private static class OneLog extends RecursiveTask<Extract> {
+
+        private final Path log;
+
+        OneLog(Path log) {
+            this.log = log;
+        }
+
+        @Override
+        protected Extract compute() {
+            try {
+                return extract(log);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + log, e);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: StateLogExtractor out.csv [--threads n] (game.state | dir)...");
+            System.exit(1);
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<Path> logs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+                continue;
+            }
+            Path path = Paths.get(args[i]);
+            if (Files.isDirectory(path)) {
+                List<Path> found = new ArrayList<>();
+                try (DirectoryStream<Path> dir = Files.newDirectoryStream(path, "*.state")) {
+                    dir.forEach(found::add);
+                }
+                found.sort(null);
+                logs.addAll(found);
+            } else {
+                logs.add(path);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        List<Extract> extracts = new StateLogExtractor(parallelism).run(logs, Paths.get(args[0]));
+        int rows = 0;
+        for (Extract extract : extracts) {
+            System.err.println(extract.log + ": " + extract.count + " rows from " + extract.records + " records in "
+                    + extract.lines + " lines" + (extract.malformed > 0 ? ", " + extract.malformed + " malformed" : ""));
+            rows += extract.count;
+        }
+        System.err.println(rows + " rows from " + extracts.size() + " logs in " + (System.currentTimeMillis() - start)
+                + " ms");
+    }
+}
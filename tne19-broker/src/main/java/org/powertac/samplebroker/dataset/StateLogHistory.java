@@ -0,0 +1,236 @@
+package org.powertac.samplebroker.dataset;
+
+import java.util.Arrays;
+
+import org.powertac.samplebroker.interfaces.FeatureSource;
+
+/**
+ * The market and weather history of one game, rebuilt from its state log
+ * and kept in primitive arrays indexed by timeslot. Serves FeatureBuilder the
+ * same values the broker's repositories would have held.
+ *
+ * The log carries no broker clock, so the current timeslot is taken to be
+ * the one of the latest WeatherReport: the server publishes the report when
+ * a timeslot starts and clears the market when it ends, so trades logged in
+ * between come from the auctions run in that timeslot, which the broker
+ * files under it. Forecast predictions belong to the next WeatherForecast
+ * logged after them.
+ */
+public class StateLogHistory implements FeatureSource, StateLogParser.Handler {
+
+    public static final int HORIZON = 24;
+
+    private int capacity = 0;
+
+    private int firstReport = Integer.MAX_VALUE;
+
+    private int lastReport = -1;
+
+    private double[] temperature = new double[0];
+
+    private double[] windSpeed = new double[0];
+
+    // by timeslot * HORIZON + lead - 1
+    private double[] forecastTemperature = new double[0];
+
+    private double[] forecastWindSpeed = new double[0];
+
+    private double[] clearedMWh = new double[0];
+
+    private double[] clearedPriceSum = new double[0];
+
+    private int[] clearedCount = new int[0];
+
+    // auctions cleared in the timeslot, so the broker saw its clearings
+    private boolean[] originSeen = new boolean[0];
+
+    private double[] pendingTemperature = new double[HORIZON];
+
+    private double[] pendingWindSpeed = new double[HORIZON];
+
+    private boolean[] pending = new boolean[HORIZON];
+
+    private int trades = 0;
+
+    private void ensure(int timeslot) {
+        if (timeslot < capacity) {
+            return;
+        }
+        int size = Math.max(timeslot + 1, Math.max(capacity * 2, 2048));
+        temperature = grow(temperature, size);
+        windSpeed = grow(windSpeed, size);
+        forecastTemperature = grow(forecastTemperature, size * HORIZON);
+        forecastWindSpeed = grow(forecastWindSpeed, size * HORIZON);
+        clearedMWh = Arrays.copyOf(clearedMWh, size * HORIZON);
+        clearedPriceSum = Arrays.copyOf(clearedPriceSum, size * HORIZON);
+        clearedCount = Arrays.copyOf(clearedCount, size * HORIZON);
+        originSeen = Arrays.copyOf(originSeen, size);
+        capacity = size;
+    }
+
+    private static double[] grow(double[] values, int size) {
+        int old = values.length;
+        double[] result = Arrays.copyOf(values, size);
+        Arrays.fill(result, old, size, Double.NaN);
+        return result;
+    }
+
+    @Override
+    public void clearedTrade(int timeslot, double mWh, double price) {
+        if (timeslot < 1) {
+            return;
+        }
+        int origin = lastReport < 0 ? timeslot - 1 : Math.min(lastReport, timeslot - 1);
+        origin = Math.max(origin, timeslot - HORIZON);
+        if (origin < 0) {
+            return;
+        }
+        ensure(timeslot);
+        int k = timeslot * HORIZON + timeslot - origin - 1;
+        clearedMWh[k] += mWh;
+        clearedPriceSum[k] += price;
+        clearedCount[k]++;
+        originSeen[origin] = true;
+        trades++;
+    }
+
+    @Override
+    public void weatherReport(int timeslot, double temperature, double windSpeed) {
+        if (timeslot < 0) {
+            return;
+        }
+        ensure(timeslot);
+        this.temperature[timeslot] = temperature;
+        this.windSpeed[timeslot] = windSpeed;
+        firstReport = Math.min(firstReport, timeslot);
+        lastReport = Math.max(lastReport, timeslot);
+    }
+
+    @Override
+    public void forecastPrediction(int lead, double temperature, double windSpeed) {
+        if (lead < 1 || lead > HORIZON) {
+            return;
+        }
+        pendingTemperature[lead - 1] = temperature;
+        pendingWindSpeed[lead - 1] = windSpeed;
+        pending[lead - 1] = true;
+    }
+
+    @Override
+    public void weatherForecast(int timeslot) {
+        if (timeslot >= 0) {
+            ensure(timeslot);
+            for (int j = 0; j < HORIZON; j++) {
+                if (pending[j]) {
+                    forecastTemperature[timeslot * HORIZON + j] = pendingTemperature[j];
+                    forecastWindSpeed[timeslot * HORIZON + j] = pendingWindSpeed[j];
+                }
+            }
+        }
+        Arrays.fill(pending, false);
+    }
+
+    /**
+     * First timeslot with a weather report, or -1 for an empty log.
+     */
+    public int getFirstTimeslot() {
+        return lastReport < 0 ? -1 : firstReport;
+    }
+
+    public int getLastTimeslot() {
+        return lastReport;
+    }
+
+    public int getTrades() {
+        return trades;
+    }
+
+    private boolean covers(int timeslot) {
+        return timeslot >= 0 && timeslot < capacity;
+    }
+
+    // Sums the auctions of timeslot with a lead of at least minLead, oldest
+    // first as the broker's repositories do
+    private double sum(double[] values, int timeslot, int minLead) {
+        double total = 0.0;
+        for (int lead = HORIZON; lead >= Math.max(minLead, 1); lead--) {
+            total += values[timeslot * HORIZON + lead - 1];
+        }
+        return total;
+    }
+
+    private int count(int timeslot, int minLead) {
+        int total = 0;
+        for (int lead = Math.max(minLead, 1); lead <= HORIZON; lead++) {
+            total += clearedCount[timeslot * HORIZON + lead - 1];
+        }
+        return total;
+    }
+
+    @Override
+    public double clearedQuantity(int timeslot) {
+        if (!covers(timeslot) || count(timeslot, 1) == 0) {
+            return Double.NaN;
+        }
+        return sum(clearedMWh, timeslot, 1);
+    }
+
+    @Override
+    public double clearedPrice(int timeslot) {
+        int n = covers(timeslot) ? count(timeslot, 1) : 0;
+        return n == 0 ? Double.NaN : sum(clearedPriceSum, timeslot, 1) / n;
+    }
+
+    @Override
+    public double partialQuantity(int origin, int timeslot) {
+        if (!covers(origin) || !originSeen[origin]) {
+            return Double.NaN;
+        }
+        if (!covers(timeslot)) {
+            return 0.0;
+        }
+        int minLead = timeslot - origin;
+        return count(timeslot, minLead) == 0 ? 0.0 : sum(clearedMWh, timeslot, minLead);
+    }
+
+    @Override
+    public double partialPrice(int origin, int timeslot) {
+        if (!covers(origin) || !originSeen[origin]) {
+            return Double.NaN;
+        }
+        if (!covers(timeslot)) {
+            return 0.0;
+        }
+        int minLead = timeslot - origin;
+        int n = count(timeslot, minLead);
+        return n == 0 ? 0.0 : sum(clearedPriceSum, timeslot, minLead) / n;
+    }
+
+    @Override
+    public double temperature(int timeslot) {
+        return covers(timeslot) ? temperature[timeslot] : Double.NaN;
+    }
+
+    @Override
+    public double windSpeed(int timeslot) {
+        return covers(timeslot) ? windSpeed[timeslot] : Double.NaN;
+    }
+
+    @Override
+    public double forecastTemperature(int origin, int timeslot) {
+        int lead = timeslot - origin;
+        if (!covers(origin) || lead < 1 || lead > HORIZON) {
+            return Double.NaN;
+        }
+        return forecastTemperature[origin * HORIZON + lead - 1];
+    }
+
+    @Override
+    public double forecastWindSpeed(int origin, int timeslot) {
+        int lead = timeslot - origin;
+        if (!covers(origin) || lead < 1 || lead > HORIZON) {
+            return Double.NaN;
+        }
+        return forecastWindSpeed[origin * HORIZON + lead - 1];
+    }
+}
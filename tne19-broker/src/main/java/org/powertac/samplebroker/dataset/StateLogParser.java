@@ -0,0 +1,274 @@
+package org.powertac.samplebroker.dataset;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the records the feature set needs out of a Power TAC server state
+ * log. The log is memory-mapped a window at a time and scanned line by line
+ * in place; only lines constructing a ClearedTrade, WeatherReport,
+ * WeatherForecastPrediction or WeatherForecast are parsed, without creating
+ * strings. State log lines look like
+ *
+ * <pre>
+ * 2761:org.powertac.common.ClearedTrade::200006429::new::362::21.55::33.09::...
+ * </pre>
+ *
+ * that is elapsed millis, class, object id, method and the constructor
+ * arguments, separated by "::".
+ */
+public class StateLogParser {
+
+    public interface Handler {
+        /**
+         * ClearedTrade(timeslotIndex, executionMWh, executionPrice, ...)
+         */
+        void clearedTrade(int timeslot, double mWh, double price);
+
+        /**
+         * WeatherReport(timeslotIndex, temperature, windSpeed, ...)
+         */
+        void weatherReport(int timeslot, double temperature, double windSpeed);
+
+        /**
+         * WeatherForecastPrediction(forecastTime, temperature, windSpeed,
+         * ...), logged before the WeatherForecast that holds it.
+         */
+        void forecastPrediction(int lead, double temperature, double windSpeed);
+
+        /**
+         * WeatherForecast(timeslotIndex, predictions)
+         */
+        void weatherForecast(int timeslot);
+    }
+
+    private static final int WINDOW = 1 << 26;
+
+    private static final int MAX_FIELDS = 8;
+
+    private static final byte[] CLEARED_TRADE = bytes("org.powertac.common.ClearedTrade");
+
+    private static final byte[] WEATHER_REPORT = bytes("org.powertac.common.WeatherReport");
+
+    private static final byte[] FORECAST_PREDICTION = bytes("org.powertac.common.WeatherForecastPrediction");
+
+    private static final byte[] WEATHER_FORECAST = bytes("org.powertac.common.WeatherForecast");
+
+    private static final byte[] NEW = bytes("new");
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final Handler handler;
+
+    private MappedByteBuffer buffer;
+
+    // "::" separated fields of the current line: class, id, method, args...
+    private final int[] fieldStart = new int[MAX_FIELDS];
+
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+
+    private int fields;
+
+    private long lines = 0;
+
+    private long records = 0;
+
+    private long malformed = 0;
+
+    public StateLogParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Feeds every record of the log to the handler, in log order.
+     */
+    public void parse(Path log) throws IOException {
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(WINDOW, size - position);
+                boolean last = position + length == size;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int lineStart = 0;
+                for (int k = 0; k < length; k++) {
+                    if (buffer.get(k) == '\n') {
+                        line(lineStart, k);
+                        lineStart = k + 1;
+                    }
+                }
+                if (last) {
+                    if (lineStart < length) {
+                        line(lineStart, length);
+                    }
+                    position = size;
+                } else if (lineStart == 0) {
+                    throw new IOException("Line longer than " + WINDOW + " bytes at " + position + " in " + log);
+                } else {
+                    position += lineStart;
+                }
+            }
+        } finally {
+            buffer = null;
+        }
+    }
+
+    private void line(int start, int end) {
+        lines++;
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        // skip the elapsed millis
+        int k = start;
+        while (k < end && buffer.get(k) != ':') {
+            k++;
+        }
+        if (k == end || !split(k + 1, end) || fields < 4 || !fieldEquals(2, NEW)) {
+            return;
+        }
+        try {
+            if (fieldEquals(0, CLEARED_TRADE) && fields >= 6) {
+                handler.clearedTrade(parseInt(3), parseDouble(4), parseDouble(5));
+            } else if (fieldEquals(0, WEATHER_REPORT) && fields >= 6) {
+                handler.weatherReport(parseInt(3), parseDouble(4), parseDouble(5));
+            } else if (fieldEquals(0, FORECAST_PREDICTION) && fields >= 6) {
+                handler.forecastPrediction(parseInt(3), parseDouble(4), parseDouble(5));
+            } else if (fieldEquals(0, WEATHER_FORECAST)) {
+                handler.weatherForecast(parseInt(3));
+            } else {
+                return;
+            }
+            records++;
+        } catch (NumberFormatException e) {
+            malformed++;
+        }
+    }
+
+    // Splits start..end on "::", keeping at most MAX_FIELDS fields
+    private boolean split(int start, int end) {
+        fields = 0;
+        int from = start;
+        for (int k = start; k + 1 < end && fields < MAX_FIELDS - 1; k++) {
+            if (buffer.get(k) == ':' && buffer.get(k + 1) == ':') {
+                fieldStart[fields] = from;
+                fieldEnd[fields++] = k;
+                from = k + 2;
+                k++;
+            }
+        }
+        if (fields == 0) {
+            return false;
+        }
+        fieldStart[fields] = from;
+        fieldEnd[fields++] = end;
+        return true;
+    }
+
+    private boolean fieldEquals(int field, byte[] value) {
+        int start = fieldStart[field];
+        if (fieldEnd[field] - start != value.length) {
+            return false;
+        }
+        for (int k = 0; k < value.length; k++) {
+            if (buffer.get(start + k) != value[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int parseInt(int field) {
+        int k = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = k < end && buffer.get(k) == '-';
+        if (negative) {
+            k++;
+        }
+        if (k == end) {
+            throw new NumberFormatException();
+        }
+        int value = 0;
+        for (; k < end; k++) {
+            int digit = buffer.get(k) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Plain decimals of up to 15 significant digits are exact as mantissa /
+     * 10^fraction, one correctly rounded division; anything else goes
+     * through Double.parseDouble.
+     */
+    private double parseDouble(int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        int k = start;
+        boolean negative = k < end && buffer.get(k) == '-';
+        if (negative) {
+            k++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; k < end; k++) {
+            byte b = buffer.get(k);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        if (k < end || digits > 15 || fraction > 22 || k == start + (negative ? 1 : 0)) {
+            return slowParseDouble(start, end);
+        }
+        double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private double slowParseDouble(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int k = start; k < end; k++) {
+            bytes[k - start] = buffer.get(k);
+        }
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+}
@@ -6,9 +6,12 @@ public class Weather {
 
     private Double temperature;
 
-    public Weather(Double windSpeed, Double temperature) {
+    private Double cloudCover;
+
+    public Weather(Double windSpeed, Double temperature, Double cloudCover) {
         this.setWindSpeed(windSpeed);
         this.setTemperature(temperature);
+        this.setCloudCover(cloudCover);
     }
 
     public Double getTemperature() {
@@ -26,4 +29,12 @@ public class Weather {
     public void setWindSpeed(Double windSpeed) {
         this.windSpeed = windSpeed;
     }
+
+    public Double getCloudCover() {
+        return cloudCover;
+    }
+
+    public void setCloudCover(Double cloudCover) {
+        this.cloudCover = cloudCover;
+    }
 }
\ No newline at end of file
@@ -6,9 +6,12 @@ public class WeatherPrediction {
 
     private Double temperature;
 
-    public WeatherPrediction(Double windSpeed, Double temperature) {
+    private Double cloudCover;
+
+    public WeatherPrediction(Double windSpeed, Double temperature, Double cloudCover) {
         this.setWindSpeed(windSpeed);
         this.setTemperature(temperature);
+        this.setCloudCover(cloudCover);
     }
 
     public Double getTemperature() {
@@ -26,5 +29,13 @@ public class WeatherPrediction {
     public void setWindSpeed(Double windSpeed) {
         this.windSpeed = windSpeed;
     }
+
+    public Double getCloudCover() {
+        return cloudCover;
+    }
+
+    public void setCloudCover(Double cloudCover) {
+        this.cloudCover = cloudCover;
+    }
 }
 
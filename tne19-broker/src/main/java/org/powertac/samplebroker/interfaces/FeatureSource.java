@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2019 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker.interfaces;
+
+/**
+ * Market and weather history that FeatureBuilder reads a feature row from.
+ * The live broker reads its repositories; offline tools provide the same
+ * history from logs. Values are NaN where nothing is known.
+ */
+public interface FeatureSource
+{
+  /**
+   * Returns the total MWh cleared for the timeslot, NaN when nothing has
+   * cleared for it.
+   */
+  public double clearedQuantity (int timeslot);
+
+  /**
+   * Returns the mean clearing price of the timeslot's auctions, NaN when
+   * nothing has cleared for it.
+   */
+  public double clearedPrice (int timeslot);
+
+  /**
+   * Returns the MWh cleared for the timeslot as seen after the auctions run
+   * in origin: zero when nothing had cleared yet, NaN when no clearing was
+   * seen in origin at all.
+   */
+  public double partialQuantity (int origin, int timeslot);
+
+  /**
+   * Returns the mean clearing price to match partialQuantity().
+   */
+  public double partialPrice (int origin, int timeslot);
+
+  /**
+   * Returns the reported temperature of the timeslot, NaN when unreported.
+   */
+  public double temperature (int timeslot);
+
+  /**
+   * Returns the reported wind speed of the timeslot, NaN when unreported.
+   */
+  public double windSpeed (int timeslot);
+
+  /**
+   * Returns the temperature forecast in origin for the timeslot, NaN when
+   * none was received.
+   */
+  public double forecastTemperature (int origin, int timeslot);
+
+  /**
+   * Returns the wind speed forecast in origin for the timeslot, NaN when
+   * none was received.
+   */
+  public double forecastWindSpeed (int origin, int timeslot);
+}
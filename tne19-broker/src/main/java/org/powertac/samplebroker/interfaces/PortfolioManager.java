@@ -26,4 +26,11 @@ public interface PortfolioManager
    * index (normally a timeslot serial number).
    */
   public double collectUsage (int index); 
+
+  /**
+   * Fills result with the forecast net expected usage for the timeslots
+   * following index, one entry for each of the next 24 timeslots. Values
+   * use the same sign convention as collectUsage().
+   */
+  public void collectUsageForecast (int index, double[] result);
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2019 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker.interfaces;
+
+import java.io.IOException;
+
+/**
+ * How prediction requests reach the prediction service. A request for one
+ * feature row is written by prepare() and sent by exchange(), so that the
+ * caller knows its size before timing it. prepare() and exchange() share a
+ * connection and must be called by one thread at a time; batch requests use
+ * their own and may run alongside. Models are named as in the service's
+ * URLs, "energy" and "price".
+ */
+public interface PredictorTransport
+{
+  /**
+   * Returns where the model is served, for logs and events.
+   */
+  public String endpoint (String model);
+
+  /**
+   * Writes the first width features as the next request for the model, and
+   * returns its size in bytes.
+   */
+  public int prepare (String model, double[] features, int width);
+
+  /**
+   * Sends the prepared request and reads the model's HORIZON values into
+   * result. Returns false, leaving result unchanged, when the answer is
+   * incomplete; throws when the request fails or takes longer than
+   * timeoutMillis.
+   */
+  public boolean exchange (int timeoutMillis, double[] result)
+    throws IOException;
+
+  /**
+   * Scores the first rows rows of features with the model, row r of the
+   * answer going to result[r]. Returns false, with result partly written,
+   * when the answer has the wrong length.
+   */
+  public boolean predictBatch (String model, double[][] features, int rows,
+                               int width, int timeoutMillis,
+                               double[][] result)
+    throws IOException;
+
+  /**
+   * Closes the connection; the next request opens a new one.
+   */
+  public void close ();
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2019 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker.interfaces;
+
+import org.powertac.samplebroker.journal.JournalEvent;
+
+/**
+ * What a WholesaleStrategy sees of the market during one activation. The
+ * live broker and the backtester each provide one.
+ */
+public interface WholesaleContext
+{
+  /** Stage ran on fresh predictions */
+  public static final int MODE_RAN = 0;
+
+  /** Stage ran on cached or fallback predictions */
+  public static final int MODE_CACHED = 1;
+
+  /** Stage did not run */
+  public static final int MODE_SKIPPED = 2;
+
+  /**
+   * Returns the timeslot being activated; orders may target the 24
+   * timeslots after it.
+   */
+  public int getCurrentTimeslot ();
+
+  /**
+   * Returns the net MWh held for the timeslot, positive when bought.
+   */
+  public double positionFor (int timeslot);
+
+  /**
+   * Fills result with the MWh still needed for each of the 24 open
+   * timeslots: our customers' expected net usage less what we hold,
+   * positive when we should buy.
+   */
+  public void neededMWh (double[] result);
+
+  /**
+   * Returns the MWh the whole market has cleared so far for the timeslot.
+   */
+  public double clearedMWh (int timeslot);
+
+  /**
+   * Returns what an imbalance of mWh in the timeslot is expected to cost
+   * per MWh in the balancing market, negative mWh being a shortage;
+   * negative when we would be paid, NaN when unknown.
+   */
+  public double balancingCost (int timeslot, double mWh);
+
+  /**
+   * Returns the lead, 1 to maxLead auctions before delivery, at which the
+   * timeslot's hour of day has cleared cheapest on average, or -1 when too
+   * little is known.
+   */
+  public int cheapestLead (int timeslot, int maxLead);
+
+  /**
+   * Returns the least aggressive limit price, as a multiple of the
+   * predicted price, at which our orders at lead (buys when mWh is
+   * positive) have filled at least the target share of the MWh offered, or
+   * NaN when too little is known.
+   */
+  public double fillRatio (int lead, double mWh, double target);
+
+  /**
+   * Fills prices with the predicted clearing prices of the 24 open
+   * timeslots, NaN where none is known, and returns one of the MODE values.
+   */
+  public int loadPrices (double[] prices);
+
+  /**
+   * Fills amounts with the predicted cleared quantities, like loadPrices.
+   */
+  public int loadAmounts (double[] amounts);
+
+  /**
+   * Proposes an order; positive mWh buys, negative sells. Limit prices are
+   * negative for buys.
+   */
+  public void submitOrder (int timeslot, double mWh, double limitPrice);
+
+  /**
+   * Nets and sends the proposed orders; returns the number sent.
+   */
+  public int flush ();
+
+  /**
+   * Reports the outcome of a strategy stage.
+   */
+  public void stageDone (Enum<?> stage, int mode);
+
+  /**
+   * Records a trading event for the current timeslot, where journaling is
+   * wanted.
+   */
+  public void record (JournalEvent event, long key, double a, double b);
+}
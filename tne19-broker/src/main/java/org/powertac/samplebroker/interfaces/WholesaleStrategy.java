@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2019 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.samplebroker.interfaces;
+
+/**
+ * Wholesale trading logic, run once per activation against a
+ * WholesaleContext. Implementations keep their own state between
+ * activations, so each game needs its own instance.
+ */
+public interface WholesaleStrategy
+{
+  /**
+   * Proposes and flushes the orders for the current activation.
+   */
+  public void apply (WholesaleContext context);
+
+  /**
+   * Reports a clearing of timeslot in the auction run during origin.
+   */
+  public void observeClearing (int timeslot, int origin, double price);
+}
@@ -0,0 +1,269 @@
+package org.powertac.samplebroker.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Binary journal of trading events. Handlers and activations append
+ * fixed-size records to a preallocated ring of primitive arrays, without
+ * locking or allocation; a daemon thread drains the ring to the journal file.
+ * When the ring is full, events are dropped and counted rather than blocking
+ * the caller.
+ *
+ * The file starts with a header of magic, version, wall-clock millis and
+ * nanoTime at open, followed by RECORD_BYTES records of nanoTime, event code,
+ * timeslot, key and two values. JournalReader prints it.
+ */
+@Service
+public class EventJournal implements Initializable {
+    static private Logger log = LogManager.getLogger(EventJournal.class);
+
+    public static final int MAGIC = 0x544e454a;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 24;
+
+    public static final int RECORD_BYTES = 40;
+
+    @Autowired
+    private BrokerPropertiesService propertiesService;
+
+    @ConfigurableValue(valueType = "Boolean", description = "Record trading events to the journal")
+    private boolean journalEnabled = true;
+
+    @ConfigurableValue(valueType = "String", description = "Event journal output file")
+    private String journalFile = "log/broker.journal";
+
+    @ConfigurableValue(valueType = "Integer", description = "Ring buffer size in events, rounded up to a power of two")
+    private int journalCapacity = 65536;
+
+    // set when the ring is allocated and the writer is running
+    private volatile boolean running = false;
+
+    private int mask;
+
+    private long[] time;
+
+    private int[] type;
+
+    private int[] timeslot;
+
+    private long[] key;
+
+    private double[] a;
+
+    private double[] b;
+
+    // sequence + 1 of the event held by each slot, once it is complete
+    private AtomicLongArray published;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private volatile long tail = 0;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private Writer writer;
+
+    private boolean hooked = false;
+
+    public EventJournal() {
+        super();
+    }
+
+    @Override
+    public synchronized void initialize(BrokerContext broker) {
+        if (propertiesService != null) {
+            propertiesService.configureMe(this);
+        }
+        close();
+        if (journalEnabled) {
+            open(new File(journalFile), journalCapacity);
+        }
+    }
+
+    /**
+     * Starts journaling to file with a ring of at least capacity events.
+     */
+    public synchronized void open(File file, int capacity) {
+        close();
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        time = new long[size];
+        type = new int[size];
+        timeslot = new int[size];
+        key = new long[size];
+        a = new double[size];
+        b = new double[size];
+        published = new AtomicLongArray(size);
+        head.set(0);
+        tail = 0;
+        dropped.set(0);
+        try {
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            writer = new Writer(file);
+        } catch (IOException e) {
+            log.error("Cannot open event journal {}: {}", file, e.toString());
+            return;
+        }
+        running = true;
+        writer.start();
+        if (!hooked) {
+            hooked = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "event-journal-shutdown"));
+        }
+    }
+
+    /**
+     * Stops accepting events, writes out what is in the ring and closes the
+     * file.
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.finish();
+        writer = null;
+        if (dropped.get() > 0) {
+            log.warn("Event journal dropped {} events", dropped.get());
+        }
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Appends one event. Returns false when the journal is off or the ring is
+     * full.
+     */
+    public boolean record(JournalEvent event, int currentTimeslot, long eventKey, double valueA, double valueB) {
+        if (!running) {
+            return false;
+        }
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int slot = (int) seq & mask;
+        time[slot] = System.nanoTime();
+        type[slot] = event.ordinal();
+        timeslot[slot] = currentTimeslot;
+        key[slot] = eventKey;
+        a[slot] = valueA;
+        b[slot] = valueB;
+        published.lazySet(slot, seq + 1);
+        return true;
+    }
+
+    public boolean record(JournalEvent event, int currentTimeslot) {
+        return record(event, currentTimeslot, 0L, 0.0, 0.0);
+    }
+
+    private class Writer extends Thread {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_BYTES * 1024);
+
+        private volatile boolean finishing = false;
+
+        Writer(File file) throws IOException {
+            super("event-journal");
+            setDaemon(true);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!finishing) {
+                    if (drain() == 0) {
+                        flush();
+                        LockSupport.parkNanos(1000000L);
+                    }
+                }
+                drain();
+                flush();
+            } catch (IOException e) {
+                log.error("Event journal write failed: {}", e.toString());
+                running = false;
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Cannot close event journal: {}", e.toString());
+                }
+            }
+        }
+
+        void finish() {
+            finishing = true;
+            LockSupport.unpark(this);
+            try {
+                join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Copies complete records from the ring into the buffer, in order
+        private int drain() throws IOException {
+            int count = 0;
+            long next = tail;
+            while (next < head.get()) {
+                int slot = (int) next & mask;
+                if (published.get(slot) != next + 1) {
+                    break; // claimed but not yet written
+                }
+                if (buffer.remaining() < RECORD_BYTES) {
+                    flush();
+                }
+                buffer.putLong(time[slot]).putInt(type[slot]).putInt(timeslot[slot]).putLong(key[slot])
+                        .putDouble(a[slot]).putDouble(b[slot]);
+                next++;
+                tail = next;
+                count++;
+            }
+            return count;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.powertac.samplebroker.journal;
+
+/**
+ * Trading event types recorded by EventJournal. Each record carries the
+ * current timeslot, a key and two values; the labels say what they hold for
+ * each type, and are used by JournalReader. Codes are ordinals, so new types
+ * go at the end.
+ */
+public enum JournalEvent {
+
+    MARKET_ACTIVATION("-", "energyBalance", "-"),
+    ORDER("timeslot", "mWh", "limitPrice"),
+    ORDER_CLEARED("timeslot", "mWh", "price"),
+    CLEARED_TRADE("timeslot", "mWh", "price"),
+    BALANCING("-", "kWh", "charge"),
+    ARBITRAGE("-", "minPriceIndex", "maxPriceIndex"),
+    PORTFOLIO_ACTIVATION("-", "-", "-"),
+    // b is 1 when the best tariff is ours
+    TARIFF_BEST("tariffId", "evaluation", "ours"),
+    TARIFF_LAUNCH("tariffId", "periodicPayment", "signupPayment"),
+    // b is 0 when the stage ran, 1 when it used cached predictions, 2 when skipped
+    STAGE("stage", "remainingMillis", "mode"),
+    // a is NaN when the auction did not clear, b when no ask was left
+    ORDERBOOK("timeslot", "clearingPrice", "bestAsk"),
+    WEATHER("timeslot", "temperature", "windSpeed"),
+    // net kWh of our customers, negative when they consume
+    NET_USAGE("timeslot", "kWh", "-"),
+    BOOTSTRAP("timeslot", "mWh", "marketPrice");
+
+    private static final JournalEvent[] VALUES = values();
+
+    private final String keyLabel;
+
+    private final String aLabel;
+
+    private final String bLabel;
+
+    JournalEvent(String keyLabel, String aLabel, String bLabel) {
+        this.keyLabel = keyLabel;
+        this.aLabel = aLabel;
+        this.bLabel = bLabel;
+    }
+
+    public String getKeyLabel() {
+        return keyLabel;
+    }
+
+    public String getALabel() {
+        return aLabel;
+    }
+
+    public String getBLabel() {
+        return bLabel;
+    }
+
+    public static JournalEvent fromCode(int code) {
+        return code >= 0 && code < VALUES.length ? VALUES[code] : null;
+    }
+}
@@ -0,0 +1,140 @@
+package org.powertac.samplebroker.journal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Reads an EventJournal file one record at a time. Run standalone to print a
+ * journal as CSV:
+ *
+ * <pre>
+ * JournalReader broker.journal [EVENT ...]
+ * </pre>
+ *
+ * where the optional event names restrict the output to those types.
+ */
+public class JournalReader implements Closeable {
+
+    private DataInputStream in;
+
+    private long baseMillis;
+
+    private long baseNanos;
+
+    private long nanoTime;
+
+    private JournalEvent event;
+
+    private int timeslot;
+
+    private long key;
+
+    private double a;
+
+    private double b;
+
+    public JournalReader(InputStream stream) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != EventJournal.MAGIC) {
+            throw new IOException("Not an event journal");
+        }
+        int version = in.readInt();
+        if (version != EventJournal.VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        baseMillis = in.readLong();
+        baseNanos = in.readLong();
+    }
+
+    /**
+     * Moves to the next record; returns false at the end of the journal.
+     */
+    public boolean next() throws IOException {
+        try {
+            nanoTime = in.readLong();
+            int code = in.readInt();
+            timeslot = in.readInt();
+            key = in.readLong();
+            a = in.readDouble();
+            b = in.readDouble();
+            event = JournalEvent.fromCode(code);
+            if (event == null) {
+                throw new IOException("Unknown event code " + code);
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wall-clock time of the current record, in ms.
+     */
+    public long getMillis() {
+        return baseMillis + (nanoTime - baseNanos) / 1000000L;
+    }
+
+    public JournalEvent getEvent() {
+        return event;
+    }
+
+    public int getTimeslot() {
+        return timeslot;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public double getA() {
+        return a;
+    }
+
+    public double getB() {
+        return b;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReader <journal> [EVENT ...]");
+            System.exit(1);
+        }
+        boolean[] include = new boolean[JournalEvent.values().length];
+        for (int i = 1; i < args.length; i++) {
+            include[JournalEvent.valueOf(args[i]).ordinal()] = true;
+        }
+        boolean all = args.length == 1;
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        PrintStream out = System.out;
+        out.println("time,event,timeslot,key,a,b");
+        try (JournalReader reader = new JournalReader(new FileInputStream(args[0]))) {
+            while (reader.next()) {
+                JournalEvent event = reader.getEvent();
+                if (!all && !include[event.ordinal()]) {
+                    continue;
+                }
+                out.println(format.format(new Date(reader.getMillis())) + "," + event + "," + reader.getTimeslot()
+                        + "," + cell(event.getKeyLabel(), reader.getKey()) + "," + cell(event.getALabel(), reader.getA())
+                        + "," + cell(event.getBLabel(), reader.getB()));
+            }
+        }
+    }
+
+    // label=value, or empty for fields the event type does not use
+    private static String cell(String label, Object value) {
+        return "-".equals(label) ? "" : label + "=" + value;
+    }
+}
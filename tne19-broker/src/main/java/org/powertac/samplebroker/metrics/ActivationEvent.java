@@ -0,0 +1,23 @@
+package org.powertac.samplebroker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans one activation of a broker service, from TimeslotComplete handling to
+ * the end of its decisions for that timeslot.
+ */
+@Name("org.powertac.samplebroker.Activation")
+@Label("Broker Activation")
+@Category({ "Power TAC", "Broker" })
+@Description("Activation of a broker service for one timeslot")
+public class ActivationEvent extends jdk.jfr.Event {
+
+    @Label("Timeslot")
+    int timeslot;
+
+    @Label("Service")
+    String service;
+}
@@ -0,0 +1,13 @@
+package org.powertac.samplebroker.metrics;
+
+/**
+ * Parts of a market activation that are timed separately.
+ */
+public enum ActivationPhase {
+    FEATURES,
+    PRICE_PREDICTION,
+    ENERGY_PREDICTION,
+    // whatever activation time is not spent in the other phases
+    STRATEGY,
+    SEND
+}
@@ -0,0 +1,34 @@
+package org.powertac.samplebroker.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the broker's activation and message handling times, registered
+ * as org.powertac.samplebroker:type=BrokerMetrics.
+ */
+public interface BrokerMetricsMXBean {
+
+    int getLastTimeslot();
+
+    long getTimeslotBudgetMillis();
+
+    double getLastActivationMillis();
+
+    double getLastBudgetUsedPercent();
+
+    double getMaxBudgetUsedPercent();
+
+    /**
+     * Activation time percentiles (p50, p90, p99, max) in milliseconds.
+     */
+    Map<String, Double> getActivationMillis();
+
+    /**
+     * 99th percentile time of each activation phase in milliseconds.
+     */
+    Map<String, Double> getPhaseP99Millis();
+
+    Map<String, Long> getMessageCounts();
+
+    Map<String, Double> getMessageMeanMicros();
+}
@@ -0,0 +1,105 @@
+package org.powertac.samplebroker.metrics;
+
+import org.powertac.common.TariffSpecification;
+
+/**
+ * Emits the broker's Java Flight Recorder events, so that recordings can be
+ * lined up with the game timeline. Events are only created when enabled by
+ * MetricsService's flightRecorderEvents property; otherwise every method is a
+ * single field test. Begin methods return null when disabled, and the
+ * matching end methods accept null.
+ */
+public final class FlightEvents {
+
+    private static volatile boolean enabled = false;
+
+    private FlightEvents() {
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static ActivationEvent beginActivation(int timeslot, String service) {
+        if (!enabled) {
+            return null;
+        }
+        ActivationEvent event = new ActivationEvent();
+        event.timeslot = timeslot;
+        event.service = service;
+        event.begin();
+        return event;
+    }
+
+    public static void endActivation(ActivationEvent event) {
+        if (event != null) {
+            event.commit();
+        }
+    }
+
+    public static void phase(int timeslot, ActivationPhase phase, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.timeslot = timeslot;
+            event.phase = phase.name();
+            event.phaseDuration = nanos;
+            event.commit();
+        }
+    }
+
+    public static PredictionRequestEvent beginPrediction(int timeslot, String url, long payloadBytes) {
+        if (!enabled) {
+            return null;
+        }
+        PredictionRequestEvent event = new PredictionRequestEvent();
+        event.timeslot = timeslot;
+        event.url = url;
+        event.payloadBytes = payloadBytes;
+        event.begin();
+        return event;
+    }
+
+    public static void endPrediction(PredictionRequestEvent event, boolean success) {
+        if (event != null) {
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    public static void orderSubmitted(int currentTimeslot, int timeslot, double mWh, double limitPrice) {
+        if (!enabled) {
+            return;
+        }
+        OrderSubmissionEvent event = new OrderSubmissionEvent();
+        if (event.shouldCommit()) {
+            event.currentTimeslot = currentTimeslot;
+            event.timeslot = timeslot;
+            event.mWh = mWh;
+            event.limitPrice = limitPrice;
+            event.commit();
+        }
+    }
+
+    public static void tariffPublished(TariffSpecification spec, String origin) {
+        if (!enabled) {
+            return;
+        }
+        TariffPublicationEvent event = new TariffPublicationEvent();
+        if (event.shouldCommit()) {
+            event.tariffId = spec.getId();
+            event.powerType = String.valueOf(spec.getPowerType());
+            event.origin = origin;
+            event.periodicPayment = spec.getPeriodicPayment();
+            event.signupPayment = spec.getSignupPayment();
+            event.earlyWithdrawPayment = spec.getEarlyWithdrawPayment();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.powertac.samplebroker.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram: values below 128
+ * are counted exactly, larger values fall into 64 linear sub-buckets per
+ * power of two, giving percentiles within about 1.5% of the true value.
+ * Recording is O(1) and never allocates. Values are nanoseconds, up to about
+ * 18 minutes; larger values are counted in the top bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int EXACT = 128;
+
+    private static final int SUB_BUCKETS = 64;
+
+    private static final int MAX_MSB = 40;
+
+    private static final int BUCKETS = EXACT + (MAX_MSB - 6) * SUB_BUCKETS;
+
+    private long[] counts = new long[BUCKETS];
+
+    private long total = 0;
+
+    private long sum = 0;
+
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0.0 : (double) sum / total;
+    }
+
+    /**
+     * Returns the value at the given percentile (0-100), or 0 when empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        total = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    static int index(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb > MAX_MSB) {
+            return BUCKETS - 1;
+        }
+        int shift = msb - 6;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long sub = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,326 @@
+package org.powertac.samplebroker.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Times market activations against the wall-clock length of a timeslot, split
+ * by ActivationPhase, and counts message handler calls and durations by
+ * message type. One line per activation goes to the metrics file:
+ *
+ * <pre>
+ * timeslot,activation_us,budget_pct,features_us,price_us,energy_us,strategy_us,send_us,messages,handler_us
+ * </pre>
+ *
+ * and running distributions are exposed over JMX. When flightRecorderEvents is
+ * set, activations and phases are also emitted as JFR events through
+ * FlightEvents.
+ */
+@Service
+public class MetricsService implements Initializable, BrokerMetricsMXBean {
+    static private Logger log = LogManager.getLogger(MetricsService.class);
+
+    private static final ActivationPhase[] PHASES = ActivationPhase.values();
+
+    @Autowired
+    private BrokerPropertiesService propertiesService;
+
+    @ConfigurableValue(valueType = "Boolean", description = "Record activation and handler timing")
+    private boolean metricsEnabled = true;
+
+    @ConfigurableValue(valueType = "String", description = "Per-timeslot metrics output file")
+    private String metricsFile = "log/broker.metrics";
+
+    @ConfigurableValue(valueType = "Boolean", description = "Emit Java Flight Recorder events")
+    private boolean flightRecorderEvents = false;
+
+    private BufferedWriter out;
+
+    // wall-clock length of a timeslot, in ms
+    private long timeslotBudget = 5000;
+
+    private int currentTimeslot = -1;
+
+    private long activationStart = 0;
+
+    private ActivationEvent activationEvent;
+
+    private long[] phaseNanos = new long[PHASES.length];
+
+    private LatencyHistogram activations = new LatencyHistogram();
+
+    private LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+
+    private Map<Class<?>, MessageStats> messages = new HashMap<>();
+
+    private long timeslotMessages = 0;
+
+    private long timeslotHandlerNanos = 0;
+
+    private int lastTimeslot = -1;
+
+    private long lastActivationNanos = 0;
+
+    private double maxBudgetUsed = 0.0;
+
+    public MetricsService() {
+        super();
+        for (int i = 0; i < PHASES.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public synchronized void initialize(BrokerContext broker) {
+        if (propertiesService != null) {
+            propertiesService.configureMe(this);
+        }
+        FlightEvents.setEnabled(flightRecorderEvents);
+        closeFile();
+        if (!metricsEnabled) {
+            return;
+        }
+        try {
+            File file = new File(metricsFile);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            out = new BufferedWriter(new FileWriter(file, false));
+            out.write("timeslot,activation_us,budget_pct,features_us,price_us,energy_us,strategy_us,send_us,"
+                    + "messages,handler_us\n");
+        } catch (IOException e) {
+            log.error("Cannot open metrics file {}: {}", metricsFile, e.toString());
+        }
+        registerMBean();
+    }
+
+    public boolean isEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Sets the wall-clock time available to each timeslot, in ms.
+     */
+    public synchronized void setTimeslotBudget(long millis) {
+        if (millis > 0) {
+            timeslotBudget = millis;
+        }
+    }
+
+    /**
+     * Returns a start time for stop() or handled(), or 0 when disabled.
+     */
+    public long start() {
+        return metricsEnabled || FlightEvents.isEnabled() ? System.nanoTime() : 0L;
+    }
+
+    public synchronized void beginActivation(int timeslot) {
+        currentTimeslot = timeslot;
+        activationEvent = FlightEvents.beginActivation(timeslot, "market");
+        if (!metricsEnabled && activationEvent == null) {
+            return;
+        }
+        activationStart = System.nanoTime();
+        Arrays.fill(phaseNanos, 0L);
+    }
+
+    public synchronized void stop(ActivationPhase phase, long start) {
+        if (start == 0L) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        phaseNanos[phase.ordinal()] += nanos;
+        FlightEvents.phase(currentTimeslot, phase, nanos);
+    }
+
+    /**
+     * Records one call of the handler for the given message type.
+     */
+    public synchronized void handled(Class<?> type, long start) {
+        if (!metricsEnabled || start == 0L) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        MessageStats stats = messages.get(type);
+        if (stats == null) {
+            stats = new MessageStats();
+            messages.put(type, stats);
+        }
+        stats.count++;
+        stats.histogram.record(nanos);
+        timeslotMessages++;
+        timeslotHandlerNanos += nanos;
+    }
+
+    public synchronized void endActivation() {
+        FlightEvents.endActivation(activationEvent);
+        activationEvent = null;
+        if (activationStart == 0L) {
+            return;
+        }
+        long total = System.nanoTime() - activationStart;
+        activationStart = 0L;
+        long measured = 0;
+        for (ActivationPhase phase : PHASES) {
+            if (phase != ActivationPhase.STRATEGY) {
+                measured += phaseNanos[phase.ordinal()];
+            }
+        }
+        phaseNanos[ActivationPhase.STRATEGY.ordinal()] = Math.max(0L, total - measured);
+        FlightEvents.phase(currentTimeslot, ActivationPhase.STRATEGY, phaseNanos[ActivationPhase.STRATEGY.ordinal()]);
+        if (!metricsEnabled) {
+            return;
+        }
+        activations.record(total);
+        for (int i = 0; i < PHASES.length; i++) {
+            phases[i].record(phaseNanos[i]);
+        }
+        double budgetUsed = budgetPercent(total);
+        maxBudgetUsed = Math.max(maxBudgetUsed, budgetUsed);
+        lastTimeslot = currentTimeslot;
+        lastActivationNanos = total;
+        if (budgetUsed > 50.0) {
+            log.warn("Activation for timeslot {} used {}% of the budget", currentTimeslot, (int) budgetUsed);
+        }
+        writeLine(total, budgetUsed);
+        timeslotMessages = 0;
+        timeslotHandlerNanos = 0;
+    }
+
+    private void writeLine(long total, double budgetUsed) {
+        if (out == null) {
+            return;
+        }
+        try {
+            StringBuilder sb = new StringBuilder(96);
+            sb.append(currentTimeslot).append(',').append(total / 1000).append(',')
+                    .append(Math.round(budgetUsed * 10.0) / 10.0);
+            for (int i = 0; i < PHASES.length; i++) {
+                sb.append(',').append(phaseNanos[i] / 1000);
+            }
+            sb.append(',').append(timeslotMessages).append(',').append(timeslotHandlerNanos / 1000).append('\n');
+            out.write(sb.toString());
+            out.flush();
+        } catch (IOException e) {
+            log.error("Cannot write metrics: {}", e.toString());
+            closeFile();
+        }
+    }
+
+    private double budgetPercent(long nanos) {
+        return 100.0 * nanos / (timeslotBudget * 1000000.0);
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("Cannot close metrics file: {}", e.toString());
+            }
+            out = null;
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.powertac.samplebroker:type=BrokerMetrics");
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            log.warn("Cannot register metrics MBean: {}", e.toString());
+        }
+    }
+
+    // ------------------- JMX ---------------------
+
+    @Override
+    public synchronized int getLastTimeslot() {
+        return lastTimeslot;
+    }
+
+    @Override
+    public synchronized long getTimeslotBudgetMillis() {
+        return timeslotBudget;
+    }
+
+    @Override
+    public synchronized double getLastActivationMillis() {
+        return lastActivationNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getLastBudgetUsedPercent() {
+        return budgetPercent(lastActivationNanos);
+    }
+
+    @Override
+    public synchronized double getMaxBudgetUsedPercent() {
+        return maxBudgetUsed;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getActivationMillis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        result.put("p50", activations.getValueAtPercentile(50.0) / 1e6);
+        result.put("p90", activations.getValueAtPercentile(90.0) / 1e6);
+        result.put("p99", activations.getValueAtPercentile(99.0) / 1e6);
+        result.put("max", activations.getMax() / 1e6);
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getPhaseP99Millis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < PHASES.length; i++) {
+            result.put(PHASES[i].name(), phases[i].getValueAtPercentile(99.0) / 1e6);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getMessageCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, MessageStats> entry : messages.entrySet()) {
+            result.put(entry.getKey().getSimpleName(), entry.getValue().count);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getMessageMeanMicros() {
+        Map<String, Double> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, MessageStats> entry : messages.entrySet()) {
+            result.put(entry.getKey().getSimpleName(), entry.getValue().histogram.getMean() / 1e3);
+        }
+        return result;
+    }
+
+    private static class MessageStats {
+        long count;
+        LatencyHistogram histogram = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,25 @@
+package org.powertac.samplebroker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.powertac.samplebroker.OrderSubmission")
+@Label("Order Submission")
+@Category({ "Power TAC", "Broker" })
+@Description("Wholesale order sent to the server")
+public class OrderSubmissionEvent extends jdk.jfr.Event {
+
+    @Label("Current Timeslot")
+    int currentTimeslot;
+
+    @Label("Timeslot")
+    int timeslot;
+
+    @Label("MWh")
+    double mWh;
+
+    @Label("Limit Price")
+    double limitPrice;
+}
@@ -0,0 +1,28 @@
+package org.powertac.samplebroker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Time spent in one ActivationPhase, committed when the phase ends. Phases run
+ * more than once per activation add up to the activation's phase total.
+ */
+@Name("org.powertac.samplebroker.ActivationPhase")
+@Label("Activation Phase")
+@Category({ "Power TAC", "Broker" })
+@Description("End of one phase of a market activation")
+public class PhaseEvent extends jdk.jfr.Event {
+
+    @Label("Timeslot")
+    int timeslot;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Phase Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long phaseDuration;
+}
@@ -0,0 +1,31 @@
+package org.powertac.samplebroker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans one request to the prediction service; the event duration is the
+ * request latency.
+ */
+@Name("org.powertac.samplebroker.PredictionRequest")
+@Label("Prediction Request")
+@Category({ "Power TAC", "Broker" })
+@Description("Request to the prediction service")
+public class PredictionRequestEvent extends jdk.jfr.Event {
+
+    @Label("Timeslot")
+    int timeslot;
+
+    @Label("URL")
+    String url;
+
+    @Label("Payload Size")
+    @DataAmount
+    long payloadBytes;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,31 @@
+package org.powertac.samplebroker.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.powertac.samplebroker.TariffPublication")
+@Label("Tariff Publication")
+@Category({ "Power TAC", "Broker" })
+@Description("Tariff specification sent to the server")
+public class TariffPublicationEvent extends jdk.jfr.Event {
+
+    @Label("Tariff Id")
+    long tariffId;
+
+    @Label("Power Type")
+    String powerType;
+
+    @Label("Origin")
+    String origin;
+
+    @Label("Periodic Payment")
+    double periodicPayment;
+
+    @Label("Signup Payment")
+    double signupPayment;
+
+    @Label("Early Withdraw Payment")
+    double earlyWithdrawPayment;
+}
@@ -0,0 +1,58 @@
+package org.powertac.samplebroker.replay;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.powertac.common.XMLMessageConverter;
+
+/**
+ * Reads a captured message journal: the XML messages the server sent to the
+ * broker, one message per line, in arrival order. Blank lines and lines
+ * starting with '#' are skipped.
+ */
+public class MessageJournal implements Closeable {
+
+    private BufferedReader reader;
+
+    private XMLMessageConverter converter;
+
+    private long lineNumber = 0;
+
+    public MessageJournal(Path path, XMLMessageConverter converter) throws IOException {
+        this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        this.converter = converter;
+    }
+
+    /**
+     * Returns the next message, or null at the end of the journal.
+     */
+    public Object next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Object message = converter.fromXML(line);
+            if (message == null) {
+                throw new IOException("Cannot decode journal line " + lineNumber);
+            }
+            return message;
+        }
+        return null;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
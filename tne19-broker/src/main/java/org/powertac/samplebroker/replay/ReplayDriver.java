@@ -0,0 +1,225 @@
+package org.powertac.samplebroker.replay;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.TimeService;
+import org.powertac.common.msg.TimeslotComplete;
+import org.powertac.samplebroker.interfaces.Activatable;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+
+/**
+ * Drives the broker's services from recorded messages, without JMS and
+ * without waiting for wall-clock timeslots. Each message is passed to every
+ * service with a matching handleMessage method, in the order the services
+ * were given; a TimeslotComplete then activates the Activatable services for
+ * that timeslot. Messages the broker sends are captured by a ReplayRecorder.
+ */
+public class ReplayDriver {
+    static private Logger log = LogManager.getLogger(ReplayDriver.class);
+
+    private List<Object> services;
+
+    private TimeService timeService;
+
+    private ReplayRecorder recorder;
+
+    private BrokerContext brokerContext;
+
+    private Map<Class<?>, List<Handler>> handlers = new HashMap<>();
+
+    private long baseTime = 0;
+
+    private long timeslotDuration = 3600000;
+
+    private int currentTimeslot = 0;
+
+    private long messageCount = 0;
+
+    private int activations = 0;
+
+    public ReplayDriver(Broker broker, int usageRecordLength, List<Object> services, TimeService timeService,
+            ReplayRecorder recorder) {
+        this.services = services;
+        this.timeService = timeService;
+        this.recorder = recorder;
+        this.brokerContext = createBrokerContext(broker, usageRecordLength);
+    }
+
+    public BrokerContext getBrokerContext() {
+        return brokerContext;
+    }
+
+    /**
+     * Per-game initialization of the Initializable services.
+     */
+    public void initialize() {
+        for (Object service : services) {
+            if (service instanceof Initializable) {
+                ((Initializable) service).initialize(brokerContext);
+            }
+        }
+    }
+
+    /**
+     * Replays the whole journal and returns the number of messages handled.
+     */
+    public long replay(MessageJournal journal) throws IOException {
+        Object message;
+        while ((message = journal.next()) != null) {
+            dispatch(message);
+        }
+        return messageCount;
+    }
+
+    /**
+     * Delivers one message to the services, then activates them if the message
+     * completes a timeslot.
+     */
+    public void dispatch(Object message) {
+        messageCount++;
+        if (message instanceof Competition) {
+            Competition competition = (Competition) message;
+            Competition.setCurrent(competition);
+            baseTime = competition.getSimulationBaseTime().getMillis();
+            timeslotDuration = competition.getTimeslotDuration();
+            if (timeService != null) {
+                timeService.setClockParameters(competition);
+                timeService.setCurrentTime(new Instant(baseTime));
+            }
+        }
+        for (Handler handler : findHandlers(message.getClass())) {
+            handler.invoke(message);
+        }
+        if (message instanceof TimeslotComplete) {
+            activate(((TimeslotComplete) message).getTimeslotIndex());
+        }
+    }
+
+    private void activate(int timeslotIndex) {
+        currentTimeslot = timeslotIndex;
+        if (timeService != null) {
+            timeService.setCurrentTime(new Instant(baseTime + timeslotIndex * timeslotDuration));
+        }
+        for (Object service : services) {
+            if (service instanceof Activatable) {
+                ((Activatable) service).activate(timeslotIndex);
+            }
+        }
+        activations++;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public int getActivations() {
+        return activations;
+    }
+
+    private List<Handler> findHandlers(Class<?> messageClass) {
+        List<Handler> result = handlers.get(messageClass);
+        if (result == null) {
+            result = new ArrayList<>();
+            for (Object service : services) {
+                Method method = findHandlerMethod(service.getClass(), messageClass);
+                if (method != null) {
+                    result.add(new Handler(service, method));
+                }
+            }
+            handlers.put(messageClass, result);
+        }
+        return result;
+    }
+
+    // prefers an exact parameter match, as the broker's own dispatcher does
+    private static Method findHandlerMethod(Class<?> serviceClass, Class<?> messageClass) {
+        Method candidate = null;
+        for (Method method : serviceClass.getMethods()) {
+            if (!"handleMessage".equals(method.getName()) || method.getParameterTypes().length != 1) {
+                continue;
+            }
+            Class<?> parameter = method.getParameterTypes()[0];
+            if (parameter == messageClass) {
+                return method;
+            }
+            if (parameter.isAssignableFrom(messageClass) && parameter != Object.class) {
+                candidate = method;
+            }
+        }
+        return candidate;
+    }
+
+    private BrokerContext createBrokerContext(final Broker broker, final int usageRecordLength) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getBroker":
+                    return broker;
+                case "getBrokerUsername":
+                    return broker.getUsername();
+                case "getUsageRecordLength":
+                    return usageRecordLength;
+                case "sendMessage":
+                    recorder.record(currentTimeslot, args[0]);
+                    return null;
+                case "toString":
+                    return "ReplayBrokerContext(" + broker.getUsername() + ")";
+                default:
+                    log.debug("Ignoring {} during replay", method.getName());
+                    return defaultValue(method.getReturnType());
+                }
+            }
+        };
+        return (BrokerContext) Proxy.newProxyInstance(BrokerContext.class.getClassLoader(),
+                new Class<?>[] { BrokerContext.class }, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+
+    private static class Handler {
+        Object service;
+        Method method;
+
+        Handler(Object service, Method method) {
+            this.service = service;
+            this.method = method;
+        }
+
+        void invoke(Object message) {
+            try {
+                method.invoke(service, message);
+            } catch (InvocationTargetException e) {
+                log.error("{} failed on {}", service.getClass().getSimpleName(),
+                        message.getClass().getSimpleName(), e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
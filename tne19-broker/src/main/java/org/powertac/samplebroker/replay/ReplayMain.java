@@ -0,0 +1,91 @@
+package org.powertac.samplebroker.replay;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.powertac.common.Broker;
+import org.powertac.common.TimeService;
+import org.powertac.common.XMLMessageConverter;
+import org.powertac.common.repo.BrokerRepo;
+import org.powertac.common.repo.CustomerRepo;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Replays a captured message journal through the broker's services and writes
+ * the orders and tariffs they emit. Usage:
+ *
+ * <pre>
+ * ReplayMain journal.xml [--config broker.properties] [--username tne19] [--out replay.csv]
+ * </pre>
+ */
+public class ReplayMain {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayMain journal [--config file] [--username name] [--out file]");
+            System.exit(1);
+        }
+        String journalFile = args[0];
+        String config = null;
+        String username = "tne19";
+        String outFile = "replay.csv";
+        for (int i = 1; i < args.length - 1; i += 2) {
+            if ("--config".equals(args[i])) {
+                config = args[i + 1];
+            } else if ("--username".equals(args[i])) {
+                username = args[i + 1];
+            } else if ("--out".equals(args[i])) {
+                outFile = args[i + 1];
+            }
+        }
+
+        AbstractApplicationContext context = new ClassPathXmlApplicationContext("broker.xml");
+        context.registerShutdownHook();
+        BrokerPropertiesService propertiesService = context.getBean(BrokerPropertiesService.class);
+        if (config != null) {
+            propertiesService.setUserConfig(new File(config));
+        }
+        BrokerRepo brokerRepo = context.getBean(BrokerRepo.class);
+        Broker broker = new Broker(username);
+        brokerRepo.add(broker);
+
+        List<Object> services = new ArrayList<>();
+        services.add(new ReplayRepoUpdater(brokerRepo, context.getBean(CustomerRepo.class)));
+        List<Initializable> brokerServices = new ArrayList<>();
+        for (Initializable service : context.getBeansOfType(Initializable.class).values()) {
+            if (!service.getClass().getName().startsWith("org.powertac.samplebroker.core.")) {
+                brokerServices.add(service);
+            }
+        }
+        brokerServices.sort(Comparator.comparing(service -> service.getClass().getName()));
+        services.addAll(brokerServices);
+
+        ReplayRecorder recorder = new ReplayRecorder();
+        ReplayDriver driver = new ReplayDriver(broker, 7 * 24, services, context.getBean(TimeService.class),
+                recorder);
+        driver.initialize();
+
+        long start = System.nanoTime();
+        try (MessageJournal journal = new MessageJournal(Paths.get(journalFile),
+                context.getBean(XMLMessageConverter.class))) {
+            driver.replay(journal);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        try (Writer out = new FileWriter(outFile)) {
+            recorder.write(out);
+        }
+        System.out.println("Replayed " + driver.getMessageCount() + " messages, " + driver.getActivations()
+                + " timeslots in " + elapsed + " ms; " + recorder.getOrderCount() + " orders, "
+                + recorder.getTariffCount() + " tariffs written to " + outFile);
+        context.close();
+    }
+}
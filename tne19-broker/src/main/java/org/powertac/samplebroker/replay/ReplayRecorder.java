@@ -0,0 +1,75 @@
+package org.powertac.samplebroker.replay;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.powertac.common.Order;
+import org.powertac.common.Rate;
+import org.powertac.common.TariffSpecification;
+
+/**
+ * Records the messages the broker sends during a replay, tagged with the
+ * timeslot in which they were sent. Orders and tariffs are written as CSV so
+ * two replays of the same journal can be compared line by line.
+ */
+public class ReplayRecorder {
+
+    private List<Object> messages = new ArrayList<>();
+
+    private List<Integer> timeslots = new ArrayList<>();
+
+    private int orders = 0;
+
+    private int tariffs = 0;
+
+    public synchronized void record(int timeslot, Object message) {
+        messages.add(message);
+        timeslots.add(timeslot);
+        if (message instanceof Order) {
+            orders++;
+        } else if (message instanceof TariffSpecification) {
+            tariffs++;
+        }
+    }
+
+    public synchronized List<Object> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    public synchronized int getOrderCount() {
+        return orders;
+    }
+
+    public synchronized int getTariffCount() {
+        return tariffs;
+    }
+
+    /**
+     * Writes one line per order or tariff:
+     * timeslot,ORDER,deliveryTimeslot,mWh,limitPrice or
+     * timeslot,TARIFF,powerType,periodicPayment,signupPayment,earlyWithdrawPayment,rates
+     */
+    public synchronized void write(Writer out) throws IOException {
+        out.write("timeslot,type,fields\n");
+        for (int i = 0; i < messages.size(); i++) {
+            Object message = messages.get(i);
+            if (message instanceof Order) {
+                Order order = (Order) message;
+                out.write(timeslots.get(i) + ",ORDER," + order.getTimeslotIndex() + "," + order.getMWh() + ","
+                        + order.getLimitPrice() + "\n");
+            } else if (message instanceof TariffSpecification) {
+                TariffSpecification spec = (TariffSpecification) message;
+                StringBuilder sb = new StringBuilder();
+                sb.append(timeslots.get(i)).append(",TARIFF,").append(spec.getPowerType()).append(',')
+                        .append(spec.getPeriodicPayment()).append(',').append(spec.getSignupPayment()).append(',')
+                        .append(spec.getEarlyWithdrawPayment());
+                for (Rate rate : spec.getRates()) {
+                    sb.append(',').append(rate.getValue());
+                }
+                out.write(sb.append('\n').toString());
+            }
+        }
+    }
+}
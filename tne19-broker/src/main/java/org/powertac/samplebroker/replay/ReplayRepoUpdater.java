@@ -0,0 +1,35 @@
+package org.powertac.samplebroker.replay;
+
+import org.powertac.common.Broker;
+import org.powertac.common.Competition;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.repo.BrokerRepo;
+import org.powertac.common.repo.CustomerRepo;
+
+/**
+ * Does the repo bookkeeping that the broker core normally performs when a
+ * game starts, so the services find customers and competing brokers during
+ * a replay.
+ */
+public class ReplayRepoUpdater {
+
+    private BrokerRepo brokerRepo;
+
+    private CustomerRepo customerRepo;
+
+    public ReplayRepoUpdater(BrokerRepo brokerRepo, CustomerRepo customerRepo) {
+        this.brokerRepo = brokerRepo;
+        this.customerRepo = customerRepo;
+    }
+
+    public void handleMessage(Competition comp) {
+        for (String username : comp.getBrokers()) {
+            if (brokerRepo.findByUsername(username) == null) {
+                brokerRepo.add(new Broker(username));
+            }
+        }
+        for (CustomerInfo customer : comp.getCustomers()) {
+            customerRepo.add(customer);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.powertac.samplebroker.repos;
+
+/**
+ * Rolling record of what balancing has cost us, by hour of day and by sign
+ * of the imbalance. Each of the 48 buckets keeps the last window
+ * BalancingTransactions in a ring with running sums, so adding one and
+ * reading the volume-weighted charge per MWh are both O(1). Another pair of
+ * rings, window * 24 deep, covers all hours, for buckets with no history
+ * yet. The sums are recomputed whenever a ring wraps, so subtracting
+ * evicted values cannot drift.
+ */
+public class BalancingCostRepo {
+
+    public static final int HOURS = 24;
+
+    // buckets 0..47 by hour * 2 + side, then all hours by side
+    private static final int BUCKETS = 2 * HOURS + 2;
+
+    private static final int SHORTAGE = 0;
+
+    private static final int SURPLUS = 1;
+
+    private final int[] depth = new int[BUCKETS];
+
+    private final int[] offset = new int[BUCKETS];
+
+    private final double[] mWh;
+
+    private final double[] cost;
+
+    private final int[] next = new int[BUCKETS];
+
+    private final int[] size = new int[BUCKETS];
+
+    private final double[] sumMWh = new double[BUCKETS];
+
+    private final double[] sumCost = new double[BUCKETS];
+
+    private long count = 0;
+
+    /**
+     * A repo keeping the last window transactions of every hour and sign.
+     */
+    public BalancingCostRepo(int window) {
+        int total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            depth[b] = b < 2 * HOURS ? window : window * HOURS;
+            offset[b] = total;
+            total += depth[b];
+        }
+        mWh = new double[total];
+        cost = new double[total];
+    }
+
+    /**
+     * Records the balancing of timeslot: kWh is our imbalance, negative when
+     * short, and charge what we were credited, negative when we paid.
+     */
+    public synchronized void add(int timeslot, double kWh, double charge) {
+        if (kWh == 0.0 || Double.isNaN(kWh) || Double.isNaN(charge) || timeslot < 0) {
+            return;
+        }
+        int side = kWh < 0.0 ? SHORTAGE : SURPLUS;
+        double amount = Math.abs(kWh) / 1000.0;
+        push((timeslot % HOURS) * 2 + side, amount, -charge);
+        push(2 * HOURS + side, amount, -charge);
+        count++;
+    }
+
+    private void push(int bucket, double amount, double paid) {
+        int k = offset[bucket] + next[bucket];
+        if (size[bucket] == depth[bucket]) {
+            sumMWh[bucket] -= mWh[k];
+            sumCost[bucket] -= cost[k];
+        } else {
+            size[bucket]++;
+        }
+        mWh[k] = amount;
+        cost[k] = paid;
+        sumMWh[bucket] += amount;
+        sumCost[bucket] += paid;
+        next[bucket]++;
+        if (next[bucket] == depth[bucket]) {
+            next[bucket] = 0;
+            resum(bucket);
+        }
+    }
+
+    private void resum(int bucket) {
+        double totalMWh = 0.0;
+        double totalCost = 0.0;
+        for (int k = offset[bucket]; k < offset[bucket] + size[bucket]; k++) {
+            totalMWh += mWh[k];
+            totalCost += cost[k];
+        }
+        sumMWh[bucket] = totalMWh;
+        sumCost[bucket] = totalCost;
+    }
+
+    /**
+     * Returns what an imbalance of mWh in the timeslot's hour has cost per
+     * MWh, negative mWh being a shortage: positive when we paid, negative
+     * when we were paid. Falls back to all hours when the hour has no
+     * history, and is NaN when there is none at all.
+     */
+    public synchronized double costPerMWh(int timeslot, double mWh) {
+        int side = mWh < 0.0 ? SHORTAGE : SURPLUS;
+        double cost = mean((Math.max(timeslot, 0) % HOURS) * 2 + side);
+        return Double.isNaN(cost) ? mean(2 * HOURS + side) : cost;
+    }
+
+    private double mean(int bucket) {
+        return size[bucket] == 0 || sumMWh[bucket] <= 0.0 ? Double.NaN : sumCost[bucket] / sumMWh[bucket];
+    }
+
+    /**
+     * Number of transactions recorded, including those already evicted.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+}
@@ -8,6 +8,18 @@ import org.powertac.samplebroker.domain.PartialCleared;
 public class ClearedFuturesRepo implements IRepo<Integer, PartialCleared> {
     private static HashMap<Integer, PartialCleared> data = new HashMap<>();
 
+    /**
+     * Makes room for expected entries, so the map does not rehash while the
+     * game is played.
+     */
+    public static synchronized void presize(int expected) {
+        if (expected > data.size()) {
+            HashMap<Integer, PartialCleared> sized = new HashMap<>(expected * 4 / 3 + 1);
+            sized.putAll(data);
+            data = sized;
+        }
+    }
+
     public synchronized void updateFutureTimeslot(Integer timeslot, Double quantity, Double price) {
         PartialCleared currentValue = data.get(timeslot);
         if(currentValue != null) {
@@ -7,6 +7,18 @@ import org.powertac.samplebroker.domain.Cleared;
 public class ClearedRepo implements IRepo<Integer, Cleared> {
     private static HashMap<Integer, Cleared> data = new HashMap<>();
 
+    /**
+     * Makes room for expected entries, so the map does not rehash while the
+     * game is played.
+     */
+    public static synchronized void presize(int expected) {
+        if (expected > data.size()) {
+            HashMap<Integer, Cleared> sized = new HashMap<>(expected * 4 / 3 + 1);
+            sized.putAll(data);
+            data = sized;
+        }
+    }
+
     @Override
     public void save(Integer key, Cleared value) {
         data.put(key, value);
@@ -0,0 +1,145 @@
+package org.powertac.samplebroker.repos;
+
+import java.util.Arrays;
+
+/**
+ * Clearing prices by hour of day and lead, the number of auctions between
+ * the one that cleared and delivery (1 for the last auction, 24 for the
+ * first). Each of the 24 x 24 cells keeps its trade count, volume, VWAP and
+ * volume-weighted variance in flat primitive arrays; a ClearedTrade updates
+ * one cell in O(1), with a weighted Welford step so the variance cannot go
+ * negative from cancellation.
+ *
+ * For each hour the cheapest lead up to every lead is kept in a table that
+ * is rebuilt, in O(24), on the first lookup after the hour changed, so
+ * cheapestLead is a table read.
+ */
+public class ClearingStatsRepo {
+
+    public static final int HOURS = 24;
+
+    public static final int HORIZON = 24;
+
+    private final int minTrades;
+
+    // cells by hour * HORIZON + lead - 1
+    private final int[] count = new int[HOURS * HORIZON];
+
+    private final double[] volume = new double[HOURS * HORIZON];
+
+    private final double[] mean = new double[HOURS * HORIZON];
+
+    private final double[] squares = new double[HOURS * HORIZON];
+
+    // cheapest lead in 1..maxLead, by hour * HORIZON + maxLead - 1, -1 for none
+    private final int[] cheapest = new int[HOURS * HORIZON];
+
+    private final boolean[] stale = new boolean[HOURS];
+
+    private long trades = 0;
+
+    /**
+     * A repo that trusts a cell's VWAP once it has minTrades trades.
+     */
+    public ClearingStatsRepo(int minTrades) {
+        this.minTrades = Math.max(minTrades, 1);
+        Arrays.fill(cheapest, -1);
+    }
+
+    /**
+     * Records a trade of mWh at price for timeslot, cleared in the auction
+     * run at the end of timeslot origin. Trades outside the 24 open
+     * timeslots, or of no volume, are ignored.
+     */
+    public synchronized void add(int timeslot, int origin, double mWh, double price) {
+        int lead = timeslot - origin;
+        if (lead < 1 || lead > HORIZON || timeslot < 0 || !(mWh > 0.0) || Double.isNaN(price)) {
+            return;
+        }
+        int hour = timeslot % HOURS;
+        int k = hour * HORIZON + lead - 1;
+        count[k]++;
+        volume[k] += mWh;
+        double delta = price - mean[k];
+        mean[k] += delta * mWh / volume[k];
+        squares[k] += mWh * delta * (price - mean[k]);
+        stale[hour] = true;
+        trades++;
+    }
+
+    private static int cell(int timeslot, int lead) {
+        if (lead < 1 || lead > HORIZON) {
+            throw new IllegalArgumentException("lead " + lead + " outside 1.." + HORIZON);
+        }
+        return (Math.max(timeslot, 0) % HOURS) * HORIZON + lead - 1;
+    }
+
+    /**
+     * Number of trades recorded for the timeslot's hour at lead.
+     */
+    public synchronized int count(int timeslot, int lead) {
+        return count[cell(timeslot, lead)];
+    }
+
+    /**
+     * MWh traded for the timeslot's hour at lead.
+     */
+    public synchronized double volume(int timeslot, int lead) {
+        return volume[cell(timeslot, lead)];
+    }
+
+    /**
+     * Volume-weighted mean clearing price for the timeslot's hour at lead,
+     * NaN when nothing has cleared there.
+     */
+    public synchronized double vwap(int timeslot, int lead) {
+        int k = cell(timeslot, lead);
+        return count[k] == 0 ? Double.NaN : mean[k];
+    }
+
+    /**
+     * Volume-weighted variance of the clearing price for the timeslot's hour
+     * at lead, NaN when nothing has cleared there.
+     */
+    public synchronized double variance(int timeslot, int lead) {
+        int k = cell(timeslot, lead);
+        return count[k] == 0 ? Double.NaN : squares[k] / volume[k];
+    }
+
+    /**
+     * Returns the lead, 1 to maxLead, at which the timeslot's hour has the
+     * lowest VWAP among cells with at least minTrades trades, or -1 when no
+     * cell has that many.
+     */
+    public synchronized int cheapestLead(int timeslot, int maxLead) {
+        if (maxLead < 1) {
+            return -1;
+        }
+        int hour = Math.max(timeslot, 0) % HOURS;
+        if (stale[hour]) {
+            rebuild(hour);
+        }
+        return cheapest[hour * HORIZON + Math.min(maxLead, HORIZON) - 1];
+    }
+
+    // Running minimum of the trusted VWAPs over the hour's leads
+    private void rebuild(int hour) {
+        int base = hour * HORIZON;
+        int best = -1;
+        for (int lead = 1; lead <= HORIZON; lead++) {
+            int k = base + lead - 1;
+            if (count[k] >= minTrades && (best < 0 || mean[k] < mean[base + best - 1])) {
+                best = lead;
+            }
+            cheapest[k] = best;
+        }
+        stale[hour] = false;
+    }
+
+    /**
+     * Number of trades recorded.
+     */
+    public synchronized long getCount() {
+        return trades;
+    }
+}
@@ -0,0 +1,227 @@
+package org.powertac.samplebroker.repos;
+
+import java.util.Arrays;
+
+/**
+ * How our own limit prices turn into fills, by side, lead and limit ratio:
+ * the limit price as a multiple of the price predicted when the order was
+ * sent (so 1.1 is a buy bidding 10% over the prediction, or a sell asking
+ * 10% over it). Each bucket keeps the orders sent, the MWh offered and
+ * filled, and the price improvement on the filled MWh, what we would have
+ * paid or been paid at the limit price less the clearing price, in flat
+ * primitive arrays.
+ *
+ * Orders are collected for one auction round with submitted(), and the
+ * fills of the round with filled(). MarketTransactions do not name their
+ * order, so settle() joins them by the auction's rule: each timeslot clears
+ * at one price, orders priced better than it fill in full and orders at the
+ * price share what is left. Orders with no fill expire unfilled.
+ */
+public class FillRateRepo {
+
+    public static final int HORIZON = 24;
+
+    public static final double RATIO_MIN = 0.5;
+
+    public static final double RATIO_STEP = 0.05;
+
+    public static final int BINS = 31;
+
+    private static final int BUY = 0;
+
+    private static final int SELL = 1;
+
+    private static final int BUCKETS = 2 * HORIZON * BINS;
+
+    private static final double EPSILON = 1e-6;
+
+    private final int minOrders;
+
+    private final int[] orders = new int[BUCKETS];
+
+    private final double[] offeredMWh = new double[BUCKETS];
+
+    private final double[] filledMWh = new double[BUCKETS];
+
+    private final double[] improvement = new double[BUCKETS];
+
+    // orders of the open round
+    private int origin = -1;
+
+    private int pending = 0;
+
+    private int[] pendingLead = new int[64];
+
+    private double[] pendingMWh = new double[64];
+
+    private double[] pendingLimit = new double[64];
+
+    private int[] pendingBucket = new int[64];
+
+    // fills of the open round, by side * (HORIZON + 1) + lead
+    private final double[] roundMWh = new double[2 * (HORIZON + 1)];
+
+    private final double[] roundPrice = new double[2 * (HORIZON + 1)];
+
+    private long settled = 0;
+
+    /**
+     * A repo that trusts a bucket's fill rate once it has minOrders orders.
+     */
+    public FillRateRepo(int minOrders) {
+        this.minOrders = Math.max(minOrders, 1);
+        Arrays.fill(roundPrice, Double.NaN);
+    }
+
+    /**
+     * Records an order sent in origin for timeslot: positive mWh buys, and
+     * limitPrice is negative for buys. predictedPrice is the clearing price
+     * predicted for the timeslot when the order was sent; orders with no
+     * positive prediction are not tracked. Settles the previous round when
+     * origin has moved on.
+     */
+    public synchronized void submitted(int origin, int timeslot, double mWh, double limitPrice,
+            double predictedPrice) {
+        if (origin != this.origin) {
+            settle();
+            this.origin = origin;
+        }
+        int lead = timeslot - origin;
+        if (lead < 1 || lead > HORIZON || mWh == 0.0 || Double.isNaN(limitPrice) || !(predictedPrice > 0.0)) {
+            return;
+        }
+        if (pending == pendingLead.length) {
+            int size = pending * 2;
+            pendingLead = Arrays.copyOf(pendingLead, size);
+            pendingMWh = Arrays.copyOf(pendingMWh, size);
+            pendingLimit = Arrays.copyOf(pendingLimit, size);
+            pendingBucket = Arrays.copyOf(pendingBucket, size);
+        }
+        pendingLead[pending] = lead;
+        pendingMWh[pending] = mWh;
+        pendingLimit[pending] = limitPrice;
+        pendingBucket[pending] = bucket(lead, mWh, Math.abs(limitPrice) / predictedPrice);
+        pending++;
+    }
+
+    /**
+     * Records a MarketTransaction of the open round: mWh we bought
+     * (positive) or sold for timeslot at price.
+     */
+    public synchronized void filled(int timeslot, double mWh, double price) {
+        int lead = timeslot - origin;
+        if (origin < 0 || lead < 1 || lead > HORIZON || mWh == 0.0) {
+            return;
+        }
+        int k = (mWh > 0.0 ? BUY : SELL) * (HORIZON + 1) + lead;
+        roundMWh[k] += Math.abs(mWh);
+        roundPrice[k] = Math.abs(price);
+    }
+
+    /**
+     * Joins the open round's orders with its fills and adds them to the
+     * buckets. Call once the round's MarketTransactions are in, before the
+     * next round's orders.
+     */
+    public synchronized void settle() {
+        for (int n = 0; n < pending; n++) {
+            orders[pendingBucket[n]]++;
+            offeredMWh[pendingBucket[n]] += Math.abs(pendingMWh[n]);
+        }
+        // better priced orders first, then those at the clearing price
+        allocate(true);
+        allocate(false);
+        settled += pending;
+        pending = 0;
+        origin = -1;
+        Arrays.fill(roundMWh, 0.0);
+        Arrays.fill(roundPrice, Double.NaN);
+    }
+
+    private void allocate(boolean better) {
+        for (int n = 0; n < pending; n++) {
+            int side = pendingMWh[n] > 0.0 ? BUY : SELL;
+            int k = side * (HORIZON + 1) + pendingLead[n];
+            double price = roundPrice[k];
+            if (roundMWh[k] <= 0.0 || Double.isNaN(price)) {
+                continue;
+            }
+            double limit = Math.abs(pendingLimit[n]);
+            double gain = side == BUY ? limit - price : price - limit;
+            if (better ? gain <= EPSILON * price : Math.abs(gain) > EPSILON * price) {
+                continue;
+            }
+            double mWh = Math.min(Math.abs(pendingMWh[n]), roundMWh[k]);
+            roundMWh[k] -= mWh;
+            filledMWh[pendingBucket[n]] += mWh;
+            improvement[pendingBucket[n]] += mWh * gain;
+        }
+    }
+
+    private static int bin(double ratio) {
+        int bin = (int) Math.round((ratio - RATIO_MIN) / RATIO_STEP);
+        return Math.max(0, Math.min(BINS - 1, bin));
+    }
+
+    private static int bucket(int lead, double mWh, double ratio) {
+        return ((mWh > 0.0 ? BUY : SELL) * HORIZON + lead - 1) * BINS + bin(ratio);
+    }
+
+    private static double ratio(int bin) {
+        return RATIO_MIN + bin * RATIO_STEP;
+    }
+
+    /**
+     * Share of the MWh offered at lead and ratio that filled, for buys when
+     * mWh is positive; NaN when nothing was offered there.
+     */
+    public synchronized double fillRate(int lead, double mWh, double ratio) {
+        int k = bucket(lead, mWh, ratio);
+        return offeredMWh[k] > 0.0 ? filledMWh[k] / offeredMWh[k] : Double.NaN;
+    }
+
+    /**
+     * Mean price improvement per filled MWh at lead and ratio; NaN when
+     * nothing filled there.
+     */
+    public synchronized double improvement(int lead, double mWh, double ratio) {
+        int k = bucket(lead, mWh, ratio);
+        return filledMWh[k] > 0.0 ? improvement[k] / filledMWh[k] : Double.NaN;
+    }
+
+    /**
+     * Orders sent at lead and ratio.
+     */
+    public synchronized int orders(int lead, double mWh, double ratio) {
+        return orders[bucket(lead, mWh, ratio)];
+    }
+
+    /**
+     * Returns the least aggressive limit ratio at lead, the lowest for buys
+     * and the highest for sells, whose bucket has at least minOrders orders
+     * and has filled at least target of the MWh offered. NaN when no bucket
+     * qualifies.
+     */
+    public synchronized double cheapestRatio(int lead, double mWh, double target) {
+        if (lead < 1 || lead > HORIZON) {
+            return Double.NaN;
+        }
+        int base = bucket(lead, mWh, RATIO_MIN);
+        boolean buy = mWh > 0.0;
+        for (int step = 0; step < BINS; step++) {
+            int bin = buy ? step : BINS - 1 - step;
+            int k = base + bin;
+            if (orders[k] >= minOrders && filledMWh[k] >= target * offeredMWh[k]) {
+                return ratio(bin);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Number of orders settled.
+     */
+    public synchronized long getCount() {
+        return settled;
+    }
+}
@@ -10,6 +10,18 @@ public class WeatherForecastRepo implements IRepo<PredictionKey, WeatherPredicti
 
     private static HashMap<PredictionKey, WeatherPrediction> data = new HashMap<>();
 
+    /**
+     * Makes room for expected entries, so the map does not rehash while the
+     * game is played.
+     */
+    public static synchronized void presize(int expected) {
+        if (expected > data.size()) {
+            HashMap<PredictionKey, WeatherPrediction> sized = new HashMap<>(expected * 4 / 3 + 1);
+            sized.putAll(data);
+            data = sized;
+        }
+    }
+
     @Override
     public void save(PredictionKey key, WeatherPrediction value) {
         data.put(key, value);
@@ -9,6 +9,18 @@ public class WeatherReportRepo implements IRepo<Integer, Weather> {
 
     private static HashMap<Integer, Weather> data = new HashMap<>();
 
+    /**
+     * Makes room for expected entries, so the map does not rehash while the
+     * game is played.
+     */
+    public static synchronized void presize(int expected) {
+        if (expected > data.size()) {
+            HashMap<Integer, Weather> sized = new HashMap<>(expected * 4 / 3 + 1);
+            sized.putAll(data);
+            data = sized;
+        }
+    }
+
     @Override
     public void save(Integer key, Weather value) {
         data.put(key, value);
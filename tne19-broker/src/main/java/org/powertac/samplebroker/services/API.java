@@ -1,96 +1,371 @@
 package org.powertac.samplebroker.services;
 
-import java.util.ArrayList;
-
-import com.google.gson.Gson;
-
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.powertac.samplebroker.domain.PartialCleared;
-import org.powertac.samplebroker.domain.PredictionKey;
-import org.powertac.samplebroker.domain.PredictionResponse;
-import org.powertac.samplebroker.repos.ClearedFuturesRepo;
-import org.powertac.samplebroker.repos.ClearedRepo;
-import org.powertac.samplebroker.repos.WeatherForecastRepo;
-import org.powertac.samplebroker.repos.WeatherReportRepo;
+import java.nio.file.Paths;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.powertac.samplebroker.interfaces.PredictorTransport;
+import org.powertac.samplebroker.metrics.ActivationPhase;
+import org.powertac.samplebroker.metrics.FlightEvents;
+import org.powertac.samplebroker.metrics.MetricsService;
+import org.powertac.samplebroker.metrics.PredictionRequestEvent;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 @Service
-public class API {
+public class API implements Initializable {
+    static private Logger log = LogManager.getLogger(API.class);
+
+    public static final int HORIZON = 24;
+
+    // model names, as in the prediction service URLs
+    public static final String ENERGY = "energy";
+
+    public static final String PRICE = "price";
+
+    private static final int ENERGY_MODEL = 0;
+
+    private static final int PRICE_MODEL = 1;
+
+    private static final String[] MODEL_NAMES = { ENERGY, PRICE };
+
+    @Autowired
+    private BrokerPropertiesService propertiesService;
+
+    @Autowired
+    private MetricsService metrics;
+
+    @ConfigurableValue(valueType = "String", description = "Base URL of the prediction service")
+    private String predictorUrl = "http://localhost:5000";
+
+    @ConfigurableValue(valueType = "String", description = "Transport to the prediction service: http or uds")
+    private String predictorTransport = "http";
+
+    @ConfigurableValue(valueType = "String", description = "Unix domain socket of the prediction service, for uds")
+    private String predictorSocket = "/tmp/powertac-predictor.sock";
+
+    @ConfigurableValue(valueType = "Integer", description = "Prediction service connect timeout in ms")
+    private int connectTimeout = 1000;
+
+    @ConfigurableValue(valueType = "Integer", description = "Prediction service response timeout in ms")
+    private int requestTimeout = 2000;
+
+    @ConfigurableValue(valueType = "Integer", description = "Consecutive prediction failures that open the circuit")
+    private int failureThreshold = 3;
+
+    @ConfigurableValue(valueType = "Integer", description = "Time in ms before an open circuit lets a probe request through")
+    private int retryMillis = 20000;
+
+    @ConfigurableValue(valueType = "Integer", description = "Batch prediction response timeout in ms")
+    private int batchTimeout = 60000;
+
+    @ConfigurableValue(valueType = "Boolean", description = "Learn the prediction models online from this game")
+    private boolean onlineLearning = false;
+
+    @ConfigurableValue(valueType = "Double", description = "Forgetting factor of the online models")
+    private double onlineForgetting = 0.995;
+
+    @ConfigurableValue(valueType = "Integer", description = "Online updates before online predictions are blended in, at least one per model parameter")
+    private int onlineWarmup = 2 * OnlineModel.PARAMETERS;
+
+    @ConfigurableValue(valueType = "Double", description = "Weight of the online prediction in the blend")
+    private double onlineWeight = 0.5;
+
+    private PredictorTransport transport;
+
+    private CircuitBreaker breaker;
+
+    @ConfigurableValue(valueType = "String", description = "Candidate models scored in the shadow of the live ones, comma separated")
+    private String shadowModels = "";
+
+    @ConfigurableValue(valueType = "String", description = "File the shadow predictions and outcomes are written to")
+    private String shadowFile = "log/broker.shadow";
+
+    @ConfigurableValue(valueType = "Integer", description = "Prediction results kept for repeated requests")
+    private int predictionCacheSize = 64;
 
-    private WeatherForecastRepo weatherForecastRepo = new WeatherForecastRepo();
+    private FeatureBuilder featureBuilder = new FeatureBuilder();
 
-    private WeatherReportRepo weatherReportRepo = new WeatherReportRepo();
+    private double[] features = new double[FeatureBuilder.FEATURES];
 
-    private ClearedRepo clearedRepo = new ClearedRepo();
+    private PredictionCache cache;
 
-    private ClearedFuturesRepo clearedFuturesRepo = new ClearedFuturesRepo();
+    private OnlineModel online = null;
 
-    private Gson gson = new Gson();
+    private ShadowScorer shadow = null;
 
-    private PredictionResponse getPrediction(Integer timeslot, String url) {
-        String data = buildPredictionData(timeslot-1);
-        CloseableHttpClient httpClient = HttpClients.createDefault();
-        HttpPost httpPost = new HttpPost(url);
-        httpPost.setHeader("Content-type", "application/json");
+    // last row given to the shadow scorer
+    private int shadowRow = -1;
+
+    private double[] shadowLabels = new double[2 * HORIZON];
+
+    @Override
+    public void initialize(BrokerContext broker) {
+        propertiesService.configureMe(this);
+        closeTransport();
+        breaker = new CircuitBreaker(failureThreshold, retryMillis);
+        cache = new PredictionCache(predictionCacheSize, HORIZON);
+        online = onlineLearning ? new OnlineModel(onlineForgetting, onlineWarmup, onlineWeight) : null;
+        if (shadow != null) {
+            shadow.close();
+            shadow = null;
+        }
+        shadowRow = -1;
+        String candidates = shadowModels == null ? "" : shadowModels.trim();
+        if (!candidates.isEmpty()) {
+            // candidates are only served over HTTP, by the batch path
+            shadow = new ShadowScorer(candidates.split("\\s*,\\s*"),
+                    new HttpPredictorTransport(predictorUrl, connectTimeout, batchTimeout), batchTimeout, shadowFile);
+        }
+    }
+
+    public String getPredictorUrl() {
+        return predictorUrl;
+    }
+
+    public synchronized void setPredictorUrl(String predictorUrl) {
+        this.predictorUrl = predictorUrl;
+        closeTransport();
+    }
+
+    public synchronized void setPredictorTransport(String predictorTransport) {
+        this.predictorTransport = predictorTransport;
+        closeTransport();
+    }
+
+    private synchronized PredictorTransport getTransport() {
+        if (transport == null) {
+            if ("uds".equalsIgnoreCase(predictorTransport)) {
+                transport = new UdsPredictorTransport(Paths.get(predictorSocket));
+            } else {
+                transport = new HttpPredictorTransport(predictorUrl, connectTimeout, requestTimeout);
+            }
+        }
+        return transport;
+    }
+
+    private synchronized void closeTransport() {
+        if (transport != null) {
+            transport.close();
+            transport = null;
+        }
+    }
+
+    /**
+     * Predicts HORIZON values of the given model for the timeslots after
+     * timeslot into result. Answers from the cache when the same features were
+     * sent for that model and timeslot before, and blends in the online model
+     * once it is warm. Gives up after timeoutMillis
+     * when that is shorter than the configured request timeout. Returns false,
+     * leaving result unchanged, when features are missing, the request fails
+     * or the circuit is open.
+     */
+    private synchronized boolean getPrediction(int model, int timeslot, ActivationPhase phase, int timeoutMillis,
+            double[] result) {
+        long start = metrics.start();
+        boolean built = featureBuilder.build(timeslot - 1, features);
+        long featureHash = built ? PredictionCache.hash(features, FeatureBuilder.FEATURES) : 0L;
+        metrics.stop(ActivationPhase.FEATURES, start);
+        if (!built) {
+            log.warn("Missing features for timeslot {}", timeslot);
+            return false;
+        }
+        if (online != null) {
+            online.learn(timeslot);
+            online.remember(timeslot - 1, features);
+        }
+        if (shadow != null && shadowRow != timeslot - 1) {
+            shadowRow = timeslot - 1;
+            int finalRow = timeslot - HORIZON;
+            if (finalRow >= 0) {
+                OnlineModel.labels(finalRow, shadowLabels);
+            }
+            shadow.observe(timeslot - 1, features, finalRow, shadowLabels);
+        }
+        if (cache.get(model, timeslot, featureHash, result)) {
+            blendOnline(model, result);
+            if (shadow != null) {
+                shadow.live(model, timeslot - 1, result);
+            }
+            return true;
+        }
+        if (!breaker.allowRequest()) {
+            return false;
+        }
+        PredictorTransport transport = getTransport();
+        String endpoint = transport.endpoint(MODEL_NAMES[model]);
+        int bytes = transport.prepare(MODEL_NAMES[model], features, FeatureBuilder.FEATURES);
+        start = metrics.start();
+        PredictionRequestEvent event = FlightEvents.beginPrediction(timeslot, endpoint, bytes);
+        boolean success = false;
         try {
-            StringEntity stringEntity = new StringEntity(data);
-            httpPost.setEntity(stringEntity);
+            success = transport.exchange(timeoutMillis > 0 ? Math.min(timeoutMillis, requestTimeout) : requestTimeout,
+                    result);
+            if (success) {
+                cache.put(model, timeslot, featureHash, result);
+                blendOnline(model, result);
+                if (shadow != null) {
+                    shadow.live(model, timeslot - 1, result);
+                }
+            } else {
+                log.warn("Incomplete prediction from {}", endpoint);
+            }
+        } catch (Exception e) {
+            log.warn("Prediction request to {} failed: {}", endpoint, e.toString());
+        } finally {
+            recordOutcome(success);
+            FlightEvents.endPrediction(event, success);
+            metrics.stop(phase, start);
+        }
+        return success;
+    }
+
+    private void blendOnline(int model, double[] result) {
+        if (online != null) {
+            online.blend(model, features, result);
+        }
+    }
+
+    private void recordOutcome(boolean success) {
+        if (success) {
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                log.info("Prediction service is back, closing the circuit");
+            }
+            breaker.recordSuccess();
+        } else if (breaker.recordFailure()) {
+            log.warn("Prediction service circuit opened, retrying in {} ms", retryMillis);
+        }
+    }
 
-            CloseableHttpResponse response = httpClient.execute(httpPost);
-            String prediction = new BasicResponseHandler().handleResponse(response);
-            PredictionResponse predictionResponse = gson.fromJson(prediction, PredictionResponse.class);
-            return predictionResponse;
+    /**
+     * Predicts the energy amounts for the HORIZON timeslots after
+     * currentTimeslot into result; see getPrediction.
+     */
+    public boolean predictAmounts(int currentTimeslot, int timeoutMillis, double[] result) {
+        return getPrediction(ENERGY_MODEL, currentTimeslot, ActivationPhase.ENERGY_PREDICTION, timeoutMillis, result);
+    }
+
+    /**
+     * Predicts the clearing prices for the HORIZON timeslots after
+     * currentTimeslot into result; see getPrediction.
+     */
+    public boolean predictPrices(int currentTimeslot, int timeoutMillis, double[] result) {
+        return getPrediction(PRICE_MODEL, currentTimeslot, ActivationPhase.PRICE_PREDICTION, timeoutMillis, result);
+    }
+
+    /**
+     * Scores the first rows feature rows of the named model (ENERGY or PRICE)
+     * in one request, to /predict/&lt;model&gt;/batch over HTTP, which
+     * answers with rows * HORIZON values. Row r of the answer goes to
+     * result[r]. Returns false, with result partly written, when the request
+     * fails or the answer has the wrong length. Batch requests are not cached
+     * and do not count towards the circuit breaker; they are meant for
+     * offline scoring, and may run alongside the live predictions.
+     */
+    public boolean predictBatch(String model, double[][] features, int rows, double[][] result) {
+        if (rows <= 0) {
+            return true;
+        }
+        PredictorTransport transport = getTransport();
+        try {
+            if (transport.predictBatch(model, features, rows, FeatureBuilder.FEATURES, batchTimeout, result)) {
+                return true;
+            }
+            log.warn("Incomplete batch prediction from {}", transport.endpoint(model));
         } catch (Exception e) {
-            return new PredictionResponse();
+            log.warn("Batch prediction request to {} failed: {}", transport.endpoint(model), e.toString());
         }
+        return false;
     }
 
     /**
-     * 
-     * @param i Timeslot
-     * @return
+     * Sends one row of features to each model over the connection the live
+     * predictions use, so that it is open, and both models loaded, before
+     * the first activation needs them. Bypasses the cache and the circuit
+     * breaker. Each request waits at most connectTimeout, as it holds the
+     * lock the live predictions need, and the next model is skipped once
+     * stopped is true. Returns false when a request fails or is skipped.
      */
-    private String buildPredictionData(Integer i) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("{\"data\":[[");
-        sb.append(i % 24 + ",");
-        sb.append(i % 168 + ",");
-        for (int j = 24; j > 0; j--) {
-            sb.append(clearedFuturesRepo.findById(i - j).getQuantity().toString() + ",");
-            sb.append(clearedFuturesRepo.findById(i - j).getMeanPrice().toString() + ",");
-            sb.append(weatherReportRepo.findById(i - j).getTemperature() + ",");
-            sb.append(weatherReportRepo.findById(i - j).getWindSpeed() + ",");
-        }
-        sb.append(weatherReportRepo.findById(i).getTemperature() + ",");
-        sb.append(weatherReportRepo.findById(i).getWindSpeed() + ",");
-        ArrayList<PartialCleared> partialCleared = clearedRepo.findById(i-1).getFutureCleared();
-        for (int k = 0; k < 24; k++) {
-            sb.append(partialCleared.get(k).getQuantity() + ",");
-            sb.append(partialCleared.get(k).getMeanPrice() + ",");
-        }
-
-        for (int j = 1; j <= 24; j++) {
-            sb.append(weatherForecastRepo.findById(new PredictionKey(i, i + j)).getTemperature() + ",");
-            if (j < 24) {
-                sb.append(weatherForecastRepo.findById(new PredictionKey(i, i + j)).getWindSpeed() + ",");
-            } else {
-                sb.append(weatherForecastRepo.findById(new PredictionKey(i, i + j)).getWindSpeed());
+    public synchronized boolean warmUp(double[] features, BooleanSupplier stopped) {
+        PredictorTransport transport = getTransport();
+        double[] result = new double[HORIZON];
+        boolean success = true;
+        for (String model : MODEL_NAMES) {
+            if (stopped.getAsBoolean()) {
+                return false;
+            }
+            try {
+                transport.prepare(model, features, FeatureBuilder.FEATURES);
+                success &= transport.exchange(Math.min(connectTimeout, requestTimeout), result);
+            } catch (Exception e) {
+                log.warn("Warm-up request to {} failed: {}", transport.endpoint(model), e.toString());
+                success = false;
             }
         }
-        sb.append("]]}");
-        return sb.toString();
+        return success;
+    }
+
+    /**
+     * Scores the named model for every timeslot in first..last in one
+     * request. Row t - first holds the prediction made in timeslot t for the
+     * HORIZON timeslots after it, or is null when the features for t are
+     * missing. Returns null when the request fails.
+     */
+    public double[][] predictTimeslots(String model, int first, int last) {
+        int count = Math.max(0, last - first + 1);
+        double[][] features = new double[count][];
+        int[] timeslots = new int[count];
+        int rows = 0;
+        double[] row = new double[FeatureBuilder.FEATURES];
+        for (int t = first; t <= last; t++) {
+            if (featureBuilder.build(t - 1, row)) {
+                features[rows] = row;
+                timeslots[rows++] = t;
+                row = new double[FeatureBuilder.FEATURES];
+            }
+        }
+        double[][] scored = new double[rows][HORIZON];
+        if (!predictBatch(model, features, rows, scored)) {
+            return null;
+        }
+        double[][] result = new double[count][];
+        for (int r = 0; r < rows; r++) {
+            result[timeslots[r] - first] = scored[r];
+        }
+        return result;
+    }
+
+    /**
+     * False while the circuit is open and requests are refused.
+     */
+    public boolean isPredictorAvailable() {
+        return breaker.isAvailable();
     }
 
-	public ArrayList<Double> predictAmounts(int currentTimeslot) {
-        return getPrediction(currentTimeslot, "http://localhost:5000/predict/energy").getArray();
-	}
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
 
-	public ArrayList<Double> predictPrices(int currentTimeslot) {
-        return getPrediction(currentTimeslot, "http://localhost:5000/predict/price").getArray();
-	}
-}
\ No newline at end of file
+    /**
+     * The online model, or null when online learning is off.
+     */
+    public OnlineModel getOnlineModel() {
+        return online;
+    }
+
+    public PredictionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * The shadow scorer, or null when no candidate models are configured.
+     */
+    public ShadowScorer getShadowScorer() {
+        return shadow;
+    }
+}
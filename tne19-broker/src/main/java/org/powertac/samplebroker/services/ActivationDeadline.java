@@ -0,0 +1,67 @@
+package org.powertac.samplebroker.services;
+
+/**
+ * Wall-clock deadline for one activation. The deadline is a fraction of the
+ * timeslot's wall-clock length after the TimeslotComplete for that timeslot
+ * arrived, or after the activation started when its arrival was not seen.
+ * Strategy stages ask for the remaining time before they start, and size
+ * their prediction request timeouts from it.
+ */
+public class ActivationDeadline {
+
+    private long timeslotBudgetMillis = 5000;
+
+    private double usableFraction = 0.8;
+
+    private volatile int arrivedTimeslot = -1;
+
+    private volatile long arrivedNanos = 0L;
+
+    private long deadlineNanos = 0L;
+
+    public ActivationDeadline(double usableFraction) {
+        this.usableFraction = usableFraction;
+    }
+
+    /**
+     * Sets the wall-clock length of a timeslot, in ms.
+     */
+    public void setTimeslotBudget(long millis) {
+        if (millis > 0) {
+            timeslotBudgetMillis = millis;
+        }
+    }
+
+    public long getTimeslotBudget() {
+        return timeslotBudgetMillis;
+    }
+
+    /**
+     * Records the arrival of the TimeslotComplete for timeslot. Safe to call
+     * from the message thread while an activation runs.
+     */
+    public void timeslotComplete(int timeslot) {
+        arrivedNanos = System.nanoTime();
+        arrivedTimeslot = timeslot;
+    }
+
+    /**
+     * Fixes the deadline for the activation of timeslot.
+     */
+    public void begin(int timeslot) {
+        long now = System.nanoTime();
+        long start = arrivedTimeslot == timeslot ? Math.min(arrivedNanos, now) : now;
+        deadlineNanos = start + (long) (timeslotBudgetMillis * usableFraction * 1000000L);
+    }
+
+    public long remainingMillis() {
+        return Math.max(0L, (deadlineNanos - System.nanoTime()) / 1000000L);
+    }
+
+    /**
+     * True when at least millis remain before the deadline.
+     */
+    public boolean hasTime(long millis) {
+        return remainingMillis() >= millis;
+    }
+}
@@ -0,0 +1,88 @@
+package org.powertac.samplebroker.services;
+
+/**
+ * Circuit breaker for a remote service. After failureThreshold consecutive
+ * failures the circuit opens and requests are refused without trying the
+ * service. Once retryMillis have passed a single probe is let through
+ * (half-open); its success closes the circuit, its failure opens it again
+ * for another retryMillis.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+
+    private final long retryNanos;
+
+    private State state = State.CLOSED;
+
+    private int failures = 0;
+
+    private long openedNanos = 0L;
+
+    private long opened = 0;
+
+    public CircuitBreaker(int failureThreshold, long retryMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.retryNanos = Math.max(0L, retryMillis) * 1000000L;
+    }
+
+    /**
+     * True when a request may be sent now. While open this turns true once
+     * the retry time has passed, for the one probe request.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.nanoTime() - openedNanos >= retryNanos) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            return false;
+        default:
+            // a probe is already out
+            return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Counts a failure; returns true when it opened the circuit.
+     */
+    public synchronized boolean recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedNanos = System.nanoTime();
+            opened++;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * True unless the circuit is open, in which case callers should not wait
+     * for the service.
+     */
+    public synchronized boolean isAvailable() {
+        return state != State.OPEN || System.nanoTime() - openedNanos >= retryNanos;
+    }
+
+    /**
+     * Number of times the circuit has opened.
+     */
+    public synchronized long getOpenedCount() {
+        return opened;
+    }
+}
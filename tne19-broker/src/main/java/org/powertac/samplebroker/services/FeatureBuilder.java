@@ -0,0 +1,125 @@
+package org.powertac.samplebroker.services;
+
+import org.powertac.samplebroker.interfaces.FeatureSource;
+
+/**
+ * Builds the feature row the prediction models take for one timeslot, into a
+ * caller-supplied double[FEATURES]:
+ * <ul>
+ * <li>hour of day and hour of week,</li>
+ * <li>for each of the 24 previous timeslots, oldest first: cleared quantity,
+ * mean cleared price, temperature and wind speed,</li>
+ * <li>temperature and wind speed now,</li>
+ * <li>for each of the next 24 timeslots: quantity and mean price cleared so
+ * far, as seen in the previous timeslot,</li>
+ * <li>for each of the next 24 timeslots: forecast temperature and wind
+ * speed.</li>
+ * </ul>
+ * The history comes from a FeatureSource, by default the broker's
+ * repositories.
+ */
+public class FeatureBuilder {
+
+    public static final int HORIZON = 24;
+
+    public static final int FEATURES = 2 + 4 * HORIZON + 2 + 2 * HORIZON + 2 * HORIZON;
+
+    private final FeatureSource source;
+
+    public FeatureBuilder() {
+        this(new RepoFeatureSource());
+    }
+
+    public FeatureBuilder(FeatureSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Fills features for timeslot i. Returns false, leaving features partly
+     * written, when history or weather for it is missing. Timeslots nothing
+     * has cleared for yet count as zero quantity at zero price.
+     */
+    public boolean build(int i, double[] features) {
+        int n = 0;
+        features[n++] = i % 24;
+        features[n++] = i % 168;
+        for (int j = HORIZON; j > 0; j--) {
+            features[n++] = source.clearedQuantity(i - j);
+            features[n++] = source.clearedPrice(i - j);
+            features[n++] = source.temperature(i - j);
+            features[n++] = source.windSpeed(i - j);
+            if (Double.isNaN(features[n - 4]) || Double.isNaN(features[n - 2])) {
+                return false;
+            }
+        }
+        features[n++] = source.temperature(i);
+        features[n++] = source.windSpeed(i);
+        if (Double.isNaN(features[n - 2])) {
+            return false;
+        }
+        for (int k = 0; k < HORIZON; k++) {
+            features[n++] = source.partialQuantity(i - 1, i + k);
+            features[n++] = source.partialPrice(i - 1, i + k);
+            if (Double.isNaN(features[n - 2])) {
+                return false;
+            }
+        }
+        for (int j = 1; j <= HORIZON; j++) {
+            features[n++] = source.forecastTemperature(i, i + j);
+            features[n++] = source.forecastWindSpeed(i, i + j);
+            if (Double.isNaN(features[n - 2])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the header of the training set written by PrintService,
+     * predict-model/data.csv: the feature columns, then the TCA/TCP labels.
+     */
+    public static StringBuilder csvHeader(StringBuilder sb) {
+        sb.append("Timeslot,WeekDay,");
+        for (int i = HORIZON; i > 0; i--) {
+            sb.append("CA").append(i).append(",CP").append(i).append(",T").append(i).append(",WS").append(i)
+                    .append(',');
+        }
+        sb.append("CT,CWS,");
+        for (int i = 1; i <= HORIZON; i++) {
+            sb.append("PCA").append(i).append(",PCP").append(i).append(',');
+        }
+        for (int i = 1; i <= HORIZON; i++) {
+            sb.append("TF").append(i).append(",WSF").append(i).append(',');
+        }
+        for (int i = 1; i <= HORIZON; i++) {
+            sb.append("TCA").append(i).append(",TCP").append(i).append(',');
+        }
+        return sb.append('\n');
+    }
+
+    /**
+     * Appends a training set line: the features of timeslot i, then the
+     * total quantity and mean price cleared for each of the HORIZON timeslots
+     * after it. Returns false, appending nothing, when the features or
+     * labels are not all known.
+     */
+    public boolean buildCsvLine(int i, double[] features, StringBuilder sb) {
+        if (!build(i, features)) {
+            return false;
+        }
+        for (int j = 1; j <= HORIZON; j++) {
+            if (Double.isNaN(source.clearedQuantity(i + j))) {
+                return false;
+            }
+        }
+        sb.append((int) features[0]).append(',').append((int) features[1]).append(',');
+        for (int k = 2; k < FEATURES; k++) {
+            sb.append(features[k]).append(',');
+        }
+        for (int j = 1; j <= HORIZON; j++) {
+            sb.append(source.clearedQuantity(i + j)).append(',').append(source.clearedPrice(i + j)).append(',');
+        }
+        sb.append('\n');
+        return true;
+    }
+}
@@ -0,0 +1,113 @@
+package org.powertac.samplebroker.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.powertac.samplebroker.interfaces.PredictorTransport;
+
+/**
+ * Prediction requests as JSON over HTTP, to /predict/&lt;model&gt; and
+ * /predict/&lt;model&gt;/batch under the service's base URL. Connections
+ * are pooled and kept alive by the HTTP client.
+ */
+public class HttpPredictorTransport implements PredictorTransport {
+
+    private final String baseUrl;
+
+    private final int connectTimeout;
+
+    private final int requestTimeout;
+
+    private CloseableHttpClient httpClient;
+
+    private final PredictionCodec codec = new PredictionCodec();
+
+    private HttpPost pending;
+
+    public HttpPredictorTransport(String baseUrl, int connectTimeout, int requestTimeout) {
+        this.baseUrl = baseUrl;
+        this.connectTimeout = connectTimeout;
+        this.requestTimeout = requestTimeout;
+    }
+
+    private synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            RequestConfig config = RequestConfig.custom().setConnectTimeout(connectTimeout)
+                    .setConnectionRequestTimeout(connectTimeout).setSocketTimeout(requestTimeout).build();
+            httpClient = HttpClients.custom().setDefaultRequestConfig(config).build();
+        }
+        return httpClient;
+    }
+
+    @Override
+    public String endpoint(String model) {
+        return baseUrl + "/predict/" + model;
+    }
+
+    @Override
+    public int prepare(String model, double[] features, int width) {
+        pending = new HttpPost(endpoint(model));
+        pending.setEntity(codec.encode(features, width));
+        return codec.getEncodedLength();
+    }
+
+    @Override
+    public boolean exchange(int timeoutMillis, double[] result) throws IOException {
+        HttpPost httpPost = pending;
+        pending = null;
+        if (httpPost == null) {
+            throw new IllegalStateException("No prepared request");
+        }
+        if (timeoutMillis > 0 && timeoutMillis < requestTimeout) {
+            httpPost.setConfig(RequestConfig.custom().setConnectTimeout(Math.min(connectTimeout, timeoutMillis))
+                    .setConnectionRequestTimeout(Math.min(connectTimeout, timeoutMillis))
+                    .setSocketTimeout(timeoutMillis).build());
+        }
+        try (CloseableHttpResponse response = getHttpClient().execute(httpPost)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 300) {
+                throw new IOException("status " + status);
+            }
+            try (InputStream in = response.getEntity().getContent()) {
+                return codec.decode(in, result);
+            }
+        }
+    }
+
+    @Override
+    public boolean predictBatch(String model, double[][] features, int rows, int width, int timeoutMillis,
+            double[][] result) throws IOException {
+        // batches may run alongside the live predictions, so they do not share its codec
+        PredictionCodec batchCodec = new PredictionCodec();
+        HttpPost httpPost = new HttpPost(endpoint(model) + "/batch");
+        httpPost.setEntity(batchCodec.encode(features, rows, width));
+        httpPost.setConfig(RequestConfig.custom().setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout).setSocketTimeout(timeoutMillis).build());
+        try (CloseableHttpResponse response = getHttpClient().execute(httpPost)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status >= 300) {
+                throw new IOException("status " + status);
+            }
+            try (InputStream in = response.getEntity().getContent()) {
+                return batchCodec.decode(in, rows, result);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+            httpClient = null;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+import org.powertac.samplebroker.interfaces.WholesaleContext;
+import org.powertac.samplebroker.interfaces.WholesaleStrategy;
+import org.powertac.samplebroker.journal.JournalEvent;
+import org.powertac.samplebroker.utils.LadderEngine;
+import org.powertac.samplebroker.utils.MaxDifference;
+
+/**
+ * The broker's wholesale strategy. Runs its stages in priority order: cover
+ * the next-hour imbalance, buy 24 hours ahead, then arbitrage. Each stage
+ * proposes price ladders built by LadderEngine and flushes them before the
+ * next one starts. Stages work from whatever predictions the context can
+ * give in the time left, and are skipped when there are none.
+ *
+ * With lead timing, the day-ahead stage buys each timeslot not 24 hours
+ * ahead but in the auction that has cleared cheapest for its hour of day,
+ * of the ones still to come. With a fill target, no ladder level bids or
+ * asks beyond the limit price that has filled that share of our orders at
+ * its lead. With usage need, the day-ahead stage buys what our own customers
+ * are expected to use, less what we hold, instead of the quantity the whole
+ * market is predicted to clear.
+ */
+public class LadderStrategy implements WholesaleStrategy {
+
+    public enum Stage { IMBALANCE, DAY_AHEAD, ARBITRAGE }
+
+    private static final int HORIZON = LadderEngine.HORIZON;
+
+    private LadderEngine ladder;
+
+    private double minMWh;
+
+    private boolean arbitrageEnabled;
+
+    private boolean leadTiming = false;
+
+    private boolean usageNeed = false;
+
+    // share of ordered MWh limit prices should fill, 0 for no cap
+    private double fillTarget = 0.0;
+
+    // first timeslot with an open market
+    private int firstTimeslot = 386;
+
+    private int currentTimeslot;
+
+    private double[] ladderPrices = new double[HORIZON];
+
+    private double[] ladderNeeded = new double[HORIZON];
+
+    private double[] predictedAmounts = new double[HORIZON];
+
+    private double[] usageNeeded = new double[HORIZON];
+
+    private int amountsMode = WholesaleContext.MODE_SKIPPED;
+
+    private boolean amountsLoaded = false;
+
+    private int[] priceSpread = new int[2];
+
+    private int sellingIndex;
+
+    private double buyingOrderQuantity = 0.0;
+
+    public LadderStrategy(LadderEngine ladder, double minMWh, boolean arbitrageEnabled) {
+        this.ladder = ladder;
+        this.minMWh = minMWh;
+        this.arbitrageEnabled = arbitrageEnabled;
+    }
+
+    public LadderStrategy withFirstTimeslot(int firstTimeslot) {
+        this.firstTimeslot = firstTimeslot;
+        return this;
+    }
+
+    public LadderStrategy withLeadTiming(boolean leadTiming) {
+        this.leadTiming = leadTiming;
+        return this;
+    }
+
+    public LadderStrategy withUsageNeed(boolean usageNeed) {
+        this.usageNeed = usageNeed;
+        return this;
+    }
+
+    public LadderStrategy withFillTarget(double fillTarget) {
+        this.fillTarget = fillTarget;
+        return this;
+    }
+
+    public void setMinMWh(double minMWh) {
+        this.minMWh = minMWh;
+    }
+
+    public LadderEngine getLadder() {
+        return ladder;
+    }
+
+    @Override
+    public void observeClearing(int timeslot, int origin, double price) {
+        ladder.observeClearing(timeslot, origin, price);
+    }
+
+    @Override
+    public void apply(WholesaleContext context) {
+        currentTimeslot = context.getCurrentTimeslot();
+        double energyBalance = context.positionFor(currentTimeslot);
+        context.record(JournalEvent.MARKET_ACTIVATION, 0L, energyBalance, 0.0);
+        if (currentTimeslot < firstTimeslot) {
+            return;
+        }
+        Arrays.fill(ladderNeeded, 0.0);
+        amountsLoaded = false;
+        int priceMode = context.loadPrices(ladderPrices);
+        if (priceMode == WholesaleContext.MODE_RAN) {
+            ladder.recordPrediction(currentTimeslot, ladderPrices, HORIZON);
+        }
+
+        // next-hour imbalance, bought only below what balancing would cost
+        if (currentTimeslot > firstTimeslot && energyBalance < 0) {
+            double balancing = context.balancingCost(currentTimeslot + 1, energyBalance);
+            if (Double.isNaN(ladderPrices[0])) {
+                context.stageDone(Stage.IMBALANCE, WholesaleContext.MODE_SKIPPED);
+            } else {
+                if (Double.isNaN(balancing) || ladderPrices[0] < balancing) {
+                    ladderNeeded[0] += -energyBalance;
+                    flushLadder(context, balancing);
+                }
+                context.stageDone(Stage.IMBALANCE, priceMode);
+            }
+        }
+
+        // 24 hours ahead
+        if (currentTimeslot == firstTimeslot || energyBalance == 0) {
+            int mode = Math.max(priceMode, loadAmounts(context));
+            double averagePrice = averagePrice(ladderPrices);
+            if (usageNeed) {
+                context.neededMWh(usageNeeded);
+            }
+            if (currentTimeslot == firstTimeslot) {
+                for (int i = 0; i < HORIZON; i++) {
+                    if (ladderPrices[i] <= averagePrice && !Double.isNaN(dayAheadAmount(i))) {
+                        ladderNeeded[i] += dayAheadAmount(i);
+                    }
+                }
+            } else if (leadTiming) {
+                buyAtCheapestLead(context, averagePrice);
+            } else {
+                int lastIdx = HORIZON - 1;
+                if (ladderPrices[lastIdx] <= averagePrice && !Double.isNaN(dayAheadAmount(lastIdx))) {
+                    ladderNeeded[lastIdx] += dayAheadAmount(lastIdx);
+                }
+            }
+            flushLadder(context);
+            context.stageDone(Stage.DAY_AHEAD, mode);
+        }
+
+        // arbitrage between the cheapest and dearest open timeslots
+        if (arbitrageEnabled && currentTimeslot > firstTimeslot) {
+            int mode = Math.max(priceMode, loadAmounts(context));
+            if (buyInWholesale(context)) {
+                sellInWholesale();
+                flushLadder(context);
+            } else {
+                mode = WholesaleContext.MODE_SKIPPED;
+            }
+            context.stageDone(Stage.ARBITRAGE, mode);
+        }
+    }
+
+    // Fills predictedAmounts at most once per activation
+    private int loadAmounts(WholesaleContext context) {
+        if (!amountsLoaded) {
+            amountsMode = context.loadAmounts(predictedAmounts);
+            amountsLoaded = true;
+        }
+        return amountsMode;
+    }
+
+    // MWh the day-ahead stage buys for open timeslot i, NaN when unknown
+    private double dayAheadAmount(int i) {
+        return usageNeed ? Math.max(usageNeeded[i], 0.0) : predictedAmounts[i];
+    }
+
+    /**
+     * Adds the day-ahead amount of every open timeslot whose current auction
+     * is the cheapest of those left, or that has no auction known to be
+     * cheaper. Market-wide amounts are bought only for timeslots we hold
+     * nothing for; usage needs are already net of what we hold.
+     */
+    private void buyAtCheapestLead(WholesaleContext context, double averagePrice) {
+        for (int i = 0; i < HORIZON; i++) {
+            int timeslot = currentTimeslot + i + 1;
+            int lead = i + 1;
+            int best = context.cheapestLead(timeslot, lead);
+            if ((best < 0 || best == lead) && ladderPrices[i] <= averagePrice && !Double.isNaN(dayAheadAmount(i))
+                    && (usageNeed || context.positionFor(timeslot) == 0.0)) {
+                ladderNeeded[i] += dayAheadAmount(i);
+            }
+        }
+    }
+
+    private static double averagePrice(double[] prices) {
+        double sum = 0.0;
+        int n = 0;
+        for (double price : prices) {
+            if (!Double.isNaN(price)) {
+                sum += price;
+                n++;
+            }
+        }
+        return n > 0 ? sum / n : 0.0;
+    }
+
+    private int flushLadder(WholesaleContext context) {
+        return flushLadder(context, Double.NaN);
+    }
+
+    /**
+     * Proposes a price ladder for every open timeslot with a needed quantity,
+     * sends the batch and starts the needed quantities from zero again. Buys
+     * pay at most maxBuyPrice, unless it is NaN. Returns the number of orders
+     * sent.
+     */
+    private int flushLadder(WholesaleContext context, double maxBuyPrice) {
+        int size = ladder.build(currentTimeslot, ladderPrices, ladderNeeded, HORIZON, minMWh);
+        for (int i = 0; i < size; i++) {
+            double mWh = ladder.getMWh(i);
+            double limitPrice = ladder.getLimitPrice(i);
+            if (fillTarget > 0.0) {
+                limitPrice = capToFillTarget(context, ladder.getTimeslot(i), mWh, limitPrice);
+            }
+            if (mWh > 0.0 && maxBuyPrice > 0.0) {
+                limitPrice = Math.max(limitPrice, -maxBuyPrice);
+            }
+            context.submitOrder(ladder.getTimeslot(i), mWh, limitPrice);
+        }
+        Arrays.fill(ladderNeeded, 0.0);
+        return context.flush();
+    }
+
+    // Cheapest limit price that has reached the fill target at its lead
+    private double capToFillTarget(WholesaleContext context, int timeslot, double mWh, double limitPrice) {
+        int lead = timeslot - currentTimeslot;
+        double predicted = ladderPrices[lead - 1];
+        double ratio = context.fillRatio(lead, mWh, fillTarget);
+        if (Double.isNaN(ratio) || !(predicted > 0.0)) {
+            return limitPrice;
+        }
+        return Math.max(limitPrice, mWh > 0.0 ? -ratio * predicted : ratio * predicted);
+    }
+
+    // Adds the buy side of an arbitrage to the needed quantities
+    private boolean buyInWholesale(WholesaleContext context) {
+        MaxDifference.maxDiff(ladderPrices, HORIZON, priceSpread);
+        int minPriceIndex = priceSpread[0];
+        int maxPriceIndex = priceSpread[1];
+        if (minPriceIndex < 0 || Double.isNaN(predictedAmounts[maxPriceIndex])) {
+            return false;
+        }
+        sellingIndex = currentTimeslot + maxPriceIndex + 1;
+        double predictedMaxAmount = predictedAmounts[maxPriceIndex];
+        context.record(JournalEvent.ARBITRAGE, 0L, minPriceIndex, maxPriceIndex);
+
+        double alreadyClearedQuantityForMax = 0.0;
+        if (maxPriceIndex < 23) {
+            alreadyClearedQuantityForMax = context.clearedMWh(sellingIndex);
+        }
+        buyingOrderQuantity = predictedMaxAmount - alreadyClearedQuantityForMax;
+        ladderNeeded[minPriceIndex] += buyingOrderQuantity;
+        return true;
+    }
+
+    private void sellInWholesale() {
+        ladderNeeded[sellingIndex - currentTimeslot - 1] -= buyingOrderQuantity;
+    }
+}
@@ -0,0 +1,234 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Our profit and loss, by component and timeslot. Every charge the server
+ * posts is recorded, credits positive and debits negative, under the
+ * timeslot it was posted in, in preallocated primitive arrays that keep the
+ * last capacity timeslots. Per-component sums over the last window
+ * timeslots are kept up to date as charges arrive and as timeslots leave the
+ * window, so rolling profit and cost rates are O(1) to read. The sums are
+ * recomputed from the rows once per window.
+ */
+@Service
+public class LedgerService implements Initializable {
+
+    public enum Component { WHOLESALE, TARIFF, BALANCING, DISTRIBUTION, CAPACITY, BANK }
+
+    private static final Component[] COMPONENTS = Component.values();
+
+    private static final int COUNT = COMPONENTS.length;
+
+    @Autowired
+    private BrokerPropertiesService propertiesService;
+
+    @ConfigurableValue(valueType = "Integer", description = "Timeslots of history the ledger keeps")
+    private int ledgerCapacity = 4096;
+
+    @ConfigurableValue(valueType = "Integer", description = "Timeslots in the rolling profit and loss window")
+    private int ledgerWindow = 24;
+
+    private int capacity;
+
+    private int window;
+
+    // by (timeslot % capacity) * COUNT + component
+    private double[] amounts;
+
+    private double[] cash;
+
+    // timeslot held by each row, -1 when empty
+    private int[] rowTimeslot;
+
+    private double[] totals = new double[COUNT];
+
+    private double[] windowTotals = new double[COUNT];
+
+    private int latestTimeslot = -1;
+
+    public LedgerService() {
+        super();
+    }
+
+    @Override
+    public synchronized void initialize(BrokerContext broker) {
+        if (propertiesService != null) {
+            propertiesService.configureMe(this);
+        }
+        allocate(ledgerCapacity, ledgerWindow);
+    }
+
+    private void allocate(int capacity, int window) {
+        this.capacity = Math.max(capacity, 1);
+        this.window = Math.max(1, Math.min(window, this.capacity));
+        amounts = new double[this.capacity * COUNT];
+        cash = new double[this.capacity];
+        Arrays.fill(cash, Double.NaN);
+        rowTimeslot = new int[this.capacity];
+        Arrays.fill(rowTimeslot, -1);
+        Arrays.fill(totals, 0.0);
+        Arrays.fill(windowTotals, 0.0);
+        latestTimeslot = -1;
+    }
+
+    /**
+     * Records a charge posted in timeslot; positive amounts are credits.
+     * Charges for timeslots older than the ledger keeps only count in the
+     * totals.
+     */
+    public synchronized void record(Component component, int timeslot, double amount) {
+        if (Double.isNaN(amount) || timeslot < 0) {
+            return;
+        }
+        int c = component.ordinal();
+        totals[c] += amount;
+        advance(timeslot);
+        if (timeslot <= latestTimeslot - capacity) {
+            return;
+        }
+        amounts[row(timeslot) * COUNT + c] += amount;
+        if (timeslot > latestTimeslot - window) {
+            windowTotals[c] += amount;
+        }
+    }
+
+    /**
+     * Records the bank balance reported for timeslot.
+     */
+    public synchronized void recordCash(int timeslot, double balance) {
+        if (timeslot < 0) {
+            return;
+        }
+        advance(timeslot);
+        if (timeslot > latestTimeslot - capacity) {
+            cash[row(timeslot)] = balance;
+        }
+    }
+
+    // Moves the window forward to end at timeslot, and clears reused rows
+    private void advance(int timeslot) {
+        if (timeslot <= latestTimeslot) {
+            return;
+        }
+        int from = Math.max(latestTimeslot + 1, timeslot - capacity + 1);
+        if (latestTimeslot >= 0) {
+            // timeslots leaving the window
+            int leaveTo = Math.min(timeslot - window, latestTimeslot);
+            for (int t = Math.max(latestTimeslot - window + 1, 0); t <= leaveTo; t++) {
+                if (rowTimeslot[row(t)] == t) {
+                    int base = row(t) * COUNT;
+                    for (int c = 0; c < COUNT; c++) {
+                        windowTotals[c] -= amounts[base + c];
+                    }
+                }
+            }
+        }
+        for (int t = from; t <= timeslot; t++) {
+            int base = row(t) * COUNT;
+            Arrays.fill(amounts, base, base + COUNT, 0.0);
+            cash[row(t)] = Double.NaN;
+            rowTimeslot[row(t)] = t;
+        }
+        latestTimeslot = timeslot;
+        if (timeslot % window == 0) {
+            resumWindow();
+        }
+    }
+
+    // Sums the window from its rows again, so the running sums cannot drift
+    private void resumWindow() {
+        Arrays.fill(windowTotals, 0.0);
+        for (int t = Math.max(latestTimeslot - window + 1, 0); t <= latestTimeslot; t++) {
+            if (holds(t)) {
+                for (int c = 0; c < COUNT; c++) {
+                    windowTotals[c] += amounts[row(t) * COUNT + c];
+                }
+            }
+        }
+    }
+
+    private int row(int timeslot) {
+        return timeslot % capacity;
+    }
+
+    private boolean holds(int timeslot) {
+        return timeslot >= 0 && rowTimeslot[row(timeslot)] == timeslot;
+    }
+
+    /**
+     * Amount of the component posted in timeslot, 0 when none was or the
+     * timeslot is no longer kept.
+     */
+    public synchronized double amount(Component component, int timeslot) {
+        return holds(timeslot) ? amounts[row(timeslot) * COUNT + component.ordinal()] : 0.0;
+    }
+
+    /**
+     * Net profit of timeslot over all components.
+     */
+    public synchronized double profit(int timeslot) {
+        if (!holds(timeslot)) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        for (int c = 0; c < COUNT; c++) {
+            sum += amounts[row(timeslot) * COUNT + c];
+        }
+        return sum;
+    }
+
+    /**
+     * Bank balance reported for timeslot, NaN when none was.
+     */
+    public synchronized double cash(int timeslot) {
+        return holds(timeslot) ? cash[row(timeslot)] : Double.NaN;
+    }
+
+    /**
+     * Sum of the component over the whole game.
+     */
+    public synchronized double total(Component component) {
+        return totals[component.ordinal()];
+    }
+
+    /**
+     * Sum of the component over the last window timeslots.
+     */
+    public synchronized double windowTotal(Component component) {
+        return windowTotals[component.ordinal()];
+    }
+
+    /**
+     * Mean amount of the component per timeslot over the window.
+     */
+    public synchronized double windowRate(Component component) {
+        return windowTotals[component.ordinal()] / window;
+    }
+
+    /**
+     * Net profit over the last window timeslots.
+     */
+    public synchronized double windowProfit() {
+        double sum = 0.0;
+        for (int c = 0; c < COUNT; c++) {
+            sum += windowTotals[c];
+        }
+        return sum;
+    }
+
+    public synchronized int getLatestTimeslot() {
+        return latestTimeslot;
+    }
+
+    public synchronized int getWindow() {
+        return window;
+    }
+}
@@ -0,0 +1,135 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+import org.powertac.samplebroker.domain.PartialCleared;
+import org.powertac.samplebroker.repos.ClearedFuturesRepo;
+import org.powertac.samplebroker.utils.RecursiveLeastSquares;
+
+/**
+ * Learns the energy and price models from this game while it runs. The
+ * feature row sent for each prediction is kept until its labels, the total
+ * cleared quantity and mean clearing price of the HORIZON timeslots after
+ * it (TCA/TCP in PrintService), are final; the row is then learned by a
+ * RecursiveLeastSquares update with forgetting. Once warm, the online
+ * predictions are blended into those of the prediction service.
+ *
+ * Outputs 0..HORIZON-1 are quantities and HORIZON..2*HORIZON-1 prices, so a
+ * model's outputs start at model * HORIZON for API's ENERGY_MODEL (0) and
+ * PRICE_MODEL (1).
+ */
+public class OnlineModel {
+
+    public static final int HORIZON = 24;
+
+    public static final int OUTPUTS = 2 * HORIZON;
+
+    // weights per output: one per feature and the bias
+    public static final int PARAMETERS = FeatureBuilder.FEATURES + 1;
+
+    private static final ClearedFuturesRepo CLEARED = new ClearedFuturesRepo();
+
+    private RecursiveLeastSquares rls;
+
+    private long warmup;
+
+    private double weight;
+
+    // feature rows waiting for their labels, HORIZON + 1 rows deep
+    private double[][] rows = new double[HORIZON + 1][FeatureBuilder.FEATURES];
+
+    private int[] rowIndex = new int[HORIZON + 1];
+
+    private double[] labels = new double[OUTPUTS];
+
+    private double[] output = new double[OUTPUTS];
+
+    /**
+     * A model with forgetting factor lambda that starts blending, with the
+     * given weight, after warmup updates. Warmup is raised to PARAMETERS, as
+     * the fit is not determined by fewer rows.
+     */
+    public OnlineModel(double lambda, long warmup, double weight) {
+        this.rls = new RecursiveLeastSquares(FeatureBuilder.FEATURES, OUTPUTS, lambda, 1.0);
+        this.warmup = Math.max(warmup, PARAMETERS);
+        this.weight = weight;
+        Arrays.fill(rowIndex, -1);
+    }
+
+    /**
+     * Keeps the features built for row index i until its labels are final.
+     */
+    public synchronized void remember(int i, double[] features) {
+        int slot = i % (HORIZON + 1);
+        if (rowIndex[slot] != i) {
+            System.arraycopy(features, 0, rows[slot], 0, FeatureBuilder.FEATURES);
+            rowIndex[slot] = i;
+        }
+    }
+
+    /**
+     * Learns every kept row whose labels are final in currentTimeslot, that
+     * is row i with i + HORIZON <= currentTimeslot. Returns the number of rows
+     * learned.
+     */
+    public synchronized int learn(int currentTimeslot) {
+        int learned = 0;
+        for (int slot = 0; slot <= HORIZON; slot++) {
+            int i = rowIndex[slot];
+            if (i < 0 || i + HORIZON > currentTimeslot) {
+                continue;
+            }
+            labels(i, labels);
+            if (rls.update(rows[slot], labels)) {
+                learned++;
+            }
+            rowIndex[slot] = -1;
+        }
+        return learned;
+    }
+
+    /**
+     * Writes the labels of row i: the quantity cleared for each of the
+     * HORIZON timeslots after it, then their mean clearing prices.
+     */
+    public static void labels(int i, double[] labels) {
+        for (int j = 0; j < HORIZON; j++) {
+            PartialCleared cleared = CLEARED.findById(i + j + 1);
+            // nothing cleared: quantity zero, no price
+            labels[j] = cleared == null ? 0.0 : cleared.getQuantity();
+            labels[HORIZON + j] = cleared == null ? Double.NaN : cleared.getMeanPrice();
+        }
+    }
+
+    public synchronized boolean isWarm() {
+        return rls.getUpdates() >= warmup;
+    }
+
+    /**
+     * Blends the online prediction of the given model into the HORIZON values
+     * of result, once the model is warm.
+     */
+    public synchronized void blend(int model, double[] features, double[] result) {
+        if (rls.getUpdates() < warmup || weight <= 0.0) {
+            return;
+        }
+        rls.predict(features, output);
+        int offset = model * HORIZON;
+        for (int j = 0; j < HORIZON; j++) {
+            result[j] = (1.0 - weight) * result[j] + weight * output[offset + j];
+        }
+    }
+
+    /**
+     * Writes the online prediction of the given model into result, whether
+     * warm or not.
+     */
+    public synchronized void predict(int model, double[] features, double[] result) {
+        rls.predict(features, output);
+        System.arraycopy(output, model * HORIZON, result, 0, HORIZON);
+    }
+
+    public synchronized long getUpdates() {
+        return rls.getUpdates();
+    }
+}
@@ -0,0 +1,214 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+/**
+ * Collects the orders proposed during one activation and sends the net set
+ * in a single flush. For each timeslot:
+ * <ul>
+ * <li>buys and sells proposed in the batch cancel each other,</li>
+ * <li>proposals opposite to orders already sent in this cycle are dropped up
+ * to the sent quantity, so we never trade with ourselves,</li>
+ * <li>with the sell cap on, net sells are capped at the MarketPosition we
+ * hold,</li>
+ * <li>what is left below minMWh is dropped.</li>
+ * </ul>
+ * The sell cap is off by default: an arbitrage sells a timeslot it holds
+ * nothing in yet, covered by a buy in another timeslot.
+ * Proposals at different limit prices are kept as separate orders; trimming
+ * takes quantity from the least aggressive prices first, so a price ladder
+ * loses its outer levels before its inner ones.
+ */
+public class OrderBatch {
+
+    // orders target at most this many timeslots ahead of the current one
+    public static final int HORIZON = 24;
+
+    public interface PositionSource {
+        /**
+         * Net MWh held for the timeslot, positive when we have bought.
+         */
+        double positionFor(int timeslot);
+    }
+
+    public interface OrderSender {
+        void send(int timeslot, double mWh, double limitPrice);
+    }
+
+    private int currentTimeslot;
+
+    private double minMWh = 0.001;
+
+    private boolean sellCap = false;
+
+    private int count = 0;
+
+    private int[] timeslots;
+
+    private double[] quantities;
+
+    private double[] prices;
+
+    private int[] sorted;
+
+    // quantities sent since begin(), by timeslot - currentTimeslot
+    private double[] sentBuy = new double[HORIZON + 1];
+
+    private double[] sentSell = new double[HORIZON + 1];
+
+    public OrderBatch() {
+        this(64);
+    }
+
+    public OrderBatch(int capacity) {
+        timeslots = new int[capacity];
+        quantities = new double[capacity];
+        prices = new double[capacity];
+        sorted = new int[capacity];
+    }
+
+    /**
+     * Caps net sells at the position held, so we never go short.
+     */
+    public OrderBatch withSellCap(boolean sellCap) {
+        this.sellCap = sellCap;
+        return this;
+    }
+
+    /**
+     * Starts the batch for a new activation.
+     */
+    public void begin(int currentTimeslot, double minMWh) {
+        this.currentTimeslot = currentTimeslot;
+        this.minMWh = minMWh;
+        count = 0;
+        Arrays.fill(sentBuy, 0.0);
+        Arrays.fill(sentSell, 0.0);
+    }
+
+    /**
+     * Proposes an order; positive mWh buys, negative sells.
+     */
+    public void add(int timeslot, double mWh, double limitPrice) {
+        if (mWh == 0.0 || Double.isNaN(mWh)) {
+            return;
+        }
+        if (count == timeslots.length) {
+            int capacity = count * 2;
+            timeslots = Arrays.copyOf(timeslots, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            sorted = new int[capacity];
+        }
+        timeslots[count] = timeslot;
+        quantities[count] = mWh;
+        prices[count] = limitPrice;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Nets the proposals, sends the surviving orders and empties the batch.
+     * Can be called more than once per activation; later flushes are netted
+     * against what earlier ones sent. Returns the number of orders sent.
+     */
+    public int flush(PositionSource positions, OrderSender sender) {
+        sortProposals();
+        int sent = 0;
+        int lo = 0;
+        while (lo < count) {
+            int timeslot = timeslots[sorted[lo]];
+            int hi = lo + 1;
+            while (hi < count && timeslots[sorted[hi]] == timeslot) {
+                hi++;
+            }
+            sent += flushTimeslot(timeslot, lo, hi, positions, sender);
+            lo = hi;
+        }
+        count = 0;
+        return sent;
+    }
+
+    // Proposals sorted[lo..hi) all target timeslot, in ascending price order
+    private int flushTimeslot(int timeslot, int lo, int hi, PositionSource positions, OrderSender sender) {
+        double buys = 0.0;
+        double sells = 0.0;
+        for (int k = lo; k < hi; k++) {
+            double q = quantities[sorted[k]];
+            if (q > 0.0) {
+                buys += q;
+            } else {
+                sells -= q;
+            }
+        }
+        int offset = timeslot - currentTimeslot;
+        boolean tracked = offset >= 0 && offset <= HORIZON;
+        double cancel = Math.min(buys, sells);
+        double buyTrim = cancel + (tracked ? Math.min(buys - cancel, sentSell[offset]) : 0.0);
+        double sellTrim = cancel + (tracked ? Math.min(sells - cancel, sentBuy[offset]) : 0.0);
+        double sellLeft = sells - sellTrim;
+        if (sellCap && sellLeft > 0.0) {
+            double held = Math.max(0.0, positions.positionFor(timeslot));
+            sellTrim += Math.max(0.0, sellLeft - held);
+        }
+        // least aggressive buys have the highest (least negative) limit
+        // prices, as do the least aggressive sells
+        for (int k = hi - 1; k >= lo && buyTrim > 0.0; k--) {
+            buyTrim = trim(sorted[k], buyTrim, true);
+        }
+        for (int k = hi - 1; k >= lo && sellTrim > 0.0; k--) {
+            sellTrim = trim(sorted[k], sellTrim, false);
+        }
+        int sent = 0;
+        for (int k = lo; k < hi; k++) {
+            int i = sorted[k];
+            double q = quantities[i];
+            if (Math.abs(q) < minMWh) {
+                continue;
+            }
+            sender.send(timeslot, q, prices[i]);
+            if (tracked) {
+                if (q > 0.0) {
+                    sentBuy[offset] += q;
+                } else {
+                    sentSell[offset] -= q;
+                }
+            }
+            sent++;
+        }
+        return sent;
+    }
+
+    // Takes up to amount from proposal i if it is on the given side
+    private double trim(int i, double amount, boolean buy) {
+        double q = quantities[i];
+        if (buy ? q <= 0.0 : q >= 0.0) {
+            return amount;
+        }
+        double taken = Math.min(Math.abs(q), amount);
+        quantities[i] = buy ? q - taken : q + taken;
+        return amount - taken;
+    }
+
+    // Insertion sort of proposal indices by timeslot, then limit price
+    private void sortProposals() {
+        for (int i = 0; i < count; i++) {
+            int j = i;
+            while (j > 0 && before(i, sorted[j - 1])) {
+                sorted[j] = sorted[j - 1];
+                j--;
+            }
+            sorted[j] = i;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        if (timeslots[a] != timeslots[b]) {
+            return timeslots[a] < timeslots[b];
+        }
+        return prices[a] < prices[b];
+    }
+}
@@ -0,0 +1,79 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+/**
+ * Our net position, in MWh bought, for the current timeslot and the HORIZON
+ * open timeslots after it, kept in a primitive array from the MarketPosition
+ * messages. Slot 0 is the current timeslot; the array shifts when the
+ * current timeslot moves on, or when a position arrives for a timeslot past
+ * the end. Timeslots we hold nothing in are 0.
+ */
+public class PositionTracker {
+
+    public static final int HORIZON = 24;
+
+    private final double[] positions = new double[HORIZON + 1];
+
+    private int base = -1;
+
+    /**
+     * Moves slot 0 to currentTimeslot; never moves back.
+     */
+    public void shift(int currentTimeslot) {
+        if (base < 0) {
+            base = currentTimeslot;
+            return;
+        }
+        int by = currentTimeslot - base;
+        if (by <= 0) {
+            return;
+        }
+        if (by > HORIZON) {
+            Arrays.fill(positions, 0.0);
+        } else {
+            System.arraycopy(positions, by, positions, 0, HORIZON + 1 - by);
+            Arrays.fill(positions, HORIZON + 1 - by, HORIZON + 1, 0.0);
+        }
+        base = currentTimeslot;
+    }
+
+    /**
+     * Records the overall balance of a MarketPosition.
+     */
+    public void update(int timeslot, double overallBalance) {
+        if (base < 0 || timeslot > base + HORIZON) {
+            shift(timeslot - HORIZON);
+        }
+        int k = timeslot - base;
+        if (k >= 0 && k <= HORIZON) {
+            positions[k] = overallBalance;
+        }
+    }
+
+    /**
+     * Net MWh held for the timeslot, 0 outside the tracked range.
+     */
+    public double positionFor(int timeslot) {
+        int k = timeslot - base;
+        return base < 0 || k < 0 || k > HORIZON ? 0.0 : positions[k];
+    }
+
+    /**
+     * Writes, for each of the HORIZON timeslots after currentTimeslot, the
+     * MWh still needed: expected net usage, in kWh as the portfolio manager
+     * forecasts it (positive when we need energy), less what we hold.
+     */
+    public void neededMWh(int currentTimeslot, double[] usageKWh, double[] result) {
+        int offset = currentTimeslot + 1 - base;
+        for (int i = 0; i < HORIZON; i++) {
+            int k = offset + i;
+            double held = base < 0 || k < 0 || k > HORIZON ? 0.0 : positions[k];
+            result[i] = usageKWh[i] / 1000.0 - held;
+        }
+    }
+
+    public int getBase() {
+        return base;
+    }
+}
@@ -0,0 +1,210 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+/**
+ * Bounded LRU cache of prediction results, keyed by model, timeslot and a
+ * 64-bit hash of the feature row. Entries live in preallocated primitive
+ * arrays, indexed by an open-addressing table and linked in recency order,
+ * so get() and put() do not allocate. Not thread-safe.
+ */
+public class PredictionCache {
+
+    private static final int NONE = -1;
+
+    private final int capacity;
+
+    private final int width;
+
+    private final int[] model;
+
+    private final int[] timeslot;
+
+    private final long[] hash;
+
+    private final double[] values;
+
+    // recency list, most recent at head
+    private final int[] prev;
+
+    private final int[] next;
+
+    private int head = NONE;
+
+    private int tail = NONE;
+
+    private int size = 0;
+
+    // open-addressing index of entries, NONE when free
+    private final int[] table;
+
+    private final int tableMask;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /**
+     * A cache of capacity results of width values each.
+     */
+    public PredictionCache(int capacity, int width) {
+        this.capacity = Math.max(1, capacity);
+        this.width = width;
+        model = new int[this.capacity];
+        timeslot = new int[this.capacity];
+        hash = new long[this.capacity];
+        values = new double[this.capacity * width];
+        prev = new int[this.capacity];
+        next = new int[this.capacity];
+        int tableSize = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+        table = new int[tableSize];
+        tableMask = tableSize - 1;
+        Arrays.fill(table, NONE);
+    }
+
+    /**
+     * Hash of the first length features, for use as a cache key.
+     */
+    public static long hash(double[] features, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= Double.doubleToLongBits(features[i]);
+            h *= 0x100000001b3L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    /**
+     * Copies the cached result into result and returns true, or returns false
+     * on a miss.
+     */
+    public boolean get(int modelId, int timeslotIndex, long featureHash, double[] result) {
+        int entry = find(modelId, timeslotIndex, featureHash);
+        if (entry == NONE) {
+            misses++;
+            return false;
+        }
+        hits++;
+        touch(entry);
+        System.arraycopy(values, entry * width, result, 0, width);
+        return true;
+    }
+
+    /**
+     * Stores the first width values of result, evicting the least recently
+     * used entry when full.
+     */
+    public void put(int modelId, int timeslotIndex, long featureHash, double[] result) {
+        int entry = find(modelId, timeslotIndex, featureHash);
+        if (entry == NONE) {
+            if (size < capacity) {
+                entry = size++;
+            } else {
+                entry = tail;
+                remove(entry);
+                unlink(entry);
+            }
+            model[entry] = modelId;
+            timeslot[entry] = timeslotIndex;
+            hash[entry] = featureHash;
+            insert(entry);
+            linkFirst(entry);
+        } else {
+            touch(entry);
+        }
+        System.arraycopy(result, 0, values, entry * width, width);
+    }
+
+    public void clear() {
+        Arrays.fill(table, NONE);
+        head = NONE;
+        tail = NONE;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private int slotFor(int modelId, int timeslotIndex, long featureHash) {
+        long h = featureHash ^ ((long) modelId << 32 | (timeslotIndex & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & tableMask;
+    }
+
+    private int find(int modelId, int timeslotIndex, long featureHash) {
+        int slot = slotFor(modelId, timeslotIndex, featureHash);
+        while (table[slot] != NONE) {
+            int entry = table[slot];
+            if (hash[entry] == featureHash && timeslot[entry] == timeslotIndex && model[entry] == modelId) {
+                return entry;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return NONE;
+    }
+
+    private void insert(int entry) {
+        int slot = slotFor(model[entry], timeslot[entry], hash[entry]);
+        while (table[slot] != NONE) {
+            slot = (slot + 1) & tableMask;
+        }
+        table[slot] = entry;
+    }
+
+    // Removes entry from the index, shifting later entries of its probe run back
+    private void remove(int entry) {
+        int slot = slotFor(model[entry], timeslot[entry], hash[entry]);
+        while (table[slot] != entry) {
+            slot = (slot + 1) & tableMask;
+        }
+        table[slot] = NONE;
+        int probe = (slot + 1) & tableMask;
+        while (table[probe] != NONE) {
+            int moved = table[probe];
+            table[probe] = NONE;
+            insert(moved);
+            probe = (probe + 1) & tableMask;
+        }
+    }
+
+    private void touch(int entry) {
+        if (entry != head) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+
+    private void unlink(int entry) {
+        if (prev[entry] != NONE) {
+            next[prev[entry]] = next[entry];
+        } else {
+            head = next[entry];
+        }
+        if (next[entry] != NONE) {
+            prev[next[entry]] = prev[entry];
+        } else {
+            tail = prev[entry];
+        }
+    }
+
+    private void linkFirst(int entry) {
+        prev[entry] = NONE;
+        next[entry] = head;
+        if (head != NONE) {
+            prev[head] = entry;
+        }
+        head = entry;
+        if (tail == NONE) {
+            tail = entry;
+        }
+    }
+}
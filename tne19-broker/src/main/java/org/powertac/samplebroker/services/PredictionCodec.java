@@ -0,0 +1,428 @@
+package org.powertac.samplebroker.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Encodes prediction requests and decodes prediction answers as bytes, with
+ * buffers that are reused from one request to the next. Feature rows are
+ * written straight into a byte array, which is sent as the request entity,
+ * and the answer's "prediction" array is parsed from the response bytes into
+ * a double[]; a prediction makes no garbage beyond what the HTTP client
+ * does. Not thread-safe: each thread needs its own codec.
+ *
+ * Features are written with at most DECIMALS decimal places, which is far
+ * finer than the models can tell apart. Magnitudes under 1e-3, which six
+ * decimals would round by more than a thousandth, and magnitudes of 1e12 or
+ * more are written as Double.toString does. Answers are parsed exactly for up
+ * to 15 significant digits; longer numbers, as Python writes them, may be
+ * one unit off in the last place.
+ */
+public class PredictionCodec {
+
+    public static final int HORIZON = 24;
+
+    public static final int DECIMALS = 6;
+
+    private static final long SCALE = 1000000L;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private static final byte[] DATA = "{\"data\":[".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] PREDICTION = "\"prediction\"".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] INFINITY = "Infinity".getBytes(StandardCharsets.US_ASCII);
+
+    private final Entity entity = new Entity(4096);
+
+    // digits of a number being written, last digit first
+    private final byte[] digits = new byte[20];
+
+    private byte[] response = new byte[4096];
+
+    private int length = 0;
+
+    private int position = 0;
+
+    private double[] values = new double[HORIZON];
+
+    private int count = 0;
+
+    /**
+     * Writes features as the prediction service's request body,
+     * {"data":[[...]]}, and returns it as an entity. The entity is valid
+     * until the next call to encode.
+     */
+    public HttpEntity encode(double[] features, int width) {
+        entity.clear();
+        entity.append(DATA);
+        row(features, width);
+        entity.append(']').append('}');
+        return entity;
+    }
+
+    /**
+     * Writes the first rows rows of features as a batch request body,
+     * {"data":[[...],[...],...]}.
+     */
+    public HttpEntity encode(double[][] features, int rows, int width) {
+        entity.clear();
+        entity.append(DATA);
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) {
+                entity.append(',');
+            }
+            row(features[r], width);
+        }
+        entity.append(']').append('}');
+        return entity;
+    }
+
+    /**
+     * Size in bytes of the last request encoded.
+     */
+    public int getEncodedLength() {
+        return entity.size;
+    }
+
+    private void row(double[] features, int width) {
+        entity.append('[');
+        for (int k = 0; k < width; k++) {
+            if (k > 0) {
+                entity.append(',');
+            }
+            write(features[k]);
+        }
+        entity.append(']');
+    }
+
+    // Whole numbers as integers, others with up to DECIMALS decimals
+    private void write(double value) {
+        if (Double.isNaN(value)) {
+            entity.append(NAN);
+            return;
+        }
+        if (Double.isInfinite(value)) {
+            if (value < 0) {
+                entity.append('-');
+            }
+            entity.append(INFINITY);
+            return;
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+            return;
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= 1e12 || magnitude < 1e-3) {
+            entity.append(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        long scaled = Math.round(magnitude * SCALE);
+        if (value < 0) {
+            entity.append('-');
+        }
+        writeLong(scaled / SCALE);
+        long fraction = scaled % SCALE;
+        if (fraction == 0) {
+            return;
+        }
+        int places = DECIMALS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            places--;
+        }
+        entity.append('.');
+        int n = 0;
+        for (; n < places; n++) {
+            digits[n] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        while (n > 0) {
+            entity.append(digits[--n]);
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value < 0) {
+            entity.append('-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (n > 0) {
+            entity.append(digits[--n]);
+        }
+    }
+
+    /**
+     * Reads an answer {"prediction":[...]} and copies its first HORIZON
+     * values into result. Returns false, leaving result unchanged, when the
+     * answer has fewer values or is not one.
+     */
+    public boolean decode(InputStream in, double[] result) throws IOException {
+        if (!read(in) || count < HORIZON) {
+            return false;
+        }
+        System.arraycopy(values, 0, result, 0, HORIZON);
+        return true;
+    }
+
+    /**
+     * Reads a batch answer of rows * HORIZON values, row by row, into
+     * result. Returns false, writing nothing, when the answer has another
+     * number of values or is not one.
+     */
+    public boolean decode(InputStream in, int rows, double[][] result) throws IOException {
+        if (!read(in) || count != rows * HORIZON) {
+            return false;
+        }
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(values, r * HORIZON, result[r], 0, HORIZON);
+        }
+        return true;
+    }
+
+    // Reads the whole answer and parses its prediction array into values
+    private boolean read(InputStream in) throws IOException {
+        length = 0;
+        count = 0;
+        int n;
+        while ((n = in.read(response, length, response.length - length)) >= 0) {
+            length += n;
+            if (length == response.length) {
+                response = Arrays.copyOf(response, response.length * 2);
+            }
+        }
+        position = find(PREDICTION);
+        if (position < 0) {
+            return false;
+        }
+        skipSpace();
+        if (!expect(':')) {
+            return false;
+        }
+        skipSpace();
+        if (!expect('[')) {
+            return false;
+        }
+        skipSpace();
+        if (position < length && response[position] == ']') {
+            return true;
+        }
+        while (position < length) {
+            skipSpace();
+            double value = number();
+            if (position < 0) {
+                return false;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = value;
+            skipSpace();
+            if (expect(']')) {
+                return true;
+            }
+            if (!expect(',')) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private int find(byte[] key) {
+        outer: for (int k = 0; k <= length - key.length; k++) {
+            for (int j = 0; j < key.length; j++) {
+                if (response[k + j] != key[j]) {
+                    continue outer;
+                }
+            }
+            return k + key.length;
+        }
+        return -1;
+    }
+
+    private void skipSpace() {
+        while (position < length && (response[position] == ' ' || response[position] == '\n'
+                || response[position] == '\r' || response[position] == '\t')) {
+            position++;
+        }
+    }
+
+    private boolean expect(char c) {
+        if (position < length && response[position] == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean matches(byte[] word) {
+        if (position + word.length > length) {
+            return false;
+        }
+        for (int j = 0; j < word.length; j++) {
+            if (response[position + j] != word[j]) {
+                return false;
+            }
+        }
+        position += word.length;
+        return true;
+    }
+
+    /**
+     * Parses the number at position. Up to 18 significant digits are kept in
+     * a long, and scaled by one correctly rounded multiplication or
+     * division; exponents beyond the table go through Double.parseDouble.
+     * Sets position to -1 when there is no number.
+     */
+    private double number() {
+        int start = position;
+        boolean negative = expect('-');
+        if (matches(NAN)) {
+            return Double.NaN;
+        }
+        if (matches(INFINITY)) {
+            return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        int scale = 0;
+        boolean fraction = false;
+        boolean any = false;
+        for (; position < length; position++) {
+            byte b = response[position];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (significant < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        significant++;
+                    }
+                    if (fraction) {
+                        scale--;
+                    }
+                } else if (!fraction) {
+                    scale++;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (!any) {
+            position = -1;
+            return 0.0;
+        }
+        if (position < length && (response[position] == 'e' || response[position] == 'E')) {
+            position++;
+            boolean negativeExponent = expect('-');
+            if (!negativeExponent) {
+                expect('+');
+            }
+            int exponent = 0;
+            boolean digit = false;
+            while (position < length && response[position] >= '0' && response[position] <= '9') {
+                exponent = Math.min(exponent * 10 + (response[position] - '0'), 1000);
+                position++;
+                digit = true;
+            }
+            if (!digit) {
+                position = -1;
+                return 0.0;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (scale < -22 || scale > 22) {
+            return Double.parseDouble(new String(response, start, position - start, StandardCharsets.US_ASCII));
+        }
+        double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * The request body, a growable byte array that can be sent again.
+     */
+    private static class Entity extends AbstractHttpEntity {
+
+        private byte[] bytes;
+
+        private int size = 0;
+
+        Entity(int capacity) {
+            bytes = new byte[capacity];
+            setContentType("application/json");
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        Entity append(char c) {
+            return append((byte) c);
+        }
+
+        Entity append(byte b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = b;
+            return this;
+        }
+
+        Entity append(byte[] b) {
+            for (byte x : b) {
+                append(x);
+            }
+            return this;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return size;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(bytes, 0, size);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+            out.flush();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
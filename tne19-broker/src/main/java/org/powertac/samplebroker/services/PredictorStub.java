@@ -0,0 +1,243 @@
+package org.powertac.samplebroker.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Flask prediction service in predict-model. It
+ * serves /predict/energy and /predict/price with the same JSON contract,
+ * {"prediction": [...]}, and their /batch variants, which answer N request
+ * rows with N * 24 values, on an ephemeral localhost port, with configurable
+ * latency, failure rate and response shape. Point API at getUrl() to exercise
+ * the prediction path, its timeouts and its fallbacks without Python.
+ */
+public class PredictorStub {
+
+    public enum Shape {
+        // 24 values
+        NORMAL,
+        // "prediction": []
+        EMPTY,
+        // fewer than 24 values
+        SHORT,
+        // no "prediction" member
+        MISSING,
+        // body that is not JSON
+        MALFORMED
+    }
+
+    public static final int HORIZON = 24;
+
+    private HttpServer server;
+
+    private Random random = new Random();
+
+    private long minLatencyMillis = 0;
+
+    private long maxLatencyMillis = 0;
+
+    private double failureRate = 0.0;
+
+    private Shape shape = Shape.NORMAL;
+
+    private double[] energy = new double[HORIZON];
+
+    private double[] price = new double[HORIZON];
+
+    private AtomicLong requests = new AtomicLong();
+
+    private AtomicLong failures = new AtomicLong();
+
+    public PredictorStub() {
+        for (int i = 0; i < HORIZON; i++) {
+            energy[i] = 40.0 + 10.0 * Math.sin(i * Math.PI / 12.0);
+            price[i] = 35.0 + 15.0 * Math.sin(i * Math.PI / 12.0);
+        }
+    }
+
+    /**
+     * Starts serving on the given port, or on an ephemeral port when port is 0.
+     */
+    public synchronized PredictorStub start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/predict/energy", new PredictionHandler(energy));
+        server.createContext("/predict/price", new PredictionHandler(price));
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "predictor-stub");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Base URL to configure as the API's predictorUrl.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public PredictorStub withLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+        return this;
+    }
+
+    public PredictorStub withFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    public PredictorStub withShape(Shape shape) {
+        this.shape = shape;
+        return this;
+    }
+
+    public PredictorStub withSeed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    public PredictorStub withEnergy(double[] values) {
+        System.arraycopy(values, 0, energy, 0, HORIZON);
+        return this;
+    }
+
+    public PredictorStub withPrice(double[] values) {
+        System.arraycopy(values, 0, price, 0, HORIZON);
+        return this;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private class PredictionHandler implements HttpHandler {
+
+        private double[] values;
+
+        PredictionHandler(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            // the request is read fully; only its rows are counted
+            int brackets = 0;
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '[') {
+                            brackets++;
+                        }
+                    }
+                }
+            }
+            boolean batch = exchange.getRequestURI().getPath().endsWith("/batch");
+            int rows = batch ? Math.max(0, brackets - 1) : 1;
+            long latency = minLatencyMillis + (long) (nextDouble() * (maxLatencyMillis - minLatencyMillis));
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (nextDouble() < failureRate) {
+                failures.incrementAndGet();
+                respond(exchange, 500, "{\"error\": \"injected failure\"}");
+                return;
+            }
+            String body = body(rows);
+            if (batch && body.startsWith("{\"")) {
+                body = "{\"rows\": " + rows + ", " + body.substring(1);
+            }
+            respond(exchange, 200, body);
+        }
+
+        private String body(int rows) {
+            switch (shape) {
+            case EMPTY:
+                return "{\"prediction\": []}";
+            case SHORT:
+                return "{\"prediction\": " + array(rows * HORIZON / 2) + "}";
+            case MISSING:
+                return "{}";
+            case MALFORMED:
+                return "prediction: not json";
+            default:
+                return "{\"prediction\": " + array(rows * HORIZON) + "}";
+            }
+        }
+
+        private String array(int length) {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(values[i % HORIZON]);
+            }
+            return sb.append(']').toString();
+        }
+
+        private void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Runs the stub standalone for load runs:
+     * PredictorStub [port] [minLatencyMs] [maxLatencyMs] [failureRate] [shape]
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        PredictorStub stub = new PredictorStub();
+        if (args.length > 2) {
+            stub.withLatency(Long.parseLong(args[1]), Long.parseLong(args[2]));
+        }
+        if (args.length > 3) {
+            stub.withFailureRate(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            stub.withShape(Shape.valueOf(args[4]));
+        }
+        stub.start(port);
+        System.out.println("Predictor stub listening on " + stub.getUrl());
+    }
+}
@@ -69,22 +69,7 @@ public class PrintService {
             // TCA - Total Cleared Amount
             // PCP - Partial Cleared Price
             // TCP - Total Cleared Price
-            StringBuilder sb = new StringBuilder();
-            sb.append("Timeslot,WeekDay,");
-            for (int i = 24; i > 0; i--) {
-                sb.append("CA"+i+",CP"+i+",T"+i+",WS"+i+",");
-            }
-            sb.append("CT,CWS,");
-            for (int i = 1; i <= 24; i++) {
-                sb.append("PCA"+i+",PCP"+i+",");
-            }
-            for (int i = 1; i <= 24; i++) {
-                sb.append("TF"+i+",WSF"+i+",");
-            }
-            for (int i = 1; i <= 24; i++) {
-                sb.append("TCA"+i+",TCP"+i+",");
-            }
-            out.write(sb.toString() + "\n");
+            out.write(FeatureBuilder.csvHeader(new StringBuilder()).toString());
             initialized = true;
         } catch (FileNotFoundException e) {
             e.printStackTrace();
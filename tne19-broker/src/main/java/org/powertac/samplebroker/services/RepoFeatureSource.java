@@ -0,0 +1,92 @@
+package org.powertac.samplebroker.services;
+
+import java.util.ArrayList;
+
+import org.powertac.samplebroker.domain.Cleared;
+import org.powertac.samplebroker.domain.PartialCleared;
+import org.powertac.samplebroker.domain.PredictionKey;
+import org.powertac.samplebroker.domain.Weather;
+import org.powertac.samplebroker.domain.WeatherPrediction;
+import org.powertac.samplebroker.interfaces.FeatureSource;
+import org.powertac.samplebroker.repos.ClearedFuturesRepo;
+import org.powertac.samplebroker.repos.ClearedRepo;
+import org.powertac.samplebroker.repos.WeatherForecastRepo;
+import org.powertac.samplebroker.repos.WeatherReportRepo;
+
+/**
+ * FeatureSource over the broker's repositories, filled by MarketManagerService
+ * as messages arrive. Holds no state of its own, so it can be shared.
+ */
+public class RepoFeatureSource implements FeatureSource {
+
+    private WeatherForecastRepo weatherForecastRepo = new WeatherForecastRepo();
+
+    private WeatherReportRepo weatherReportRepo = new WeatherReportRepo();
+
+    private ClearedRepo clearedRepo = new ClearedRepo();
+
+    private ClearedFuturesRepo clearedFuturesRepo = new ClearedFuturesRepo();
+
+    @Override
+    public double clearedQuantity(int timeslot) {
+        PartialCleared cleared = clearedFuturesRepo.findById(timeslot);
+        return cleared == null ? Double.NaN : cleared.getQuantity();
+    }
+
+    @Override
+    public double clearedPrice(int timeslot) {
+        PartialCleared cleared = clearedFuturesRepo.findById(timeslot);
+        return cleared == null ? Double.NaN : cleared.getMeanPrice();
+    }
+
+    @Override
+    public double partialQuantity(int origin, int timeslot) {
+        PartialCleared partial = partial(origin, timeslot);
+        return partial == null ? missing(origin) : partial.getQuantity();
+    }
+
+    @Override
+    public double partialPrice(int origin, int timeslot) {
+        PartialCleared partial = partial(origin, timeslot);
+        return partial == null ? missing(origin) : partial.getMeanPrice();
+    }
+
+    // Nothing cleared yet when the origin was seen, unknown otherwise
+    private double missing(int origin) {
+        return clearedRepo.findById(origin) == null ? Double.NaN : 0.0;
+    }
+
+    private PartialCleared partial(int origin, int timeslot) {
+        Cleared cleared = clearedRepo.findById(origin);
+        if (cleared == null) {
+            return null;
+        }
+        ArrayList<PartialCleared> future = cleared.getFutureCleared();
+        int k = timeslot - origin - 1;
+        return k >= 0 && k < future.size() ? future.get(k) : null;
+    }
+
+    @Override
+    public double temperature(int timeslot) {
+        Weather report = weatherReportRepo.findById(timeslot);
+        return report == null ? Double.NaN : report.getTemperature();
+    }
+
+    @Override
+    public double windSpeed(int timeslot) {
+        Weather report = weatherReportRepo.findById(timeslot);
+        return report == null ? Double.NaN : report.getWindSpeed();
+    }
+
+    @Override
+    public double forecastTemperature(int origin, int timeslot) {
+        WeatherPrediction prediction = weatherForecastRepo.findById(new PredictionKey(origin, timeslot));
+        return prediction == null ? Double.NaN : prediction.getTemperature();
+    }
+
+    @Override
+    public double forecastWindSpeed(int origin, int timeslot) {
+        WeatherPrediction prediction = weatherForecastRepo.findById(new PredictionKey(origin, timeslot));
+        return prediction == null ? Double.NaN : prediction.getWindSpeed();
+    }
+}
@@ -0,0 +1,151 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+
+/**
+ * Local stand-in for the prediction service: hour-of-week means of the
+ * clearing price and cleared quantity. The means start from the market
+ * bootstrap data and follow the cleared-trade history once the game runs.
+ * Trades for a timeslot are pooled over all its auctions, and the timeslot
+ * is learned, at its volume-weighted price, once it can no longer trade.
+ */
+public class SeasonalFallbackPredictor {
+
+    public static final int HOURS_PER_WEEK = 168;
+
+    public static final int HORIZON = 24;
+
+    // smallest weight of a new week in a slot mean
+    private double alpha;
+
+    private double[] meanPrice = new double[HOURS_PER_WEEK];
+
+    private double[] meanMWh = new double[HOURS_PER_WEEK];
+
+    private int[] count = new int[HOURS_PER_WEEK];
+
+    // trades pooled by timeslot, HORIZON + 1 timeslots deep
+    private int[] pendingTimeslot = new int[HORIZON + 1];
+
+    private double[] pendingMWh = new double[HORIZON + 1];
+
+    private double[] pendingValue = new double[HORIZON + 1];
+
+    public SeasonalFallbackPredictor(double alpha) {
+        this.alpha = alpha;
+        Arrays.fill(pendingTimeslot, -1);
+    }
+
+    /**
+     * Learns the bootstrap period; index i of the arrays is timeslot
+     * firstTimeslot + i.
+     */
+    public void addBootstrap(int firstTimeslot, double[] mWh, double[] price) {
+        int n = Math.min(mWh.length, price.length);
+        for (int i = 0; i < n; i++) {
+            learn(firstTimeslot + i, mWh[i], price[i]);
+        }
+    }
+
+    /**
+     * Adds a cleared trade for timeslot.
+     */
+    public void observeClearing(int timeslot, double mWh, double price) {
+        if (Double.isNaN(mWh) || Double.isNaN(price) || timeslot < 0) {
+            return;
+        }
+        int row = timeslot % (HORIZON + 1);
+        if (pendingTimeslot[row] != timeslot) {
+            fold(row);
+            pendingTimeslot[row] = timeslot;
+        }
+        pendingMWh[row] += mWh;
+        pendingValue[row] += mWh * Math.abs(price);
+    }
+
+    /**
+     * Learns the pooled trades of every timeslot up to currentTimeslot, which
+     * have no auctions left.
+     */
+    public void complete(int currentTimeslot) {
+        for (int row = 0; row <= HORIZON; row++) {
+            if (pendingTimeslot[row] >= 0 && pendingTimeslot[row] <= currentTimeslot) {
+                fold(row);
+            }
+        }
+    }
+
+    /**
+     * Writes the mean price for timeslots origin + 1 .. origin + length into
+     * result, NaN where the hour has not been seen.
+     */
+    public void predictPrices(int origin, double[] result, int length) {
+        predict(meanPrice, origin, result, length, false);
+    }
+
+    /**
+     * Writes the mean cleared quantity, like predictPrices().
+     */
+    public void predictAmounts(int origin, double[] result, int length) {
+        predict(meanMWh, origin, result, length, false);
+    }
+
+    /**
+     * Replaces only the NaN entries of result with mean prices.
+     */
+    public void fillPrices(int origin, double[] result, int length) {
+        predict(meanPrice, origin, result, length, true);
+    }
+
+    /**
+     * Replaces only the NaN entries of result with mean quantities.
+     */
+    public void fillAmounts(int origin, double[] result, int length) {
+        predict(meanMWh, origin, result, length, true);
+    }
+
+    public boolean isReady() {
+        for (int c : count) {
+            if (c > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void predict(double[] mean, int origin, double[] result, int length, boolean onlyMissing) {
+        for (int j = 0; j < length; j++) {
+            if (onlyMissing && !Double.isNaN(result[j])) {
+                continue;
+            }
+            int slot = hourOfWeek(origin + j + 1);
+            result[j] = count[slot] > 0 ? mean[slot] : Double.NaN;
+        }
+    }
+
+    private void fold(int row) {
+        if (pendingTimeslot[row] >= 0 && pendingMWh[row] > 0.0) {
+            learn(pendingTimeslot[row], pendingMWh[row], pendingValue[row] / pendingMWh[row]);
+        }
+        pendingTimeslot[row] = -1;
+        pendingMWh[row] = 0.0;
+        pendingValue[row] = 0.0;
+    }
+
+    private void learn(int timeslot, double mWh, double price) {
+        if (Double.isNaN(mWh) || Double.isNaN(price)) {
+            return;
+        }
+        int slot = hourOfWeek(timeslot);
+        // plain averaging for the first weeks, then smoothing
+        double rate = Math.max(alpha, 1.0 / (count[slot] + 1));
+        meanPrice[slot] += rate * (Math.abs(price) - meanPrice[slot]);
+        meanMWh[slot] += rate * (mWh - meanMWh[slot]);
+        count[slot]++;
+    }
+
+    private static int hourOfWeek(int timeslot) {
+        int slot = timeslot % HOURS_PER_WEEK;
+        return slot < 0 ? slot + HOURS_PER_WEEK : slot;
+    }
+}
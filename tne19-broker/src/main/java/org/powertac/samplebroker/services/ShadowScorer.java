@@ -0,0 +1,303 @@
+package org.powertac.samplebroker.services;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.samplebroker.interfaces.PredictorTransport;
+
+/**
+ * Scores candidate models against the live ones without letting them near
+ * trading. Each feature row the live models are asked about is also sent to
+ * every candidate, on a single background thread, and the live and
+ * candidate predictions are kept until the row's labels are final (see
+ * OnlineModel). Every prediction is then written to the shadow file next to
+ * the outcome, and running MAE and RMSE are kept per model and horizon.
+ *
+ * Callers only queue work: when the queue is full the work is dropped,
+ * so a slow candidate never delays an activation. Candidates are named as
+ * the prediction service names them, starting with "energy" or "price" for
+ * the quantity they predict, for example "energy_mlp".
+ */
+public class ShadowScorer {
+    static private Logger log = LogManager.getLogger(ShadowScorer.class);
+
+    public static final int HORIZON = 24;
+
+    // rows kept per model, enough for a row to wait for its labels
+    private static final int ROWS = HORIZON + 2;
+
+    // models 0 and 1 are the live energy and price models, as in API
+    private final String[] names;
+
+    // 0 for quantity models, 1 for price models
+    private final int[] target;
+
+    private final PredictorTransport transport;
+
+    private final int timeoutMillis;
+
+    private final ThreadPoolExecutor executor;
+
+    // the rest is only touched by the executor thread, but for the stats
+    private final double[][][] predictions;
+
+    private final int[][] rowIndex;
+
+    private final long[][] count;
+
+    private final double[][] sumAbs;
+
+    private final double[][] sumSquares;
+
+    private BufferedWriter out;
+
+    private final StringBuilder line = new StringBuilder(1024);
+
+    private long scored = 0;
+
+    private long dropped = 0;
+
+    public ShadowScorer(String[] candidates, PredictorTransport transport, int timeoutMillis, String file) {
+        this.transport = transport;
+        this.timeoutMillis = timeoutMillis;
+        int n = candidates.length + 2;
+        names = new String[n];
+        target = new int[n];
+        names[0] = API.ENERGY;
+        names[1] = API.PRICE;
+        target[1] = 1;
+        for (int c = 0; c < candidates.length; c++) {
+            names[c + 2] = candidates[c];
+            target[c + 2] = candidates[c].startsWith(API.PRICE) ? 1 : 0;
+        }
+        predictions = new double[n][ROWS][HORIZON];
+        rowIndex = new int[n][ROWS];
+        for (int[] rows : rowIndex) {
+            Arrays.fill(rows, -1);
+        }
+        count = new long[n][HORIZON];
+        sumAbs = new double[n][HORIZON];
+        sumSquares = new double[n][HORIZON];
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64), r -> {
+            Thread thread = new Thread(r, "shadow-scorer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        open(file);
+    }
+
+    private void open(String file) {
+        try {
+            File f = new File(file);
+            if (f.getParentFile() != null) {
+                f.getParentFile().mkdirs();
+            }
+            out = new BufferedWriter(new FileWriter(f, false));
+            out.write("row,model");
+            for (int h = 1; h <= HORIZON; h++) {
+                out.write(",P" + h);
+            }
+            for (int h = 1; h <= HORIZON; h++) {
+                out.write(",A" + h);
+            }
+            out.write('\n');
+        } catch (IOException e) {
+            log.error("Cannot open shadow file {}: {}", file, e.toString());
+            out = null;
+        }
+    }
+
+    /**
+     * Queues the live prediction of model (0 energy, 1 price) for feature
+     * row i.
+     */
+    public void live(int model, int i, double[] result) {
+        double[] copy = Arrays.copyOf(result, HORIZON);
+        submit(() -> keep(model, i, copy));
+    }
+
+    /**
+     * Queues feature row i for the candidates, and the labels of an earlier
+     * row, finalRow, whose outcomes are now final: the cleared quantity of
+     * its HORIZON timeslots, then their mean prices, NaN where nothing
+     * cleared. finalRow is -1 when there is none.
+     */
+    public void observe(int i, double[] features, int finalRow, double[] labels) {
+        double[] row = Arrays.copyOf(features, FeatureBuilder.FEATURES);
+        double[] outcome = finalRow < 0 ? null : Arrays.copyOf(labels, 2 * HORIZON);
+        submit(() -> {
+            if (outcome != null) {
+                score(finalRow, outcome);
+            }
+            predictCandidates(i, row);
+        });
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                dropped++;
+            }
+        }
+    }
+
+    private void keep(int model, int i, double[] result) {
+        int slot = i % ROWS;
+        System.arraycopy(result, 0, predictions[model][slot], 0, HORIZON);
+        rowIndex[model][slot] = i;
+    }
+
+    private void predictCandidates(int i, double[] features) {
+        double[][] rows = { features };
+        double[][] result = new double[1][HORIZON];
+        for (int m = 2; m < names.length; m++) {
+            try {
+                if (transport.predictBatch(names[m], rows, 1, FeatureBuilder.FEATURES, timeoutMillis, result)) {
+                    keep(m, i, result[0]);
+                }
+            } catch (Exception e) {
+                log.debug("Shadow model {} failed: {}", names[m], e.toString());
+            }
+        }
+    }
+
+    // Scores every model's prediction for row i against its outcome
+    private void score(int i, double[] labels) {
+        int slot = i % ROWS;
+        for (int m = 0; m < names.length; m++) {
+            if (rowIndex[m][slot] != i) {
+                continue;
+            }
+            double[] predicted = predictions[m][slot];
+            int offset = target[m] * HORIZON;
+            synchronized (this) {
+                for (int h = 0; h < HORIZON; h++) {
+                    double error = predicted[h] - labels[offset + h];
+                    if (!Double.isNaN(error)) {
+                        count[m][h]++;
+                        sumAbs[m][h] += Math.abs(error);
+                        sumSquares[m][h] += error * error;
+                    }
+                }
+            }
+            write(i, m, predicted, labels, offset);
+            rowIndex[m][slot] = -1;
+        }
+        if (++scored % HORIZON == 0) {
+            for (int m = 0; m < names.length; m++) {
+                log.info("Shadow {}: MAE {} RMSE {} over {} rows", names[m], meanMae(m), meanRmse(m), count[m][0]);
+            }
+        }
+    }
+
+    private void write(int i, int m, double[] predicted, double[] labels, int offset) {
+        if (out == null) {
+            return;
+        }
+        line.setLength(0);
+        line.append(i).append(',').append(names[m]);
+        for (int h = 0; h < HORIZON; h++) {
+            line.append(',').append(predicted[h]);
+        }
+        for (int h = 0; h < HORIZON; h++) {
+            line.append(',').append(labels[offset + h]);
+        }
+        line.append('\n');
+        try {
+            out.write(line.toString());
+            out.flush();
+        } catch (IOException e) {
+            log.warn("Cannot write shadow file: {}", e.toString());
+            out = null;
+        }
+    }
+
+    private int model(String name) {
+        for (int m = 0; m < names.length; m++) {
+            if (names[m].equals(name)) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("Unknown model " + name);
+    }
+
+    /**
+     * Mean absolute error of the named model at horizon h (1..HORIZON), NaN
+     * before any row is scored.
+     */
+    public synchronized double mae(String name, int h) {
+        int m = model(name);
+        return count[m][h - 1] == 0 ? Double.NaN : sumAbs[m][h - 1] / count[m][h - 1];
+    }
+
+    /**
+     * Root mean squared error of the named model at horizon h.
+     */
+    public synchronized double rmse(String name, int h) {
+        int m = model(name);
+        return count[m][h - 1] == 0 ? Double.NaN : Math.sqrt(sumSquares[m][h - 1] / count[m][h - 1]);
+    }
+
+    private synchronized double meanMae(int m) {
+        return mean(m, false);
+    }
+
+    private synchronized double meanRmse(int m) {
+        return mean(m, true);
+    }
+
+    // Mean over the horizons of the per-horizon error
+    private double mean(int m, boolean squared) {
+        double sum = 0.0;
+        int n = 0;
+        for (int h = 0; h < HORIZON; h++) {
+            if (count[m][h] > 0) {
+                sum += squared ? Math.sqrt(sumSquares[m][h] / count[m][h]) : sumAbs[m][h] / count[m][h];
+                n++;
+            }
+        }
+        return n == 0 ? Double.NaN : sum / n;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public String[] getModels() {
+        return names.clone();
+    }
+
+    /**
+     * Stops scoring, waiting briefly for queued work, and closes the file.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        transport.close();
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // already gone
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,224 @@
+package org.powertac.samplebroker.services;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+import org.powertac.samplebroker.interfaces.PredictorTransport;
+
+/**
+ * Prediction requests as raw float64 frames over a Unix domain socket, for a
+ * prediction service on the same host; see predict-model/api.py. All values
+ * are little-endian. A request is three int32s, the model (0 energy, 1
+ * price), the number of rows and the row width, followed by rows * width
+ * float64 features. The answer is an int32 count, negative when the model
+ * failed, followed by count float64 values, HORIZON per row. There is no
+ * text to format or parse, and no HTTP header.
+ *
+ * The connection is kept open, and reopened after a failure. Each batch
+ * opens a connection of its own.
+ */
+public class UdsPredictorTransport implements PredictorTransport {
+
+    public static final int HORIZON = 24;
+
+    private static final int HEADER = 3 * Integer.BYTES;
+
+    private final Path socket;
+
+    private SocketChannel channel;
+
+    private Selector selector;
+
+    private ByteBuffer request = ByteBuffer.allocateDirect(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+    private ByteBuffer answer = ByteBuffer.allocateDirect(HORIZON * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer count = ByteBuffer.allocateDirect(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    private boolean prepared = false;
+
+    public UdsPredictorTransport(Path socket) {
+        this.socket = socket;
+    }
+
+    private static int modelId(String model) {
+        if (API.ENERGY.equals(model)) {
+            return 0;
+        }
+        if (API.PRICE.equals(model)) {
+            return 1;
+        }
+        throw new IllegalArgumentException("Unknown model " + model);
+    }
+
+    @Override
+    public String endpoint(String model) {
+        return "unix:" + socket + "#" + model;
+    }
+
+    @Override
+    public int prepare(String model, double[] features, int width) {
+        begin(modelId(model), 1, width);
+        putRow(features, width);
+        request.flip();
+        prepared = true;
+        return request.remaining();
+    }
+
+    private void begin(int model, int rows, int width) {
+        int size = HEADER + rows * width * Double.BYTES;
+        if (request.capacity() < size) {
+            request = ByteBuffer.allocateDirect(Math.max(size, request.capacity() * 2))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        request.clear();
+        request.putInt(model).putInt(rows).putInt(width);
+    }
+
+    private void putRow(double[] features, int width) {
+        for (int k = 0; k < width; k++) {
+            request.putDouble(features[k]);
+        }
+    }
+
+    @Override
+    public boolean exchange(int timeoutMillis, double[] result) throws IOException {
+        if (!prepared) {
+            throw new IllegalStateException("No prepared request");
+        }
+        prepared = false;
+        try {
+            int values = send(timeoutMillis);
+            if (values < HORIZON) {
+                return false;
+            }
+            for (int i = 0; i < HORIZON; i++) {
+                result[i] = answer.getDouble(i * Double.BYTES);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean predictBatch(String model, double[][] features, int rows, int width, int timeoutMillis,
+            double[][] result) throws IOException {
+        UdsPredictorTransport batch = new UdsPredictorTransport(socket);
+        try {
+            batch.begin(modelId(model), rows, width);
+            for (int r = 0; r < rows; r++) {
+                batch.putRow(features[r], width);
+            }
+            batch.request.flip();
+            if (batch.send(timeoutMillis) != rows * HORIZON) {
+                return false;
+            }
+            for (int r = 0; r < rows; r++) {
+                for (int i = 0; i < HORIZON; i++) {
+                    result[r][i] = batch.answer.getDouble((r * HORIZON + i) * Double.BYTES);
+                }
+            }
+            return true;
+        } finally {
+            batch.close();
+        }
+    }
+
+    // Sends the request and reads the answer, returning its number of values
+    private int send(int timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + Math.max(timeoutMillis, 1);
+        connect();
+        channel.write(request);
+        while (request.hasRemaining()) {
+            await(SelectionKey.OP_WRITE, deadline);
+            channel.write(request);
+        }
+        count.clear();
+        read(count, deadline);
+        int values = count.getInt(0);
+        if (values < 0) {
+            throw new IOException("prediction service failed to score");
+        }
+        int size = values * Double.BYTES;
+        if (answer.capacity() < size) {
+            answer = ByteBuffer.allocateDirect(Math.max(size, answer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        answer.clear();
+        answer.limit(size);
+        read(answer, deadline);
+        return values;
+    }
+
+    private void connect() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        SocketChannel opened = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            opened.connect(UnixDomainSocketAddress.of(socket));
+            opened.configureBlocking(false);
+            selector = Selector.open();
+            channel = opened;
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+    }
+
+    private void read(ByteBuffer buffer, long deadline) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("prediction service closed the connection");
+            }
+            if (buffer.hasRemaining()) {
+                await(SelectionKey.OP_READ, deadline);
+            }
+        }
+    }
+
+    // Waits until the channel is ready for op, or throws at the deadline
+    private void await(int op, long deadline) throws IOException {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+            throw new SocketTimeoutException("prediction service timed out");
+        }
+        SelectionKey key = channel.register(selector, op);
+        try {
+            if (selector.select(left) == 0) {
+                throw new SocketTimeoutException("prediction service timed out");
+            }
+        } finally {
+            selector.selectedKeys().clear();
+            key.interestOps(0);
+        }
+    }
+
+    @Override
+    public void close() {
+        prepared = false;
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // nothing left to release
+        } finally {
+            selector = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.powertac.samplebroker.services;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.domain.PredictionKey;
+import org.powertac.samplebroker.domain.Weather;
+import org.powertac.samplebroker.domain.WeatherPrediction;
+import org.powertac.samplebroker.repos.WeatherForecastRepo;
+import org.powertac.samplebroker.repos.WeatherReportRepo;
+import org.powertac.samplebroker.utils.HourOfWeekRegression;
+
+/**
+ * Per-power-type usage forecaster. Usage is learned per subscribed customer so
+ * that forecasts follow the subscribed population, using an hour-of-week
+ * baseline with weather effects taken from the weather report and forecast
+ * repos.
+ */
+public class UsageForecaster {
+
+    public static final int HORIZON = 24;
+
+    private WeatherForecastRepo weatherForecastRepo = new WeatherForecastRepo();
+
+    private WeatherReportRepo weatherReportRepo = new WeatherReportRepo();
+
+    private double alpha;
+
+    private double learningRate;
+
+    private Map<PowerType, HourOfWeekRegression> models = new HashMap<>();
+
+    // usage of the timeslot still being reported, per power type
+    private Map<PowerType, Pending> pending = new HashMap<>();
+
+    // bootstrap usage is summed over customers before it is learned
+    private Map<PowerType, Pending[]> bootstrap = new HashMap<>();
+
+    private double[] temperature = new double[HORIZON];
+
+    private double[] windSpeed = new double[HORIZON];
+
+    private double[] cloudCover = new double[HORIZON];
+
+    public UsageForecaster(double alpha, double learningRate) {
+        this.alpha = alpha;
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * Records bootstrap usage of one customer population for the timeslot
+     * index, counted like live timeslots, so from the first bootstrap
+     * timeslot after the discarded ones.
+     */
+    public void addBootstrapUsage(PowerType type, int index, double kWh, int population) {
+        Pending[] series = bootstrap.get(type);
+        if (series == null || series.length <= index) {
+            series = series == null ? new Pending[Math.max(index + 1, 336)]
+                    : Arrays.copyOf(series, Math.max(index + 1, series.length * 2));
+            bootstrap.put(type, series);
+        }
+        if (series[index] == null) {
+            series[index] = new Pending();
+            series[index].timeslot = index;
+        }
+        series[index].kWh += kWh;
+        series[index].population += population;
+    }
+
+    /**
+     * Records usage reported by a tariff transaction. A transaction for a later
+     * timeslot completes the one being accumulated for that power type.
+     */
+    public void addUsage(PowerType type, int timeslot, double kWh, int customerCount) {
+        Pending current = pending.get(type);
+        if (current == null) {
+            current = new Pending();
+            current.timeslot = timeslot;
+            pending.put(type, current);
+        } else if (current.timeslot != timeslot) {
+            if (timeslot < current.timeslot) {
+                return; // late report for a timeslot already learned
+            }
+            learn(type, current);
+            current.timeslot = timeslot;
+        }
+        current.kWh += kWh;
+        current.population += customerCount;
+    }
+
+    /**
+     * Learns the usage accumulated so far. Called once per activation, after
+     * all usage for the completed timeslot has arrived; later reports for that
+     * timeslot are ignored.
+     */
+    public void complete() {
+        if (!bootstrap.isEmpty()) {
+            for (Map.Entry<PowerType, Pending[]> entry : bootstrap.entrySet()) {
+                for (Pending p : entry.getValue()) {
+                    if (p != null) {
+                        learn(entry.getKey(), p);
+                    }
+                }
+            }
+            bootstrap.clear();
+        }
+        for (Map.Entry<PowerType, Pending> entry : pending.entrySet()) {
+            Pending p = entry.getValue();
+            if (p.population > 0) {
+                learn(entry.getKey(), p);
+                p.timeslot++;
+            }
+        }
+    }
+
+    /**
+     * Adds the usage forecast for HORIZON timeslots after origin into result,
+     * for the given subscribed population of each power type. Weather comes
+     * from the forecast issued in the origin timeslot.
+     */
+    public void forecast(int origin, Map<PowerType, Integer> population, double[] result) {
+        for (int j = 0; j < HORIZON; j++) {
+            WeatherPrediction prediction = weatherForecastRepo.findById(new PredictionKey(origin, origin + j + 1));
+            temperature[j] = prediction == null ? Double.NaN : value(prediction.getTemperature());
+            windSpeed[j] = prediction == null ? Double.NaN : value(prediction.getWindSpeed());
+            cloudCover[j] = prediction == null ? Double.NaN : value(prediction.getCloudCover());
+        }
+        for (Map.Entry<PowerType, Integer> entry : population.entrySet()) {
+            HourOfWeekRegression model = models.get(entry.getKey());
+            if (model != null && entry.getValue() > 0) {
+                model.predictHorizon(origin + 1, temperature, windSpeed, cloudCover, entry.getValue(), result,
+                        HORIZON);
+            }
+        }
+    }
+
+    public HourOfWeekRegression getModel(PowerType type) {
+        return models.get(type);
+    }
+
+    private void learn(PowerType type, Pending p) {
+        if (p.population > 0) {
+            HourOfWeekRegression model = models.get(type);
+            if (model == null) {
+                model = new HourOfWeekRegression(alpha, learningRate);
+                models.put(type, model);
+            }
+            Weather weather = weatherReportRepo.findById(p.timeslot);
+            if (weather == null) {
+                model.observe(p.timeslot, p.kWh / p.population, Double.NaN, Double.NaN, Double.NaN);
+            } else {
+                model.observe(p.timeslot, p.kWh / p.population, value(weather.getTemperature()),
+                        value(weather.getWindSpeed()), value(weather.getCloudCover()));
+            }
+        }
+        p.kWh = 0.0;
+        p.population = 0;
+    }
+
+    private static double value(Double boxed) {
+        return boxed == null ? Double.NaN : boxed;
+    }
+
+    private static class Pending {
+        int timeslot;
+        double kWh;
+        int population;
+    }
+}
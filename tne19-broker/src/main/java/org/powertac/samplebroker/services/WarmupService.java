@@ -0,0 +1,379 @@
+package org.powertac.samplebroker.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.common.enumerations.PowerType;
+import org.powertac.samplebroker.PortfolioManagerService;
+import org.powertac.samplebroker.core.BrokerPropertiesService;
+import org.powertac.samplebroker.dataset.StateLogHistory;
+import org.powertac.samplebroker.interfaces.BrokerContext;
+import org.powertac.samplebroker.interfaces.Initializable;
+import org.powertac.samplebroker.interfaces.WholesaleContext;
+import org.powertac.samplebroker.interfaces.WholesaleStrategy;
+import org.powertac.samplebroker.journal.JournalEvent;
+import org.powertac.samplebroker.repos.ClearingStatsRepo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Uses the bootstrap period, when the broker has nothing to trade, to get the
+ * paths of the first activation compiled and connected. When the market
+ * bootstrap data arrives, a background thread builds feature rows and runs a
+ * scratch copy of the wholesale strategy over a game made up from the
+ * bootstrap data, learns and queries a scratch usage forecaster on the
+ * customer bootstrap data, and sends each prediction model one single-row
+ * request over the connection the live predictions use. None of it touches
+ * the broker's own state. The thread stops after warmupIterations rounds,
+ * after warmupMillis, or when the first activation starts, whichever comes
+ * first.
+ */
+@Service
+public class WarmupService implements Initializable {
+    static private Logger log = LogManager.getLogger(WarmupService.class);
+
+    private static final int HORIZON = 24;
+
+    // customer bootstrap series kept for the scratch usage forecaster
+    private static final int MAX_SERIES = 32;
+
+    @Autowired
+    private BrokerPropertiesService propertiesService;
+
+    @Autowired
+    private API api;
+
+    @Autowired
+    private PortfolioManagerService portfolioManager;
+
+    @ConfigurableValue(valueType = "Boolean", description = "Warm up the trading paths during the bootstrap period")
+    private boolean warmupEnabled = true;
+
+    @ConfigurableValue(valueType = "Integer", description = "Feature and strategy rounds run by the warm-up")
+    private int warmupIterations = 3000;
+
+    @ConfigurableValue(valueType = "Integer", description = "Longest time in ms the warm-up may run")
+    private int warmupMillis = 15000;
+
+    private List<PowerType> seriesType = new ArrayList<>();
+
+    private List<double[]> seriesUsage = new ArrayList<>();
+
+    private List<Integer> seriesPopulation = new ArrayList<>();
+
+    private Thread thread = null;
+
+    private volatile boolean stopped = false;
+
+    private volatile int rounds = 0;
+
+    @Override
+    public synchronized void initialize(BrokerContext broker) {
+        propertiesService.configureMe(this);
+        stop();
+        seriesType.clear();
+        seriesUsage.clear();
+        seriesPopulation.clear();
+        thread = null;
+        stopped = false;
+        rounds = 0;
+    }
+
+    /**
+     * Keeps a customer's bootstrap net usage for the scratch usage
+     * forecaster. Ignored once the warm-up has started.
+     */
+    public synchronized void addCustomerBootstrap(PowerType type, double[] netUsage, int population) {
+        if (!warmupEnabled || thread != null || seriesUsage.size() >= MAX_SERIES) {
+            return;
+        }
+        seriesType.add(type);
+        seriesUsage.add(netUsage);
+        seriesPopulation.add(population);
+    }
+
+    /**
+     * Starts the warm-up thread on the market bootstrap data, mWh and price
+     * per timeslot from firstTimeslot. The strategy must be a fresh instance
+     * configured like the broker's own; it is run on the thread only.
+     */
+    public synchronized void start(int firstTimeslot, double[] mWh, double[] price, WholesaleStrategy strategy,
+            double minMWh, double fallbackAlpha) {
+        if (!warmupEnabled || thread != null || mWh.length < 3 * HORIZON) {
+            return;
+        }
+        Runner runner = new Runner(firstTimeslot, mWh, price, strategy, minMWh, fallbackAlpha,
+                new ArrayList<>(seriesType), new ArrayList<>(seriesUsage), new ArrayList<>(seriesPopulation));
+        thread = new Thread(runner, "warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    /**
+     * Stops a running warm-up; called when trading starts.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    private class Runner implements Runnable {
+
+        private final int first;
+
+        private final double[] mWh;
+
+        private final double[] price;
+
+        private final WholesaleStrategy strategy;
+
+        private final double minMWh;
+
+        private final double fallbackAlpha;
+
+        private final List<PowerType> types;
+
+        private final List<double[]> usage;
+
+        private final List<Integer> population;
+
+        Runner(int first, double[] mWh, double[] price, WholesaleStrategy strategy, double minMWh,
+                double fallbackAlpha, List<PowerType> types, List<double[]> usage, List<Integer> population) {
+            this.first = first;
+            this.mWh = mWh;
+            this.price = price;
+            this.strategy = strategy;
+            this.minMWh = minMWh;
+            this.fallbackAlpha = fallbackAlpha;
+            this.types = types;
+            this.usage = usage;
+            this.population = population;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            long end = start + warmupMillis;
+            try {
+                StateLogHistory history = syntheticHistory();
+                FeatureBuilder builder = new FeatureBuilder(history);
+                double[] features = new double[FeatureBuilder.FEATURES];
+                PredictionCodec codec = new PredictionCodec();
+                // rows whose features are all inside the bootstrap data
+                int low = first + HORIZON;
+                int span = mWh.length - 2 * HORIZON;
+                Context context = new Context(strategy, minMWh, fallbackAlpha, first, mWh, price);
+                UsageWarmup forecaster = usage.isEmpty() ? null : new UsageWarmup();
+                boolean sent = false;
+                int round = 0;
+                while (round < warmupIterations && !stopped && System.currentTimeMillis() < end) {
+                    int row = low + round % span;
+                    if (builder.build(row, features)) {
+                        PredictionCache.hash(features, FeatureBuilder.FEATURES);
+                        codec.encode(features, FeatureBuilder.FEATURES);
+                        if (!sent) {
+                            sent = true;
+                            boolean warm = api.warmUp(features, () -> stopped);
+                            log.info("Prediction service warm-up {}", warm ? "done" : "failed");
+                        }
+                    }
+                    context.step();
+                    if (forecaster != null) {
+                        forecaster.forecast(row);
+                    }
+                    rounds = ++round;
+                }
+                log.info("Warm-up ran {} rounds in {} ms", round, System.currentTimeMillis() - start);
+            } catch (RuntimeException e) {
+                log.warn("Warm-up failed after {} rounds: {}", rounds, e.toString());
+            }
+        }
+
+        // Trades cleared over each timeslot's 24 leads at its bootstrap
+        // price, with mild made-up weather and forecasts
+        private StateLogHistory syntheticHistory() {
+            StateLogHistory history = new StateLogHistory();
+            for (int i = 0; i < mWh.length; i++) {
+                int timeslot = first + i;
+                double temperature = 10.0 + 5.0 * Math.sin(2.0 * Math.PI * (timeslot % HORIZON) / HORIZON);
+                history.weatherReport(timeslot, temperature, 4.0);
+                for (int lead = 1; lead <= HORIZON; lead++) {
+                    history.forecastPrediction(lead, temperature, 4.0);
+                }
+                history.weatherForecast(timeslot);
+                for (int lead = 1; lead <= HORIZON && i + lead < mWh.length; lead++) {
+                    history.clearedTrade(timeslot + lead, mWh[i + lead] / HORIZON, price[i + lead]);
+                }
+            }
+            return history;
+        }
+
+        // Learns the customer bootstrap usage, as the first activation does
+        private class UsageWarmup {
+
+            private final UsageForecaster forecaster = portfolioManager.newUsageForecaster();
+
+            private final Map<PowerType, Integer> subscribed = new HashMap<>();
+
+            private final double[] result = new double[HORIZON];
+
+            UsageWarmup() {
+                for (int s = 0; s < usage.size(); s++) {
+                    double[] series = usage.get(s);
+                    for (int i = 0; i < series.length; i++) {
+                        forecaster.addBootstrapUsage(types.get(s), first + i, series[i], population.get(s));
+                    }
+                    subscribed.merge(types.get(s), population.get(s), Integer::sum);
+                }
+                forecaster.complete();
+            }
+
+            void forecast(int origin) {
+                Arrays.fill(result, 0.0);
+                forecaster.forecast(origin, subscribed, result);
+            }
+        }
+    }
+
+    /**
+     * A market made up from the bootstrap data: prices come from a seasonal
+     * predictor fed with it, every order fills at its limit price, and we
+     * need a small share of each timeslot's bootstrap quantity.
+     */
+    private static class Context implements WholesaleContext {
+
+        private final WholesaleStrategy strategy;
+
+        private final double minMWh;
+
+        private final int first;
+
+        private final double[] mWh;
+
+        private final double[] price;
+
+        private final SeasonalFallbackPredictor predictor;
+
+        private final OrderBatch orderBatch = new OrderBatch();
+
+        private final PositionTracker positions = new PositionTracker();
+
+        private final ClearingStatsRepo clearingStats = new ClearingStatsRepo(3);
+
+        private int currentTimeslot;
+
+        Context(WholesaleStrategy strategy, double minMWh, double fallbackAlpha, int first, double[] mWh,
+                double[] price) {
+            this.strategy = strategy;
+            this.minMWh = minMWh;
+            this.first = first;
+            this.mWh = mWh;
+            this.price = price;
+            this.predictor = new SeasonalFallbackPredictor(fallbackAlpha);
+            predictor.addBootstrap(first, mWh, price);
+            this.currentTimeslot = first + mWh.length;
+        }
+
+        void step() {
+            int origin = currentTimeslot;
+            currentTimeslot++;
+            for (int t = origin + 1; t <= origin + HORIZON; t++) {
+                strategy.observeClearing(t, origin, bootstrap(price, t));
+                clearingStats.add(t, origin, Math.abs(bootstrap(mWh, t)) / HORIZON, bootstrap(price, t));
+            }
+            predictor.complete(currentTimeslot);
+            orderBatch.begin(currentTimeslot, minMWh);
+            positions.shift(currentTimeslot);
+            strategy.apply(this);
+        }
+
+        // Bootstrap value of the same hour of the week
+        private double bootstrap(double[] values, int timeslot) {
+            return values[Math.floorMod(timeslot - first, values.length)];
+        }
+
+        private void send(int timeslot, double mWh, double limitPrice) {
+            positions.update(timeslot, positions.positionFor(timeslot) + mWh);
+        }
+
+        @Override
+        public int getCurrentTimeslot() {
+            return currentTimeslot;
+        }
+
+        @Override
+        public double positionFor(int timeslot) {
+            return positions.positionFor(timeslot);
+        }
+
+        @Override
+        public void neededMWh(double[] result) {
+            for (int i = 0; i < HORIZON; i++) {
+                int timeslot = currentTimeslot + 1 + i;
+                result[i] = Math.abs(bootstrap(mWh, timeslot)) * 0.01 - positions.positionFor(timeslot);
+            }
+        }
+
+        @Override
+        public double clearedMWh(int timeslot) {
+            return Math.abs(bootstrap(mWh, timeslot));
+        }
+
+        @Override
+        public double balancingCost(int timeslot, double mWh) {
+            return 2.0 * bootstrap(price, timeslot);
+        }
+
+        @Override
+        public int cheapestLead(int timeslot, int maxLead) {
+            return clearingStats.cheapestLead(timeslot, maxLead);
+        }
+
+        @Override
+        public double fillRatio(int lead, double mWh, double target) {
+            return Double.NaN;
+        }
+
+        @Override
+        public int loadPrices(double[] prices) {
+            Arrays.fill(prices, 0, HORIZON, Double.NaN);
+            predictor.fillPrices(currentTimeslot, prices, HORIZON);
+            return MODE_CACHED;
+        }
+
+        @Override
+        public int loadAmounts(double[] amounts) {
+            Arrays.fill(amounts, 0, HORIZON, Double.NaN);
+            predictor.fillAmounts(currentTimeslot, amounts, HORIZON);
+            return MODE_CACHED;
+        }
+
+        @Override
+        public void submitOrder(int timeslot, double mWh, double limitPrice) {
+            orderBatch.add(timeslot, mWh, limitPrice);
+        }
+
+        @Override
+        public int flush() {
+            return orderBatch.flush(this::positionFor, this::send);
+        }
+
+        @Override
+        public void stageDone(Enum<?> stage, int mode) {
+        }
+
+        @Override
+        public void record(JournalEvent event, long key, double a, double b) {
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.powertac.samplebroker.utils;
+
+/**
+ * Online usage model made of an hour-of-week baseline plus linear temperature,
+ * wind speed and cloud cover effects. Each observation updates the model in
+ * O(features): the baseline of its hour-of-week slot is smoothed towards the
+ * weather-corrected value and the weather weights take a normalized LMS step
+ * on the deviation of each feature from its running mean.
+ */
+public class HourOfWeekRegression {
+
+    public static final int HOURS_PER_WEEK = 168;
+
+    // temperature, wind speed, cloud cover
+    public static final int WEATHER_FEATURES = 3;
+
+    private double alpha;
+
+    private double learningRate;
+
+    private double[] baseline = new double[HOURS_PER_WEEK];
+
+    private int[] baselineCount = new int[HOURS_PER_WEEK];
+
+    private double[] weights = new double[WEATHER_FEATURES];
+
+    private double[] featureMean = new double[WEATHER_FEATURES];
+
+    private int[] featureCount = new int[WEATHER_FEATURES];
+
+    private double[] deviation = new double[WEATHER_FEATURES];
+
+    private long observations = 0;
+
+    public HourOfWeekRegression(double alpha, double learningRate) {
+        this.alpha = alpha;
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * Adds one observation. Weather values may be NaN when unknown, in which
+     * case that feature contributes nothing to the prediction or the update.
+     */
+    public void observe(int timeslot, double value, double temperature, double windSpeed, double cloudCover) {
+        int slot = hourOfWeek(timeslot);
+        deviations(temperature, windSpeed, cloudCover);
+        double weather = weatherEffect();
+
+        if (baselineCount[slot] == 0) {
+            baseline[slot] = value - weather;
+        } else {
+            double error = value - (baseline[slot] + weather);
+            double norm = 1e-6;
+            for (int k = 0; k < WEATHER_FEATURES; k++) {
+                norm += deviation[k] * deviation[k];
+            }
+            for (int k = 0; k < WEATHER_FEATURES; k++) {
+                weights[k] += learningRate * error * deviation[k] / norm;
+            }
+            // plain averaging until the slot has seen a few weeks, then smoothing
+            double rate = Math.max(alpha, 1.0 / (baselineCount[slot] + 1));
+            baseline[slot] += rate * (value - weatherEffect() - baseline[slot]);
+        }
+        baselineCount[slot]++;
+        updateMeans(temperature, windSpeed, cloudCover);
+        observations++;
+    }
+
+    /**
+     * Predicts a single timeslot.
+     */
+    public double predict(int timeslot, double temperature, double windSpeed, double cloudCover) {
+        deviations(temperature, windSpeed, cloudCover);
+        return baselineFor(hourOfWeek(timeslot)) + weatherEffect();
+    }
+
+    /**
+     * Predicts length consecutive timeslots starting at firstTimeslot, scaled by
+     * factor and added into result. Weather arrays are indexed from 0 like
+     * result.
+     */
+    public void predictHorizon(int firstTimeslot, double[] temperature, double[] windSpeed, double[] cloudCover,
+            double factor, double[] result, int length) {
+        double wT = weights[0];
+        double wW = weights[1];
+        double wC = weights[2];
+        double mT = featureMean[0];
+        double mW = featureMean[1];
+        double mC = featureMean[2];
+        int slot = hourOfWeek(firstTimeslot);
+        for (int i = 0; i < length; i++) {
+            double value = baselineFor(slot);
+            if (!Double.isNaN(temperature[i]) && featureCount[0] > 0) {
+                value += wT * (temperature[i] - mT);
+            }
+            if (!Double.isNaN(windSpeed[i]) && featureCount[1] > 0) {
+                value += wW * (windSpeed[i] - mW);
+            }
+            if (!Double.isNaN(cloudCover[i]) && featureCount[2] > 0) {
+                value += wC * (cloudCover[i] - mC);
+            }
+            result[i] += factor * value;
+            if (++slot == HOURS_PER_WEEK) {
+                slot = 0;
+            }
+        }
+    }
+
+    public long getObservations() {
+        return observations;
+    }
+
+    public double getWeight(int feature) {
+        return weights[feature];
+    }
+
+    // Falls back to the same hour on other days when this slot is still empty
+    private double baselineFor(int slot) {
+        if (baselineCount[slot] > 0) {
+            return baseline[slot];
+        }
+        double sum = 0.0;
+        int n = 0;
+        for (int s = slot % 24; s < HOURS_PER_WEEK; s += 24) {
+            if (baselineCount[s] > 0) {
+                sum += baseline[s];
+                n++;
+            }
+        }
+        return n > 0 ? sum / n : 0.0;
+    }
+
+    private void deviations(double temperature, double windSpeed, double cloudCover) {
+        deviation[0] = deviation(0, temperature);
+        deviation[1] = deviation(1, windSpeed);
+        deviation[2] = deviation(2, cloudCover);
+    }
+
+    private double deviation(int k, double value) {
+        if (Double.isNaN(value) || featureCount[k] == 0) {
+            return 0.0;
+        }
+        return value - featureMean[k];
+    }
+
+    private double weatherEffect() {
+        double result = 0.0;
+        for (int k = 0; k < WEATHER_FEATURES; k++) {
+            result += weights[k] * deviation[k];
+        }
+        return result;
+    }
+
+    private void updateMeans(double temperature, double windSpeed, double cloudCover) {
+        updateMean(0, temperature);
+        updateMean(1, windSpeed);
+        updateMean(2, cloudCover);
+    }
+
+    private void updateMean(int k, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        featureCount[k]++;
+        double rate = Math.max(alpha / 10.0, 1.0 / featureCount[k]);
+        featureMean[k] += rate * (value - featureMean[k]);
+    }
+
+    private static int hourOfWeek(int timeslot) {
+        int slot = timeslot % HOURS_PER_WEEK;
+        return slot < 0 ? slot + HOURS_PER_WEEK : slot;
+    }
+}
@@ -0,0 +1,212 @@
+package org.powertac.samplebroker.utils;
+
+import java.util.Arrays;
+
+/**
+ * Splits the quantity needed in each open timeslot into a ladder of limit
+ * prices. Levels are spread around the bias-corrected predicted price by the
+ * observed prediction error for that lead time, and shifted towards sure-to-trade
+ * prices as the number of remaining auctions for the timeslot falls. Works on
+ * preallocated primitive arrays; build() does not allocate.
+ *
+ * Prices follow the market convention: predicted prices are positive, buy
+ * limits are negative (we pay) and sell limits positive.
+ */
+public class LadderEngine {
+
+    public static final int HORIZON = 24;
+
+    // below this many observations the default error is used
+    private static final int MIN_ERROR_SAMPLES = 5;
+
+    private int levels;
+
+    // level spacing, in error standard deviations
+    private double spread = 1.0;
+
+    // extra price offset in the last auction, in error standard deviations
+    private double urgency = 2.0;
+
+    // error standard deviation as a fraction of price, before errors are known
+    private double defaultError = 0.15;
+
+    private double buyLimitPriceMin = -Double.MAX_VALUE;
+
+    private double buyLimitPriceMax = 0.0;
+
+    private double sellLimitPriceMin = 0.0;
+
+    private double sellLimitPriceMax = Double.MAX_VALUE;
+
+    // predictions by origin timeslot, HORIZON + 1 origins deep
+    private double[][] predictions = new double[HORIZON + 1][HORIZON];
+
+    private int[] predictionOrigin = new int[HORIZON + 1];
+
+    // running error statistics by lead, 1..HORIZON at index 0..HORIZON-1
+    private long[] errorCount = new long[HORIZON];
+
+    private double[] errorMean = new double[HORIZON];
+
+    private double[] errorM2 = new double[HORIZON];
+
+    private int size = 0;
+
+    private int[] ladderTimeslot;
+
+    private double[] ladderMWh;
+
+    private double[] ladderPrice;
+
+    public LadderEngine(int levels) {
+        this.levels = Math.max(1, levels);
+        ladderTimeslot = new int[HORIZON * this.levels];
+        ladderMWh = new double[HORIZON * this.levels];
+        ladderPrice = new double[HORIZON * this.levels];
+        Arrays.fill(predictionOrigin, -1);
+    }
+
+    public LadderEngine withSpread(double spread) {
+        this.spread = spread;
+        return this;
+    }
+
+    public LadderEngine withUrgency(double urgency) {
+        this.urgency = urgency;
+        return this;
+    }
+
+    public LadderEngine withDefaultError(double defaultError) {
+        this.defaultError = defaultError;
+        return this;
+    }
+
+    public LadderEngine withBuyLimits(double min, double max) {
+        this.buyLimitPriceMin = min;
+        this.buyLimitPriceMax = max;
+        return this;
+    }
+
+    public LadderEngine withSellLimits(double min, double max) {
+        this.sellLimitPriceMin = min;
+        this.sellLimitPriceMax = max;
+        return this;
+    }
+
+    /**
+     * Remembers the prices predicted in origin for origin + 1 .. origin +
+     * length, so later clearings can be scored against them.
+     */
+    public void recordPrediction(int origin, double[] prices, int length) {
+        int row = origin % (HORIZON + 1);
+        predictionOrigin[row] = origin;
+        double[] target = predictions[row];
+        int n = Math.min(length, HORIZON);
+        System.arraycopy(prices, 0, target, 0, n);
+        Arrays.fill(target, n, HORIZON, Double.NaN);
+    }
+
+    /**
+     * Scores a clearing of timeslot in the auction run during origin against
+     * the price predicted in origin.
+     */
+    public void observeClearing(int timeslot, int origin, double price) {
+        int lead = timeslot - origin;
+        int row = origin % (HORIZON + 1);
+        if (lead < 1 || lead > HORIZON || origin < 0 || predictionOrigin[row] != origin) {
+            return;
+        }
+        double predicted = predictions[row][lead - 1];
+        if (Double.isNaN(predicted) || Double.isNaN(price)) {
+            return;
+        }
+        int k = lead - 1;
+        double error = Math.abs(price) - predicted;
+        errorCount[k]++;
+        double delta = error - errorMean[k];
+        errorMean[k] += delta / errorCount[k];
+        errorM2[k] += delta * (error - errorMean[k]);
+    }
+
+    /**
+     * Standard deviation of the price error at the given lead, or the default
+     * fraction of price while too few clearings have been seen.
+     */
+    public double errorFor(int lead, double price) {
+        int k = Math.max(1, Math.min(lead, HORIZON)) - 1;
+        if (errorCount[k] < MIN_ERROR_SAMPLES) {
+            return defaultError * Math.abs(price);
+        }
+        return Math.sqrt(errorM2[k] / (errorCount[k] - 1));
+    }
+
+    /**
+     * Mean price error at the given lead, 0 while too few clearings have been
+     * seen.
+     */
+    public double biasFor(int lead) {
+        int k = Math.max(1, Math.min(lead, HORIZON)) - 1;
+        return errorCount[k] < MIN_ERROR_SAMPLES ? 0.0 : errorMean[k];
+    }
+
+    /**
+     * Builds the ladder for timeslots currentTimeslot + 1 .. + length from
+     * the predicted prices and needed quantities (positive to buy, negative to
+     * sell), indexed from 0. Quantities under minMWh are skipped, and fewer
+     * levels are used when a level would fall under minMWh. Returns the number
+     * of ladder entries.
+     */
+    public int build(int currentTimeslot, double[] prices, double[] neededMWh, int length, double minMWh) {
+        size = 0;
+        int n = Math.min(length, HORIZON);
+        for (int j = 0; j < n; j++) {
+            double needed = neededMWh[j];
+            double price = prices[j];
+            if (Double.isNaN(needed) || Double.isNaN(price) || Math.abs(needed) < minMWh) {
+                continue;
+            }
+            int remaining = j + 1;
+            double sigma = errorFor(remaining, price);
+            price += biasFor(remaining);
+            // none with a full day of auctions left, all of urgency in the last one
+            double shift = urgency * (HORIZON - remaining) / (HORIZON - 1);
+            int k = (int) Math.max(1, Math.min(levels, Math.floor(Math.abs(needed) / Math.max(minMWh, 1e-9))));
+            double quantity = needed / k;
+            for (int level = 0; level < k; level++) {
+                // level offsets spread evenly over [-spread, +spread], plus urgency
+                double z = (k == 1 ? 0.0 : spread * (2.0 * level / (k - 1) - 1.0)) + shift;
+                double limit;
+                if (needed > 0.0) {
+                    limit = clamp(-(price + z * sigma), buyLimitPriceMin, buyLimitPriceMax);
+                } else {
+                    limit = clamp(price - z * sigma, sellLimitPriceMin, sellLimitPriceMax);
+                }
+                ladderTimeslot[size] = currentTimeslot + j + 1;
+                ladderMWh[size] = quantity;
+                ladderPrice[size] = limit;
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getTimeslot(int i) {
+        return ladderTimeslot[i];
+    }
+
+    public double getMWh(int i) {
+        return ladderMWh[i];
+    }
+
+    public double getLimitPrice(int i) {
+        return ladderPrice[i];
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -26,4 +26,31 @@ public class MaxDifference {
         }
         return new Pair<Integer,Integer>(minIndex, maxIndex);
     }
+
+    /**
+     * Finds i < j with the largest values[j] - values[i] in one pass, over
+     * the first length values, skipping NaN. Returns {i, j}, or {-1, -1} when
+     * fewer than two values are known.
+     */
+    public static int[] maxDiff(double[] values, int length, int[] result)
+    {
+        int minIndex = -1;
+        result[0] = -1;
+        result[1] = -1;
+        double best = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < length; j++) {
+            if (Double.isNaN(values[j])) {
+                continue;
+            }
+            if (minIndex >= 0 && values[j] - values[minIndex] > best) {
+                best = values[j] - values[minIndex];
+                result[0] = minIndex;
+                result[1] = j;
+            }
+            if (minIndex < 0 || values[j] < values[minIndex]) {
+                minIndex = j;
+            }
+        }
+        return result;
+    }
 }
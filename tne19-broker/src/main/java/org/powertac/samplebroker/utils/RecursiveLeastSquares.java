@@ -0,0 +1,170 @@
+package org.powertac.samplebroker.utils;
+
+import java.util.Arrays;
+
+/**
+ * Multi-output linear model fitted by recursive least squares with
+ * exponential forgetting. All outputs share the inverse covariance matrix P,
+ * as they see the same inputs, so one update costs O(features^2 + outputs *
+ * features) and works on preallocated arrays. A constant bias input is added
+ * to the features. Outputs whose label is NaN are left alone by an update.
+ *
+ * With forgetting, directions the inputs stop exciting make P grow by
+ * 1/lambda per update; P is scaled back whenever its trace exceeds maxTrace.
+ */
+public class RecursiveLeastSquares {
+
+    private final int features;
+
+    private final int outputs;
+
+    private final int n;
+
+    private double lambda;
+
+    private double delta;
+
+    private double maxTrace;
+
+    // n x n, row major
+    private final double[] p;
+
+    // outputs x n, row major
+    private final double[] w;
+
+    // scratch: input with bias, P x, gain
+    private final double[] x;
+
+    private final double[] px;
+
+    private final double[] gain;
+
+    private long updates = 0;
+
+    /**
+     * A model of outputs outputs over features inputs, forgetting factor
+     * lambda (1 never forgets) and initial P = delta * I.
+     */
+    public RecursiveLeastSquares(int features, int outputs, double lambda, double delta) {
+        this.features = features;
+        this.outputs = outputs;
+        this.n = features + 1;
+        this.lambda = lambda;
+        this.delta = delta;
+        this.maxTrace = delta * n;
+        p = new double[n * n];
+        w = new double[outputs * n];
+        x = new double[n];
+        px = new double[n];
+        gain = new double[n];
+        reset();
+    }
+
+    public void reset() {
+        Arrays.fill(p, 0.0);
+        for (int i = 0; i < n; i++) {
+            p[i * n + i] = delta;
+        }
+        Arrays.fill(w, 0.0);
+        updates = 0;
+    }
+
+    /**
+     * Writes the predicted outputs for the first features values of input
+     * into result.
+     */
+    public void predict(double[] input, double[] result) {
+        for (int o = 0; o < outputs; o++) {
+            int row = o * n;
+            double y = w[row + features];
+            for (int j = 0; j < features; j++) {
+                y += w[row + j] * input[j];
+            }
+            result[o] = y;
+        }
+    }
+
+    /**
+     * Learns one observation: input features and their outputs labels.
+     * Returns false, learning nothing, when the input has a NaN or every
+     * label is NaN.
+     */
+    public boolean update(double[] input, double[] labels) {
+        boolean any = false;
+        for (int o = 0; o < outputs && !any; o++) {
+            any = !Double.isNaN(labels[o]);
+        }
+        if (!any) {
+            return false;
+        }
+        for (int j = 0; j < features; j++) {
+            if (Double.isNaN(input[j])) {
+                return false;
+            }
+            x[j] = input[j];
+        }
+        x[features] = 1.0;
+
+        // px = P x, denom = lambda + x' P x
+        double denom = lambda;
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            double sum = 0.0;
+            for (int j = 0; j < n; j++) {
+                sum += p[row + j] * x[j];
+            }
+            px[i] = sum;
+            denom += x[i] * sum;
+        }
+        for (int i = 0; i < n; i++) {
+            gain[i] = px[i] / denom;
+        }
+
+        // w += gain * (y - w x), per output with a label
+        for (int o = 0; o < outputs; o++) {
+            if (Double.isNaN(labels[o])) {
+                continue;
+            }
+            int row = o * n;
+            double error = labels[o];
+            for (int j = 0; j < n; j++) {
+                error -= w[row + j] * x[j];
+            }
+            for (int j = 0; j < n; j++) {
+                w[row + j] += gain[j] * error;
+            }
+        }
+
+        // P = (P - gain px') / lambda, symmetric as gain is px / denom
+        double trace = 0.0;
+        double scale = 1.0 / lambda;
+        for (int i = 0; i < n; i++) {
+            int row = i * n;
+            double gi = gain[i];
+            for (int j = 0; j < n; j++) {
+                p[row + j] = (p[row + j] - gi * px[j]) * scale;
+            }
+            trace += p[row + i];
+        }
+        if (trace > maxTrace) {
+            double shrink = maxTrace / trace;
+            for (int i = 0; i < p.length; i++) {
+                p[i] *= shrink;
+            }
+        }
+        updates++;
+        return true;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public int getOutputs() {
+        return outputs;
+    }
+}
@@ -0,0 +1,92 @@
+package org.powertac.samplebroker.repos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ClearingStatsRepoTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private ClearingStatsRepo repo;
+
+    @BeforeEach
+    public void setUp() {
+        repo = new ClearingStatsRepo(2);
+    }
+
+    @Test
+    public void keepsVolumeWeightedMeanAndVariance() {
+        // timeslot 30 is hour 6; cleared 3 auctions ahead
+        repo.add(30, 27, 1.0, 10.0);
+        repo.add(54, 51, 3.0, 20.0);
+        repo.add(78, 75, 4.0, 40.0);
+        assertEquals(3, repo.count(6, 3));
+        assertEquals(8.0, repo.volume(6, 3), EPSILON);
+        double mean = (10.0 + 60.0 + 160.0) / 8.0;
+        assertEquals(mean, repo.vwap(6, 3), EPSILON);
+        double variance = (1.0 * (10.0 - mean) * (10.0 - mean) + 3.0 * (20.0 - mean) * (20.0 - mean)
+                + 4.0 * (40.0 - mean) * (40.0 - mean)) / 8.0;
+        assertEquals(variance, repo.variance(6, 3), EPSILON);
+        assertEquals(3, repo.getCount());
+    }
+
+    @Test
+    public void cellsAreSeparateByHourAndLead() {
+        repo.add(30, 27, 1.0, 10.0);
+        repo.add(30, 26, 1.0, 20.0);
+        repo.add(31, 28, 1.0, 30.0);
+        assertEquals(10.0, repo.vwap(30, 3), EPSILON);
+        assertEquals(20.0, repo.vwap(30, 4), EPSILON);
+        assertEquals(30.0, repo.vwap(31, 3), EPSILON);
+        assertEquals(0.0, repo.variance(30, 3), EPSILON);
+        assertTrue(Double.isNaN(repo.vwap(32, 3)));
+        assertTrue(Double.isNaN(repo.variance(32, 3)));
+    }
+
+    @Test
+    public void ignoresTradesOutsideTheOpenTimeslots() {
+        repo.add(30, 30, 1.0, 10.0);
+        repo.add(30, 5, 1.0, 10.0);
+        repo.add(30, 27, 0.0, 10.0);
+        repo.add(30, 27, 1.0, Double.NaN);
+        assertEquals(0, repo.getCount());
+        assertThrows(IllegalArgumentException.class, () -> repo.vwap(30, 0));
+        assertThrows(IllegalArgumentException.class, () -> repo.count(30, 25));
+    }
+
+    @Test
+    public void cheapestLeadNeedsEnoughTrades() {
+        repo.add(30, 29, 1.0, 50.0);
+        repo.add(30, 20, 1.0, 10.0);
+        assertEquals(-1, repo.cheapestLead(30, 24));
+        repo.add(54, 53, 1.0, 50.0);
+        assertEquals(1, repo.cheapestLead(30, 24));
+        repo.add(54, 44, 1.0, 10.0);
+        assertEquals(10, repo.cheapestLead(30, 24));
+    }
+
+    @Test
+    public void cheapestLeadLooksOnlyUpToMaxLead() {
+        // hour 6: 40 at lead 1, 30 at lead 5, 20 at lead 12
+        for (int day = 0; day < 2; day++) {
+            int timeslot = 30 + 24 * day;
+            repo.add(timeslot, timeslot - 1, 1.0, 40.0);
+            repo.add(timeslot, timeslot - 5, 1.0, 30.0);
+            repo.add(timeslot, timeslot - 12, 1.0, 20.0);
+        }
+        assertEquals(12, repo.cheapestLead(6, 24));
+        assertEquals(12, repo.cheapestLead(6, 12));
+        assertEquals(5, repo.cheapestLead(6, 11));
+        assertEquals(1, repo.cheapestLead(6, 4));
+        assertEquals(-1, repo.cheapestLead(6, 0));
+        assertEquals(-1, repo.cheapestLead(7, 24));
+        // a cheaper lead learned later replaces the tabled one
+        repo.add(78, 76, 10.0, 0.0);
+        repo.add(102, 100, 10.0, 0.0);
+        assertEquals(2, repo.cheapestLead(6, 4));
+    }
+}
@@ -0,0 +1,132 @@
+package org.powertac.samplebroker.repos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FillRateRepoTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private FillRateRepo repo;
+
+    @BeforeEach
+    public void setUp() {
+        repo = new FillRateRepo(2);
+    }
+
+    @Test
+    public void betterPricedOrdersFillBeforeOrdersAtThePrice() {
+        // a ladder for timeslot 103 predicted at 40; clears at 40 for 1.5 MWh of ours
+        repo.submitted(100, 103, 1.0, -40.0, 40.0);
+        repo.submitted(100, 103, 1.0, -44.0, 40.0);
+        repo.submitted(100, 103, 1.0, -36.0, 40.0);
+        repo.filled(103, 1.0, -40.0);
+        repo.filled(103, 0.5, -40.0);
+        repo.settle();
+        assertEquals(1.0, repo.fillRate(3, 1.0, 1.1), EPSILON);
+        assertEquals(0.5, repo.fillRate(3, 1.0, 1.0), EPSILON);
+        assertEquals(0.0, repo.fillRate(3, 1.0, 0.9), EPSILON);
+        assertEquals(4.0, repo.improvement(3, 1.0, 1.1), EPSILON);
+        assertEquals(0.0, repo.improvement(3, 1.0, 1.0), EPSILON);
+        assertTrue(Double.isNaN(repo.improvement(3, 1.0, 0.9)));
+        assertEquals(3, repo.getCount());
+    }
+
+    @Test
+    public void sellsFillAtOrBelowTheClearingPrice() {
+        repo.submitted(100, 110, -2.0, 36.0, 40.0);
+        repo.submitted(100, 110, -2.0, 48.0, 40.0);
+        repo.filled(110, -2.0, 40.0);
+        repo.settle();
+        assertEquals(1.0, repo.fillRate(10, -1.0, 0.9), EPSILON);
+        assertEquals(4.0, repo.improvement(10, -1.0, 0.9), EPSILON);
+        assertEquals(0.0, repo.fillRate(10, -1.0, 1.2), EPSILON);
+        // buys at the same lead are another bucket
+        assertTrue(Double.isNaN(repo.fillRate(10, 1.0, 0.9)));
+    }
+
+    @Test
+    public void fillsAreKeptApartByLead() {
+        repo.submitted(100, 101, 1.0, -40.0, 40.0);
+        repo.submitted(100, 102, 1.0, -40.0, 40.0);
+        repo.filled(102, 1.0, -38.0);
+        repo.settle();
+        assertEquals(0.0, repo.fillRate(1, 1.0, 1.0), EPSILON);
+        assertEquals(1.0, repo.fillRate(2, 1.0, 1.0), EPSILON);
+        assertEquals(2.0, repo.improvement(2, 1.0, 1.0), EPSILON);
+    }
+
+    @Test
+    public void nextRoundSettlesThePreviousOne() {
+        repo.submitted(100, 105, 1.0, -40.0, 40.0);
+        repo.filled(105, 1.0, -40.0);
+        repo.submitted(101, 105, 1.0, -40.0, 40.0);
+        assertEquals(1, repo.getCount());
+        assertEquals(1.0, repo.fillRate(5, 1.0, 1.0), EPSILON);
+        // the fill of round 100 does not count for round 101
+        repo.settle();
+        assertEquals(0.0, repo.fillRate(4, 1.0, 1.0), EPSILON);
+    }
+
+    @Test
+    public void untrackedOrdersAndFillsAreIgnored() {
+        repo.filled(105, 1.0, -40.0);
+        repo.submitted(100, 105, 1.0, -40.0, Double.NaN);
+        repo.submitted(100, 130, 1.0, -40.0, 40.0);
+        repo.submitted(100, 105, 1.0, Double.NaN, 40.0);
+        repo.settle();
+        assertEquals(0, repo.getCount());
+        assertTrue(Double.isNaN(repo.fillRate(5, 1.0, 1.0)));
+    }
+
+    @Test
+    public void ratiosOutsideTheBinsAreClamped() {
+        repo.submitted(100, 105, 1.0, -400.0, 40.0);
+        repo.submitted(100, 105, 1.0, -4.0, 40.0);
+        repo.settle();
+        assertEquals(1, repo.orders(5, 1.0, FillRateRepo.RATIO_MIN + (FillRateRepo.BINS - 1) * FillRateRepo.RATIO_STEP));
+        assertEquals(1, repo.orders(5, 1.0, FillRateRepo.RATIO_MIN));
+    }
+
+    @Test
+    public void cheapestRatioIsTheLeastAggressiveReachingTheTarget() {
+        // over four rounds, bids at 0.9 fill half the time, at 1.0 and 1.2 always
+        for (int round = 0; round < 4; round++) {
+            int origin = 100 + round;
+            repo.submitted(origin, origin + 6, 1.0, -36.0, 40.0);
+            repo.submitted(origin, origin + 6, 1.0, -40.0, 40.0);
+            repo.submitted(origin, origin + 6, 1.0, -48.0, 40.0);
+            double clearing = round % 2 == 0 ? 35.0 : 40.0;
+            repo.filled(origin + 6, round % 2 == 0 ? 3.0 : 2.0, -clearing);
+            repo.settle();
+        }
+        assertEquals(0.5, repo.fillRate(6, 1.0, 0.9), EPSILON);
+        assertEquals(0.9, repo.cheapestRatio(6, 1.0, 0.5), EPSILON);
+        assertEquals(1.0, repo.cheapestRatio(6, 1.0, 0.9), EPSILON);
+        assertTrue(Double.isNaN(repo.cheapestRatio(7, 1.0, 0.5)));
+        assertTrue(Double.isNaN(repo.cheapestRatio(0, 1.0, 0.5)));
+    }
+
+    @Test
+    public void cheapestRatioNeedsEnoughOrders() {
+        repo.submitted(100, 106, 1.0, -40.0, 40.0);
+        repo.filled(106, 1.0, -40.0);
+        repo.settle();
+        assertTrue(Double.isNaN(repo.cheapestRatio(6, 1.0, 0.5)));
+    }
+
+    @Test
+    public void cheapestSellRatioIsTheHighestReachingTheTarget() {
+        for (int round = 0; round < 2; round++) {
+            int origin = 100 + round;
+            repo.submitted(origin, origin + 2, -1.0, 36.0, 40.0);
+            repo.submitted(origin, origin + 2, -1.0, 44.0, 40.0);
+            repo.filled(origin + 2, -1.0, 38.0);
+            repo.settle();
+        }
+        assertEquals(0.9, repo.cheapestRatio(2, -1.0, 0.9), EPSILON);
+    }
+}
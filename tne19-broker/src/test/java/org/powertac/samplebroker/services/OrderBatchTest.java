@@ -0,0 +1,141 @@
+package org.powertac.samplebroker.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OrderBatchTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private OrderBatch batch;
+
+    private Map<Integer, Double> held;
+
+    // orders sent, as {timeslot, mWh, limitPrice}
+    private List<double[]> sent;
+
+    @BeforeEach
+    public void setUp() {
+        batch = new OrderBatch();
+        held = new HashMap<>();
+        sent = new ArrayList<>();
+        batch.begin(100, 0.01);
+    }
+
+    private int flush() {
+        return batch.flush(timeslot -> held.getOrDefault(timeslot, 0.0),
+                (timeslot, mWh, limitPrice) -> sent.add(new double[] { timeslot, mWh, limitPrice }));
+    }
+
+    private double sentMWh(int timeslot) {
+        double total = 0.0;
+        for (double[] order : sent) {
+            if (order[0] == timeslot) {
+                total += order[1];
+            }
+        }
+        return total;
+    }
+
+    @Test
+    public void oppositeProposalsCancel() {
+        batch.add(105, 2.0, -30.0);
+        batch.add(105, -0.5, 40.0);
+        assertEquals(1, flush());
+        assertEquals(1.5, sentMWh(105), EPSILON);
+        assertEquals(-30.0, sent.get(0)[2], EPSILON);
+    }
+
+    @Test
+    public void fullyCancelledTimeslotSendsNothing() {
+        batch.add(105, 1.0, -30.0);
+        batch.add(105, -1.0, 40.0);
+        assertEquals(0, flush());
+    }
+
+    @Test
+    public void leastAggressiveBuysAreTrimmedFirst() {
+        batch.add(105, 1.0, -20.0);
+        batch.add(105, 1.0, -40.0);
+        batch.add(105, -1.5, 35.0);
+        flush();
+        assertEquals(1, sent.size());
+        assertEquals(0.5, sent.get(0)[1], EPSILON);
+        assertEquals(-40.0, sent.get(0)[2], EPSILON);
+    }
+
+    @Test
+    public void laterFlushNetsAgainstOrdersAlreadySent() {
+        batch.add(105, 2.0, -30.0);
+        flush();
+        batch.add(105, -3.0, 40.0);
+        flush();
+        assertEquals(2, sent.size());
+        assertEquals(-1.0, sent.get(1)[1], EPSILON);
+    }
+
+    @Test
+    public void newActivationForgetsSentOrders() {
+        batch.add(105, 2.0, -30.0);
+        flush();
+        batch.begin(101, 0.01);
+        batch.add(105, -2.0, 40.0);
+        flush();
+        assertEquals(-2.0, sent.get(1)[1], EPSILON);
+    }
+
+    @Test
+    public void remaindersBelowMinMWhAreDropped() {
+        batch.add(105, 0.005, -30.0);
+        batch.add(106, 1.0, -30.0);
+        batch.add(106, -0.995, 40.0);
+        assertEquals(0, flush());
+        batch.add(107, 0.02, -30.0);
+        assertEquals(1, flush());
+    }
+
+    @Test
+    public void sellsMayGoShortByDefault() {
+        batch.add(110, -2.0, 40.0);
+        assertEquals(1, flush());
+        assertEquals(-2.0, sentMWh(110), EPSILON);
+    }
+
+    @Test
+    public void sellCapLimitsSellsToPosition() {
+        batch = new OrderBatch().withSellCap(true);
+        batch.begin(100, 0.01);
+        held.put(110, 1.5);
+        batch.add(110, -1.0, 40.0);
+        batch.add(110, -1.0, 45.0);
+        flush();
+        assertEquals(-1.5, sentMWh(110), EPSILON);
+        // the higher ask is the least aggressive, so it loses quantity first
+        for (double[] order : sent) {
+            if (order[2] == 45.0) {
+                assertEquals(-0.5, order[1], EPSILON);
+            }
+        }
+        batch.add(111, -1.0, 40.0);
+        flush();
+        assertEquals(0.0, sentMWh(111), EPSILON);
+    }
+
+    @Test
+    public void timeslotsAreSentInOrder() {
+        for (int t = 124; t > 100; t--) {
+            batch.add(t, 1.0, -30.0);
+        }
+        assertEquals(24, flush());
+        for (int k = 1; k < sent.size(); k++) {
+            assertEquals(sent.get(k - 1)[0] + 1, sent.get(k)[0], EPSILON);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.powertac.samplebroker.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PredictionCacheTest {
+
+    private static final int WIDTH = 4;
+
+    private PredictionCache cache;
+
+    private double[] result;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new PredictionCache(3, WIDTH);
+        result = new double[WIDTH];
+    }
+
+    private static double[] row(double value) {
+        return new double[] { value, value + 1, value + 2, value + 3 };
+    }
+
+    @Test
+    public void returnsWhatWasStored() {
+        assertFalse(cache.get(0, 10, 42L, result));
+        cache.put(0, 10, 42L, row(1.0));
+        assertTrue(cache.get(0, 10, 42L, result));
+        assertArrayEquals(row(1.0), result);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void keepsAStoredCopy() {
+        double[] values = row(1.0);
+        cache.put(0, 10, 42L, values);
+        values[0] = 99.0;
+        cache.get(0, 10, 42L, result);
+        assertEquals(1.0, result[0]);
+    }
+
+    @Test
+    public void sameHashForOtherModelOrTimeslotIsAnotherEntry() {
+        cache.put(0, 10, 42L, row(1.0));
+        cache.put(1, 10, 42L, row(2.0));
+        cache.put(0, 11, 42L, row(3.0));
+        assertEquals(3, cache.size());
+        assertTrue(cache.get(1, 10, 42L, result));
+        assertArrayEquals(row(2.0), result);
+        assertTrue(cache.get(0, 11, 42L, result));
+        assertArrayEquals(row(3.0), result);
+        assertTrue(cache.get(0, 10, 42L, result));
+        assertArrayEquals(row(1.0), result);
+        assertFalse(cache.get(1, 11, 42L, result));
+    }
+
+    @Test
+    public void putReplacesWithoutGrowing() {
+        cache.put(0, 10, 42L, row(1.0));
+        cache.put(0, 10, 42L, row(5.0));
+        assertEquals(1, cache.size());
+        cache.get(0, 10, 42L, result);
+        assertArrayEquals(row(5.0), result);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.put(0, 1, 1L, row(1.0));
+        cache.put(0, 2, 2L, row(2.0));
+        cache.put(0, 3, 3L, row(3.0));
+        // reading 1 makes 2 the least recently used
+        assertTrue(cache.get(0, 1, 1L, result));
+        cache.put(0, 4, 4L, row(4.0));
+        assertEquals(3, cache.size());
+        assertFalse(cache.get(0, 2, 2L, result));
+        assertTrue(cache.get(0, 1, 1L, result));
+        assertTrue(cache.get(0, 3, 3L, result));
+        assertTrue(cache.get(0, 4, 4L, result));
+        assertArrayEquals(row(4.0), result);
+    }
+
+    @Test
+    public void clearEmptiesTheCache() {
+        cache.put(0, 1, 1L, row(1.0));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.get(0, 1, 1L, result));
+        cache.put(0, 2, 2L, row(2.0));
+        assertTrue(cache.get(0, 2, 2L, result));
+    }
+
+    @Test
+    public void hashTellsFeatureRowsApart() {
+        double[] a = { 1.0, 2.0, 3.0 };
+        double[] b = { 1.0, 3.0, 2.0 };
+        assertEquals(PredictionCache.hash(a, 3), PredictionCache.hash(a.clone(), 3));
+        assertTrue(PredictionCache.hash(a, 3) != PredictionCache.hash(b, 3));
+        assertEquals(PredictionCache.hash(a, 1), PredictionCache.hash(b, 1));
+    }
+
+    // Random gets and puts over few keys, so probe runs collide and entries
+    // are evicted from their middle, checked against a LinkedHashMap
+    @Test
+    public void matchesReferenceLru() {
+        int capacity = 8;
+        PredictionCache lru = new PredictionCache(capacity, WIDTH);
+        Map<Long, Double> reference = new LinkedHashMap<>(16, 0.75f, true);
+        Random random = new Random(7);
+        for (int op = 0; op < 20000; op++) {
+            int model = random.nextInt(2);
+            int timeslot = random.nextInt(6);
+            long hash = random.nextInt(3);
+            long key = (model * 100L + timeslot) * 10L + hash;
+            if (random.nextBoolean()) {
+                double value = op;
+                lru.put(model, timeslot, hash, row(value));
+                reference.put(key, value);
+                if (reference.size() > capacity) {
+                    Iterator<Long> eldest = reference.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            } else {
+                Double expected = reference.get(key);
+                assertEquals(expected != null, lru.get(model, timeslot, hash, result), "op " + op);
+                if (expected != null) {
+                    assertEquals(expected.doubleValue(), result[0], "op " + op);
+                }
+            }
+            assertEquals(reference.size(), lru.size());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.powertac.samplebroker.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.http.HttpEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PredictionCodecTest {
+
+    private static final int HORIZON = PredictionCodec.HORIZON;
+
+    private PredictionCodec codec;
+
+    private double[] result;
+
+    @BeforeEach
+    public void setUp() {
+        codec = new PredictionCodec();
+        result = new double[HORIZON];
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String text(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    // Answer with the given values, padded with zeros to HORIZON
+    private static String answer(String... values) {
+        StringBuilder text = new StringBuilder("{\"prediction\": [");
+        for (int i = 0; i < HORIZON; i++) {
+            text.append(i > 0 ? ", " : "").append(i < values.length ? values[i] : "0");
+        }
+        return text.append("]}").toString();
+    }
+
+    // Encodes values as a request, then decodes its row as an answer
+    private double[] roundTrip(double... values) throws IOException {
+        double[] features = Arrays.copyOf(values, HORIZON);
+        String request = text(codec.encode(features, HORIZON));
+        assertTrue(request.startsWith("{\"data\":[[") && request.endsWith("]]}"), request);
+        String row = request.substring("{\"data\":[".length(), request.length() - 2);
+        assertTrue(codec.decode(stream("{\"prediction\":" + row + "}"), result), row);
+        return result;
+    }
+
+    @Test
+    public void encodesRequestBody() throws IOException {
+        double[] features = { 1.0, -2.5, 0.125, 3.0000004 };
+        HttpEntity entity = codec.encode(features, 4);
+        assertEquals("{\"data\":[[1,-2.5,0.125,3]]}", text(entity));
+        assertEquals(entity.getContentLength(), codec.getEncodedLength());
+    }
+
+    @Test
+    public void encodesBatchBody() throws IOException {
+        double[][] rows = { { 1.0, 2.0 }, { -3.0, 0.5 }, { 9.0, 9.0 } };
+        assertEquals("{\"data\":[[1,2],[-3,0.5]]}", text(codec.encode(rows, 2, 2)));
+    }
+
+    @Test
+    public void roundTripsNegatives() throws IOException {
+        double[] decoded = roundTrip(-1.0, -0.5, -123.456789, -1e11 - 0.25);
+        assertEquals(-1.0, decoded[0]);
+        assertEquals(-0.5, decoded[1]);
+        assertEquals(-123.456789, decoded[2]);
+        assertEquals(-1e11 - 0.25, decoded[3]);
+    }
+
+    @Test
+    public void roundTripsValuesBelowDecimals() throws IOException {
+        double[] decoded = roundTrip(1e-7, -4.2e-9, 1.5e-300, 0.0000005);
+        assertEquals(1e-7, decoded[0]);
+        assertEquals(-4.2e-9, decoded[1]);
+        assertEquals(1.5e-300, decoded[2]);
+        assertEquals(0.0000005, decoded[3]);
+    }
+
+    @Test
+    public void roundsToDecimals() throws IOException {
+        double[] decoded = roundTrip(0.1234564, 2.0000006);
+        assertEquals(0.123456, decoded[0]);
+        assertEquals(2.000001, decoded[1]);
+    }
+
+    @Test
+    public void roundTripsLargeNumbers() throws IOException {
+        double[] decoded = roundTrip(123456789012345.0, 5e15, -1.25e20, 1.5e12 + 0.5, 1e300);
+        assertEquals(123456789012345.0, decoded[0]);
+        assertEquals(5e15, decoded[1]);
+        assertEquals(-1.25e20, decoded[2]);
+        assertEquals(1.5e12 + 0.5, decoded[3]);
+        assertEquals(1e300, decoded[4]);
+    }
+
+    @Test
+    public void roundTripsNonFinite() throws IOException {
+        double[] decoded = roundTrip(Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        assertTrue(Double.isNaN(decoded[0]));
+        assertEquals(Double.POSITIVE_INFINITY, decoded[1]);
+        assertEquals(Double.NEGATIVE_INFINITY, decoded[2]);
+    }
+
+    @Test
+    public void decodesExponents() throws IOException {
+        assertTrue(codec.decode(stream(answer("1e22", "1E-22", "2.5e+23", "-7.5e-30", "1.5e308", "4.9e-324")), result));
+        assertEquals(1e22, result[0]);
+        assertEquals(1e-22, result[1]);
+        assertEquals(2.5e23, result[2]);
+        assertEquals(-7.5e-30, result[3]);
+        assertEquals(1.5e308, result[4]);
+        assertEquals(4.9e-324, result[5]);
+    }
+
+    @Test
+    public void decodesLongMantissas() throws IOException {
+        String[] values = { "0.12345678901234567890123", "-98765432109876543210.5", "3.141592653589793238462643",
+            "0.000000000000000000012345678901234567891", "12345678901234567890123456789" };
+        assertTrue(codec.decode(stream(answer(values)), result));
+        for (int i = 0; i < values.length; i++) {
+            double expected = Double.parseDouble(values[i]);
+            assertEquals(expected, result[i], Math.ulp(expected), values[i]);
+        }
+    }
+
+    @Test
+    public void decodesUpToFifteenDigitsExactly() throws IOException {
+        String[] values = { "0.1", "123.456", "-0.000123456789012", "999999.999999", "42" };
+        assertTrue(codec.decode(stream(answer(values)), result));
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(Double.parseDouble(values[i]), result[i], values[i]);
+        }
+    }
+
+    @Test
+    public void rejectsShortOrBrokenAnswers() throws IOException {
+        Arrays.fill(result, 7.0);
+        String full = answer();
+        assertFalse(codec.decode(stream(full.substring(0, full.length() - 10)), result), "truncated");
+        assertFalse(codec.decode(stream("{\"prediction\": [1, 2, 3]}"), result), "too few");
+        assertFalse(codec.decode(stream("{\"result\": [1, 2, 3]}"), result), "missing");
+        assertFalse(codec.decode(stream("{\"prediction\": 5}"), result), "not an array");
+        assertFalse(codec.decode(stream("{\"prediction\": [1, x, 3]}"), result), "not a number");
+        assertFalse(codec.decode(stream("{\"prediction\": [1,, 3]}"), result), "empty value");
+        assertFalse(codec.decode(stream(""), result), "empty");
+        for (double value : result) {
+            assertEquals(7.0, value);
+        }
+    }
+
+    @Test
+    public void decodesBatches() throws IOException {
+        StringBuilder text = new StringBuilder("{\"rows\": 2, \"prediction\": [");
+        for (int i = 0; i < 2 * HORIZON; i++) {
+            text.append(i > 0 ? "," : "").append(i);
+        }
+        text.append("]}");
+        double[][] rows = new double[2][HORIZON];
+        assertTrue(codec.decode(stream(text.toString()), 2, rows));
+        assertEquals(0.0, rows[0][0]);
+        assertEquals(HORIZON, rows[1][0]);
+        assertEquals(2 * HORIZON - 1, rows[1][HORIZON - 1]);
+        assertFalse(codec.decode(stream(text.toString()), 3, new double[3][HORIZON]));
+    }
+
+    @Test
+    public void reusesBuffersAcrossLargeAnswers() throws IOException {
+        StringBuilder text = new StringBuilder("{\"prediction\": [");
+        for (int i = 0; i < 1000; i++) {
+            text.append(i > 0 ? ", " : "").append(i).append(".5");
+        }
+        text.append("]}");
+        assertTrue(codec.decode(stream(text.toString()), result));
+        assertEquals(23.5, result[23]);
+        assertTrue(codec.decode(stream(answer("1")), result));
+        assertEquals(1.0, result[0]);
+    }
+}
@@ -0,0 +1,119 @@
+package org.powertac.samplebroker.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LadderEngineTest {
+
+    private static final int HORIZON = LadderEngine.HORIZON;
+
+    private static final double EPSILON = 1e-9;
+
+    private LadderEngine ladder;
+
+    private double[] prices;
+
+    private double[] needed;
+
+    @BeforeEach
+    public void setUp() {
+        ladder = new LadderEngine(3).withSpread(1.0).withUrgency(2.0).withDefaultError(0.1);
+        prices = new double[HORIZON];
+        needed = new double[HORIZON];
+        Arrays.fill(prices, 40.0);
+    }
+
+    @Test
+    public void buyLadderSpreadsAroundPriceWithFullDayLeft() {
+        needed[HORIZON - 1] = 3.0;
+        assertEquals(3, ladder.build(100, prices, needed, HORIZON, 0.01));
+        // sigma is 10% of 40, no urgency 24 auctions out
+        assertEquals(-36.0, ladder.getLimitPrice(0), EPSILON);
+        assertEquals(-40.0, ladder.getLimitPrice(1), EPSILON);
+        assertEquals(-44.0, ladder.getLimitPrice(2), EPSILON);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(124, ladder.getTimeslot(i));
+            assertEquals(1.0, ladder.getMWh(i), EPSILON);
+        }
+    }
+
+    @Test
+    public void lastAuctionAddsFullUrgency() {
+        needed[0] = 3.0;
+        needed[1] = -3.0;
+        assertEquals(6, ladder.build(100, prices, needed, HORIZON, 0.01));
+        assertEquals(-44.0, ladder.getLimitPrice(0), EPSILON);
+        assertEquals(-48.0, ladder.getLimitPrice(1), EPSILON);
+        assertEquals(-52.0, ladder.getLimitPrice(2), EPSILON);
+        // sells at lead 2 move down by 22/23 of the urgency
+        double shift = 2.0 * 22 / 23;
+        assertEquals(40.0 - (shift - 1.0) * 4.0, ladder.getLimitPrice(3), EPSILON);
+        assertEquals(40.0 - (shift + 1.0) * 4.0, ladder.getLimitPrice(5), EPSILON);
+        assertEquals(-1.0, ladder.getMWh(4), EPSILON);
+        assertEquals(102, ladder.getTimeslot(4));
+    }
+
+    @Test
+    public void smallQuantitiesUseFewerLevels() {
+        needed[5] = 0.025;
+        needed[6] = 0.005;
+        assertEquals(2, ladder.build(100, prices, needed, HORIZON, 0.01));
+        assertEquals(0.0125, ladder.getMWh(0), EPSILON);
+        assertEquals(0.0125, ladder.getMWh(1), EPSILON);
+    }
+
+    @Test
+    public void skipsUnknownPricesAndQuantities() {
+        needed[0] = 1.0;
+        needed[1] = Double.NaN;
+        needed[2] = 1.0;
+        prices[0] = Double.NaN;
+        assertEquals(3, ladder.build(100, prices, needed, HORIZON, 0.01));
+        assertEquals(103, ladder.getTimeslot(0));
+    }
+
+    @Test
+    public void limitsAreClamped() {
+        ladder.withBuyLimits(-45.0, -38.0).withSellLimits(39.0, 70.0);
+        needed[0] = 3.0;
+        needed[HORIZON - 1] = -3.0;
+        ladder.build(100, prices, needed, HORIZON, 0.01);
+        assertEquals(-44.0, ladder.getLimitPrice(0), EPSILON);
+        assertEquals(-45.0, ladder.getLimitPrice(1), EPSILON);
+        assertEquals(-45.0, ladder.getLimitPrice(2), EPSILON);
+        assertEquals(44.0, ladder.getLimitPrice(3), EPSILON);
+        assertEquals(39.0, ladder.getLimitPrice(5), EPSILON);
+    }
+
+    @Test
+    public void learnsErrorAndBiasByLead() {
+        double[] errors = { 1.0, 3.0, 2.0, 4.0, 5.0 };
+        for (int origin = 0; origin < errors.length; origin++) {
+            ladder.recordPrediction(origin, prices, HORIZON);
+            // lead 3 clears above the prediction, other leads are not seen
+            ladder.observeClearing(origin + 3, origin, -(40.0 + errors[origin]));
+        }
+        assertEquals(3.0, ladder.biasFor(3), EPSILON);
+        assertEquals(Math.sqrt(2.5), ladder.errorFor(3, 40.0), EPSILON);
+        assertEquals(0.0, ladder.biasFor(4), EPSILON);
+        assertEquals(4.0, ladder.errorFor(4, 40.0), EPSILON);
+    }
+
+    @Test
+    public void ignoresClearingsWithoutPrediction() {
+        for (int origin = 0; origin < 10; origin++) {
+            ladder.observeClearing(origin + 1, origin, 50.0);
+        }
+        // a prediction overwritten by one HORIZON + 1 origins later no longer scores
+        ladder.recordPrediction(0, prices, HORIZON);
+        ladder.recordPrediction(HORIZON + 1, prices, HORIZON);
+        for (int k = 0; k < 10; k++) {
+            ladder.observeClearing(1, 0, 50.0);
+        }
+        assertEquals(0.0, ladder.biasFor(1), EPSILON);
+    }
+}